@@ -0,0 +1,114 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * checks that per-example train and evaluate allocate nothing once warmed up, for NeuralNetwork and FloatNeuralNetwork
+ *
+ * each call is run WARMUP times so the JIT has compiled it, then its allocated bytes are counted over MEASURED more calls
+ * with the thread allocation counter, and the process exits with status 1 if any call allocated at all
+ * run it with java -cp benchmarks/target/benchmarks.jar benchmarks.AllocationCheck, add --add-modules jdk.incubator.vector
+ * to check the vector kernels too, the benchmarks show the same numbers as gc.alloc.rate.norm but nothing fails on them
+ */
+public class AllocationCheck {
+
+    private static final int WARMUP = 50000;
+    private static final int MEASURED = 20000;
+
+    private static final String SHAPE = "784-50-40-10";
+    private static final int BATCH_SIZE = 20;
+
+    private static final MethodHandle NEW_NETWORK = Core.constructor("NeuralNetwork", int[].class, File.class);
+    private static final MethodHandle SET_BATCH_SIZE = Core.method("NeuralNetwork", "setBatchSize", void.class, int.class);
+    private static final MethodHandle SET_STEP_SIZE = Core.method("NeuralNetwork", "setStepSize", void.class, double.class);
+    private static final MethodHandle EVALUATE = Core.method("NeuralNetwork", "evaluate", double[].class, double[].class);
+    private static final MethodHandle EVALUATE_INTO = Core.method("NeuralNetwork", "evaluate", void.class, double[].class, double[].class);
+    private static final MethodHandle TRAIN = Core.method("NeuralNetwork", "train", double[].class, double[].class, double[].class);
+
+    private static final MethodHandle NEW_FLOAT_NETWORK = Core.constructor("FloatNeuralNetwork", Core.type("NeuralNetwork"));
+    private static final MethodHandle SET_FLOAT_BATCH_SIZE = Core.method("FloatNeuralNetwork", "setBatchSize", void.class, int.class);
+    private static final MethodHandle SET_FLOAT_STEP_SIZE = Core.method("FloatNeuralNetwork", "setStepSize", void.class, float.class);
+    private static final MethodHandle EVALUATE_FLOAT = Core.method("FloatNeuralNetwork", "evaluate", float[].class, float[].class);
+    private static final MethodHandle TRAIN_FLOAT = Core.method("FloatNeuralNetwork", "train", float[].class, float[].class, float[].class);
+
+    private static final MethodHandle KERNELS_NAME = Core.staticMethod("LinearAlgebra", "getKernelsName", String.class);
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // one call of the code being checked
+    private interface Call
+    {
+        void run() throws Throwable;
+    }
+
+    public static void main(String[] args) throws Throwable
+    {
+        if (!THREADS.isThreadAllocatedMemorySupported())
+        {
+            System.err.println("this JVM cannot count allocated bytes per thread");
+            System.exit(2);
+        }
+
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        int[] sizes = Core.parseShape(SHAPE);
+        Random random = new Random(0);
+
+        File file = Files.createTempFile("network", ".bin").toFile();
+        file.deleteOnExit();
+
+        Object net = (Object) NEW_NETWORK.invokeExact(sizes, file);
+        SET_BATCH_SIZE.invokeExact(net, BATCH_SIZE);
+        // a tiny step keeps the weights from drifting over the calls
+        SET_STEP_SIZE.invokeExact(net, 1e-9);
+
+        double[] in = random.doubles(sizes[0]).toArray();
+        double[] target = new double[sizes[sizes.length - 1]];
+        double[] out = new double[target.length];
+        target[0] = 1;
+
+        Object floatNet = (Object) NEW_FLOAT_NETWORK.invokeExact(net);
+        SET_FLOAT_BATCH_SIZE.invokeExact(floatNet, BATCH_SIZE);
+        SET_FLOAT_STEP_SIZE.invokeExact(floatNet, 1e-9f);
+
+        float[] floatIn = new float[in.length];
+        float[] floatTarget = new float[target.length];
+        for (int i = 0; i < in.length; i++) floatIn[i] = (float) in[i];
+        floatTarget[0] = 1;
+
+        System.out.println("kernels " + (String) KERNELS_NAME.invokeExact() + ", shape " + SHAPE + ", batch size " + BATCH_SIZE);
+
+        int failures = 0;
+
+        failures += check("NeuralNetwork.evaluate(in)", () -> { double[] result = (double[]) EVALUATE.invokeExact(net, in); });
+        failures += check("NeuralNetwork.evaluate(in, out)", () -> { EVALUATE_INTO.invokeExact(net, in, out); });
+        failures += check("NeuralNetwork.train", () -> { double[] result = (double[]) TRAIN.invokeExact(net, in, target); });
+        failures += check("FloatNeuralNetwork.evaluate", () -> { float[] result = (float[]) EVALUATE_FLOAT.invokeExact(floatNet, floatIn); });
+        failures += check("FloatNeuralNetwork.train", () -> { float[] result = (float[]) TRAIN_FLOAT.invokeExact(floatNet, floatIn, floatTarget); });
+
+        if (failures > 0)
+        {
+            System.err.println(failures + " of the calls allocate");
+            System.exit(1);
+        }
+    }
+
+    // prints the bytes per call after warming up and returns 1 if it is not 0
+    private static int check(String name, Call call) throws Throwable
+    {
+        for (int i = 0; i < WARMUP; i++) call.run();
+
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED; i++) call.run();
+        long bytes = THREADS.getCurrentThreadAllocatedBytes() - before;
+
+        double perCall = (double) bytes / MEASURED;
+        System.out.printf("%-34s %8.2f B/op %s%n", name, perCall, bytes == 0 ? "ok" : "ALLOCATES");
+
+        return bytes == 0 ? 0 : 1;
+    }
+}
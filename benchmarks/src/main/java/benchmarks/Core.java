@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * handles to the network classes
+ *
+ * the network classes are in the default package, which JMH cannot generate benchmarks for and a named package cannot import,
+ * so the benchmarks reach them through method handles with the default package types erased to Object
+ * every handle is kept in a static final field, where the JIT treats it as a constant and inlines the call through invokeExact
+ */
+final class Core {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    static final Class<?> MATRIX = type("Matrix");
+
+    private Core()
+    {
+    }
+
+    static Class<?> type(String name)
+    {
+        try
+        {
+            return Class.forName(name);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalStateException("network class " + name + " is not on the class path", e);
+        }
+    }
+
+    static MethodHandle constructor(String className, Class<?>... params)
+    {
+        try
+        {
+            return erase(LOOKUP.findConstructor(type(className), MethodType.methodType(void.class, params)));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("no constructor " + className + " with those parameters", e);
+        }
+    }
+
+    static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... params)
+    {
+        try
+        {
+            return erase(LOOKUP.findVirtual(type(className), name, MethodType.methodType(returnType, params)));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("no method " + className + "." + name + " with those parameters", e);
+        }
+    }
+
+    static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... params)
+    {
+        try
+        {
+            return erase(LOOKUP.findStatic(type(className), name, MethodType.methodType(returnType, params)));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("no method " + className + "." + name + " with those parameters", e);
+        }
+    }
+
+    // replaces every default package class in the handle type with Object
+    private static MethodHandle erase(MethodHandle handle)
+    {
+        MethodType type = handle.type();
+
+        for (int i = 0; i < type.parameterCount(); i++)
+        {
+            type = type.changeParameterType(i, erase(type.parameterType(i)));
+        }
+
+        return handle.asType(type.changeReturnType(erase(type.returnType())));
+    }
+
+    private static Class<?> erase(Class<?> type)
+    {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty() ? Object.class : type;
+    }
+
+    /**
+     * @param layerSizes is a shape such as 784-50-40-10
+     * @return the size of every layer including the input
+     */
+    static int[] parseShape(String layerSizes)
+    {
+        String[] parts = layerSizes.split("-");
+
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) sizes[i] = Integer.parseInt(parts[i]);
+        return sizes;
+    }
+}
@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * one example through a single Layer: forward, backward and the weight update
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class LayerBenchmark {
+
+    private static final MethodHandle NEW_LAYER = Core.constructor("Layer", int.class, int.class);
+    private static final MethodHandle EVALUATE = Core.method("Layer", "evaluate", double[].class, double[].class);
+    private static final MethodHandle D_TRAIN = Core.method("Layer", "dTrain", double[].class, double[].class);
+    private static final MethodHandle APPLY_GRADIENT = Core.method("Layer", "applyGradient", void.class, double.class);
+
+    @State(Scope.Thread)
+    public static class LayerState
+    {
+        // inputs-outputs
+        @Param({"784-50", "784-256", "1024-1024"})
+        public String shape;
+
+        Object layer;
+        double[] in;
+        double[] dOut;
+
+        @Setup
+        public void setUp() throws Throwable
+        {
+            int[] sizes = Core.parseShape(shape);
+
+            layer = (Object) NEW_LAYER.invokeExact(sizes[0], sizes[1]);
+
+            Random random = new Random(0);
+            in = random.doubles(sizes[0]).toArray();
+            dOut = random.doubles(sizes[1], -1, 1).toArray();
+
+            // dTrain works on the last evaluate
+            double[] out = (double[]) EVALUATE.invokeExact(layer, in);
+        }
+    }
+
+    // applyGradient divides by the number of examples since the last one, so every call needs an example first
+    // the smallest layer takes microseconds, long enough that a setup per invocation does not skew it
+    @State(Scope.Thread)
+    public static class PendingGradient
+    {
+        @Setup(Level.Invocation)
+        public void addExample(LayerState state) throws Throwable
+        {
+            double[] dIn = (double[]) D_TRAIN.invokeExact(state.layer, state.dOut);
+        }
+    }
+
+    @Benchmark
+    public double[] evaluate(LayerState state) throws Throwable
+    {
+        return (double[]) EVALUATE.invokeExact(state.layer, state.in);
+    }
+
+    @Benchmark
+    public double[] dTrain(LayerState state) throws Throwable
+    {
+        return (double[]) D_TRAIN.invokeExact(state.layer, state.dOut);
+    }
+
+    @Benchmark
+    public void applyGradient(LayerState state, PendingGradient pending) throws Throwable
+    {
+        // a tiny step keeps the weights from drifting over millions of calls
+        APPLY_GRADIENT.invokeExact(state.layer, 1e-12);
+    }
+}
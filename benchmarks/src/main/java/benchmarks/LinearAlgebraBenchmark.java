@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * LinearAlgebra.dot on a vector pair and as a square matrix vector product
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class LinearAlgebraBenchmark {
+
+    private static final MethodHandle NEW_MATRIX = Core.constructor("Matrix", int.class, int.class);
+    private static final MethodHandle GET_DATA = Core.method("Matrix", "getData", double[].class);
+
+    private static final MethodHandle DOT = Core.staticMethod("LinearAlgebra", "dot", double.class, double[].class, double[].class);
+    private static final MethodHandle GEMV = Core.staticMethod("LinearAlgebra", "dot", void.class, Core.MATRIX, double[].class, double[].class);
+
+    @Param({"64", "256", "1024"})
+    public int size;
+
+    private double[] v1;
+    private double[] v2;
+    private Object matrix;
+    private double[] out;
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        Random random = new Random(0);
+
+        v1 = random.doubles(size).toArray();
+        v2 = random.doubles(size).toArray();
+
+        matrix = (Object) NEW_MATRIX.invokeExact(size, size);
+        double[] data = (double[]) GET_DATA.invokeExact(matrix);
+        for (int i = 0; i < data.length; i++) data[i] = random.nextDouble();
+
+        out = new double[size];
+    }
+
+    @Benchmark
+    public double dotVector() throws Throwable
+    {
+        return (double) DOT.invokeExact(v1, v2);
+    }
+
+    @Benchmark
+    public double[] dotMatrix() throws Throwable
+    {
+        GEMV.invokeExact(matrix, v1, out);
+        return out;
+    }
+}
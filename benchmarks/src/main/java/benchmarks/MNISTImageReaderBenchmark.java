@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * reading one image from a pair of IDX files, as the int[][] the reader started with and as scaled doubles,
+ * and the same image from a DatasetCache of the files in each of its dtypes
+ * the files are made up so the benchmark does not need the MNIST download
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MNISTImageReaderBenchmark {
+
+    private static final int NUM_IMAGES = 10000;
+    private static final int IMAGE_SIZE = 784;
+
+    private static final MethodHandle NEW_READER = Core.constructor("MNISTImageReader", File.class, File.class);
+    private static final MethodHandle GET_IMAGE = Core.method("MNISTImageReader", "getImage", int[][].class, int.class);
+    private static final MethodHandle GET_IMAGE_DOUBLES = Core.method("MNISTImageReader", "getImage", void.class, int.class, double[].class);
+
+    private static final MethodHandle OPEN_CACHE = Core.staticMethod("DatasetCache", "open", Core.type("DatasetCache"), File.class, File.class, File.class, byte.class);
+    private static final MethodHandle GET_CACHED_IMAGE = Core.method("DatasetCache", "getImage", void.class, int.class, double[].class);
+
+    // DatasetCache.DTYPE_FLOAT32 and DTYPE_UINT8
+    private static final byte DTYPE_FLOAT32 = 2;
+    private static final byte DTYPE_UINT8 = 3;
+
+    private Object reader;
+    private Object floatCache;
+    private Object byteCache;
+    private double[] image;
+    private int next;
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        File images = Files.createTempFile("images", ".idx3-ubyte").toFile();
+        File lables = Files.createTempFile("lables", ".idx1-ubyte").toFile();
+        images.deleteOnExit();
+        lables.deleteOnExit();
+
+        writeIdx(images, 0x00000803, new int[] {NUM_IMAGES, 28, 28}, NUM_IMAGES * IMAGE_SIZE);
+        writeIdx(lables, 0x00000801, new int[] {NUM_IMAGES}, NUM_IMAGES);
+
+        reader = (Object) NEW_READER.invokeExact(images, lables);
+
+        File floatFile = Files.createTempFile("images", ".cache").toFile();
+        File byteFile = Files.createTempFile("images", ".cache").toFile();
+        floatFile.deleteOnExit();
+        byteFile.deleteOnExit();
+
+        floatCache = (Object) OPEN_CACHE.invokeExact(images, lables, floatFile, DTYPE_FLOAT32);
+        byteCache = (Object) OPEN_CACHE.invokeExact(images, lables, byteFile, DTYPE_UINT8);
+        image = new double[IMAGE_SIZE];
+    }
+
+    private static void writeIdx(File file, int magicNumber, int[] dimentions, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * dimentions.length + length);
+
+        buffer.putInt(magicNumber);
+        for (int dimention : dimentions) buffer.putInt(dimention);
+
+        byte[] data = new byte[length];
+        new Random(0).nextBytes(data);
+
+        // a cache only takes lables of the 10 classes
+        if (dimentions.length == 1)
+        {
+            for (int i = 0; i < length; i++) data[i] = (byte) ((data[i] & 0xFF) % 10);
+        }
+
+        buffer.put(data);
+
+        Files.write(file.toPath(), buffer.array());
+    }
+
+    // walks the images in order so each call reads a different one
+    private int nextImage()
+    {
+        next = next + 1 == NUM_IMAGES ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public int[][] getImage() throws Throwable
+    {
+        return (int[][]) GET_IMAGE.invokeExact(reader, nextImage());
+    }
+
+    @Benchmark
+    public double[] getImageDoubles() throws Throwable
+    {
+        GET_IMAGE_DOUBLES.invokeExact(reader, nextImage(), image);
+        return image;
+    }
+
+    @Benchmark
+    public double[] getCachedFloatImage() throws Throwable
+    {
+        GET_CACHED_IMAGE.invokeExact(floatCache, nextImage(), image);
+        return image;
+    }
+
+    @Benchmark
+    public double[] getCachedByteImage() throws Throwable
+    {
+        GET_CACHED_IMAGE.invokeExact(byteCache, nextImage(), image);
+        return image;
+    }
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * saving a NeuralNetwork and loading it back, both onto the heap and memory mapped
+ * the file stays in the page cache, so this measures the format and the copying rather than the disk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ModelFileBenchmark {
+
+    private static final MethodHandle NEW_NETWORK = Core.constructor("NeuralNetwork", int[].class, File.class);
+    private static final MethodHandle LOAD_NETWORK = Core.constructor("NeuralNetwork", File.class);
+    private static final MethodHandle SAVE = Core.method("NeuralNetwork", "saveToFile", void.class, File.class);
+    private static final MethodHandle MAP_NETWORK = Core.constructor("MappedNetwork", File.class);
+
+    @Param({"784-50-40-10", "784-1024-512-10", "4096-4096-4096-10"})
+    public String shape;
+
+    private Object net;
+    private File file;
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        file = Files.createTempFile("network", ".bin").toFile();
+        file.deleteOnExit();
+
+        net = (Object) NEW_NETWORK.invokeExact(Core.parseShape(shape), file);
+    }
+
+    @Benchmark
+    public void save() throws Throwable
+    {
+        SAVE.invokeExact(net, file);
+    }
+
+    @Benchmark
+    public Object load() throws Throwable
+    {
+        return (Object) LOAD_NETWORK.invokeExact(file);
+    }
+
+    @Benchmark
+    public Object loadMapped() throws Throwable
+    {
+        return (Object) MAP_NETWORK.invokeExact(file);
+    }
+}
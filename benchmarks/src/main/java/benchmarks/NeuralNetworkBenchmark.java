@@ -0,0 +1,137 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * NeuralNetwork inference and training across layer shapes, and inference of the same network made into a CompiledNetwork
+ * train is one example at a time with the gradient applied every batchSize examples, trainBatch is one whole mini-batch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class NeuralNetworkBenchmark {
+
+    private static final MethodHandle NEW_NETWORK = Core.constructor("NeuralNetwork", int[].class, File.class);
+    private static final MethodHandle SET_BATCH_SIZE = Core.method("NeuralNetwork", "setBatchSize", void.class, int.class);
+    private static final MethodHandle SET_STEP_SIZE = Core.method("NeuralNetwork", "setStepSize", void.class, double.class);
+    private static final MethodHandle EVALUATE = Core.method("NeuralNetwork", "evaluate", double[].class, double[].class);
+    private static final MethodHandle TRAIN = Core.method("NeuralNetwork", "train", double[].class, double[].class, double[].class);
+    private static final MethodHandle TRAIN_BATCH = Core.method("NeuralNetwork", "trainBatch", void.class, Core.MATRIX, Core.MATRIX);
+
+    private static final MethodHandle COMPILE = Core.staticMethod("CompiledNetwork", "compile", Core.type("CompiledNetwork"), Core.type("NeuralNetwork"));
+    private static final MethodHandle EVALUATE_COMPILED = Core.method("CompiledNetwork", "evaluate", void.class, double[].class, double[].class);
+
+    private static final MethodHandle NEW_MATRIX = Core.constructor("Matrix", int.class, int.class);
+    private static final MethodHandle GET_DATA = Core.method("Matrix", "getData", double[].class);
+
+    static Object newNetwork(String shape) throws Throwable
+    {
+        File file = Files.createTempFile("network", ".bin").toFile();
+        file.deleteOnExit();
+
+        Object net = (Object) NEW_NETWORK.invokeExact(Core.parseShape(shape), file);
+
+        // a tiny step keeps the weights from drifting over millions of calls
+        SET_STEP_SIZE.invokeExact(net, 1e-9);
+
+        return net;
+    }
+
+    @State(Scope.Thread)
+    public static class Inference
+    {
+        @Param({"784-50-40-10", "784-256-128-10", "784-1024-512-10"})
+        public String shape;
+
+        Object net;
+        Object compiled;
+        double[] in;
+        double[] out;
+
+        @Setup
+        public void setUp() throws Throwable
+        {
+            int[] sizes = Core.parseShape(shape);
+
+            net = newNetwork(shape);
+            compiled = (Object) COMPILE.invokeExact(net);
+            in = new Random(0).doubles(sizes[0]).toArray();
+            out = new double[sizes[sizes.length - 1]];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Training
+    {
+        @Param({"784-50-40-10", "784-256-128-10", "784-1024-512-10"})
+        public String shape;
+
+        @Param({"1", "20", "128"})
+        public int batchSize;
+
+        Object net;
+        double[] in;
+        double[] target;
+
+        Object inputs;
+        Object targets;
+
+        @Setup
+        public void setUp() throws Throwable
+        {
+            int[] sizes = Core.parseShape(shape);
+            int outSize = sizes[sizes.length - 1];
+
+            net = newNetwork(shape);
+            SET_BATCH_SIZE.invokeExact(net, batchSize);
+
+            Random random = new Random(0);
+
+            in = random.doubles(sizes[0]).toArray();
+            target = new double[outSize];
+            target[0] = 1;
+
+            inputs = (Object) NEW_MATRIX.invokeExact(batchSize, sizes[0]);
+            targets = (Object) NEW_MATRIX.invokeExact(batchSize, outSize);
+
+            double[] inputData = (double[]) GET_DATA.invokeExact(inputs);
+            double[] targetData = (double[]) GET_DATA.invokeExact(targets);
+
+            for (int i = 0; i < inputData.length; i++) inputData[i] = random.nextDouble();
+            for (int row = 0; row < batchSize; row++) targetData[row * outSize + random.nextInt(outSize)] = 1;
+        }
+    }
+
+    @Benchmark
+    public double[] evaluate(Inference state) throws Throwable
+    {
+        return (double[]) EVALUATE.invokeExact(state.net, state.in);
+    }
+
+    @Benchmark
+    public double[] evaluateCompiled(Inference state) throws Throwable
+    {
+        EVALUATE_COMPILED.invokeExact(state.compiled, state.in, state.out);
+        return state.out;
+    }
+
+    @Benchmark
+    public double[] train(Training state) throws Throwable
+    {
+        return (double[]) TRAIN.invokeExact(state.net, state.in, state.target);
+    }
+
+    @Benchmark
+    public void trainBatch(Training state) throws Throwable
+    {
+        TRAIN_BATCH.invokeExact(state.net, state.inputs, state.targets);
+    }
+}
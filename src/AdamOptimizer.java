@@ -0,0 +1,75 @@
+/**
+ * Adam, momentum on the gradient and RMSProp scaling together, with both averages corrected for starting at 0
+ * keeps two doubles of state per parameter, the mean gradient in the first block and the mean square in the second
+ */
+public class AdamOptimizer implements Optimizer {
+
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+
+    public AdamOptimizer()
+    {
+        this(0.9, 0.999, 1e-8);
+    }
+
+    /**
+     * @param inBeta1 is the fraction of the mean gradient kept each step, between 0 and 1
+     * @param inBeta2 is the fraction of the mean square kept each step, between 0 and 1
+     * @param inEpsilon is added to the root mean square so a parameter that never had a gradient does not divide by 0
+     */
+    public AdamOptimizer(double inBeta1, double inBeta2, double inEpsilon)
+    {
+        if (!(inBeta1 >= 0 && inBeta1 < 1) || !(inBeta2 >= 0 && inBeta2 < 1) || !(inEpsilon > 0))
+        {
+            throw new IllegalArgumentException("betas must be at least 0 and less than 1 and epsilon must be positive");
+        }
+
+        beta1 = inBeta1;
+        beta2 = inBeta2;
+        epsilon = inEpsilon;
+    }
+
+    @Override
+    public byte getId()
+    {
+        return ADAM;
+    }
+
+    @Override
+    public int getStateSize()
+    {
+        return 2;
+    }
+
+    @Override
+    public double[] getHyperparameters()
+    {
+        return new double[] {beta1, beta2, epsilon};
+    }
+
+    @Override
+    public void update(double[] params, double[] gradSums, int count, double[] state, double stepSize, long step, int start, int end)
+    {
+        double scale = 1.0 / count;
+
+        // the bias corrections only depend on the step, so they are worked out once instead of per parameter
+        double meanCorrection = 1 / (1 - Math.pow(beta1, step));
+        double squareCorrection = 1 / (1 - Math.pow(beta2, step));
+
+        int n = params.length;
+
+        for (int i = start; i < end; i ++)
+        {
+            double grad = gradSums[i] * scale;
+
+            double mean = beta1 * state[i] + (1 - beta1) * grad;
+            double meanSquare = beta2 * state[n + i] + (1 - beta2) * grad * grad;
+
+            state[i] = mean;
+            state[n + i] = meanSquare;
+
+            params[i] -= stepSize * mean * meanCorrection / (Math.sqrt(meanSquare * squareCorrection) + epsilon);
+        }
+    }
+}
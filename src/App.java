@@ -1,9 +1,14 @@
-import java.io.File;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class App {
     public static void main(String[] args) throws Exception {
         File networkDataFile = new File("C:\\Users\\nbg05\\OneDrive\\Documents\\Java\\NueralNetwork\\NeuralNetwork\\src\\NetworkData");
-        File networkDataFileCopy = new File("C:\\Users\\nbg05\\OneDrive\\Documents\\Java\\NueralNetwork\\NeuralNetwork\\src\\NetworkDataCopy");
 
         File imageTrainingFile = new File("C:\\Users\\nbg05\\OneDrive\\Documents\\Java\\NueralNetwork\\NeuralNetwork\\src\\Data\\train-images.idx3-ubyte");
         File lableTrainingFile = new File("C:\\Users\\nbg05\\OneDrive\\Documents\\Java\\NueralNetwork\\NeuralNetwork\\src\\Data\\train-labels.idx1-ubyte");
@@ -11,122 +16,721 @@ public class App {
         File imageTestingFile = new File("C:\\Users\\nbg05\\OneDrive\\Documents\\Java\\NueralNetwork\\NeuralNetwork\\src\\Data\\t10k-images.idx3-ubyte");
         File lableTestingFile = new File("C:\\Users\\nbg05\\OneDrive\\Documents\\Java\\NueralNetwork\\NeuralNetwork\\src\\Data\\t10k-labels.idx1-ubyte");
 
-        MNISTImageReader mnistTraining = new MNISTImageReader(imageTrainingFile, lableTrainingFile);
-        MNISTImageReader mnistTesting = new MNISTImageReader(imageTestingFile, lableTestingFile);
-        
+        ImageDataset mnistTraining;
+        ImageDataset mnistTesting;
+
+        // -Dnn.cache=true converts the IDX files once into a cache beside each, which later runs map instead of decoding
+        if (Boolean.getBoolean("nn.cache"))
+        {
+            mnistTraining = DatasetCache.open(imageTrainingFile, lableTrainingFile, new File(imageTrainingFile + ".cache"), DatasetCache.DTYPE_FLOAT32);
+            mnistTesting = DatasetCache.open(imageTestingFile, lableTestingFile, new File(imageTestingFile + ".cache"), DatasetCache.DTYPE_FLOAT32);
+        }
+        else
+        {
+            mnistTraining = new MNISTImageReader(imageTrainingFile, lableTrainingFile);
+            mnistTesting = new MNISTImageReader(imageTestingFile, lableTestingFile);
+        }
+
+
+        // -Dnn.precision=float trains and tests with the single precision engine
+        // it keeps its own NetworkData.float, so the double network, its optimizer state and its checkpoints are never overwritten
+        if (System.getProperty("nn.precision", "double").equals("float"))
+        {
+            File floatDataFile = new File(networkDataFile.getPath() + ".float");
+
+            // starts from the double network rounded to floats until there is a float network of its own
+            FloatNeuralNetwork floatNet = new FloatNeuralNetwork(floatDataFile.exists() ? floatDataFile : networkDataFile);
+
+            floatNet.setBatchSize(20);
+            floatNet.setStepSize(0.000005f);
+
+            for (int i = 0; i < 0; i++)
+            {
+                trainNet(floatNet, mnistTraining, 10000);
+                System.out.println("Trained on " + ((i + 1) * 10000L) + " Examples");
+            }
+
+            System.out.println("Saving to File");
+            floatNet.saveToFile(floatDataFile);
+            System.out.println("Saved to File");
+
+            System.out.println(testNet(floatNet, mnistTesting));
+            return;
+        }
 
         NeuralNetwork net = new NeuralNetwork(networkDataFile);
         //NeuralNetwork net = new NeuralNetwork(new int[] {784, 50, 40, 10}, networkDataFile);
 
         net.setBatchSize(20);
-        net.setStepSize(0.000005);
+
+        // RMSProp copes with the large activations of the random start far better than plain gradient descent at 0.000005
+        // a network loaded from a checkpoint already has its optimizer and state, so it is only set on a fresh one
+        if (net.getNumSteps() == 0)
+        {
+            net.setOptimizer(new RMSPropOptimizer());
+        }
+        net.setStepSize(0.001);
+
+        ParallelTrainer trainer = new ParallelTrainer(net, Runtime.getRuntime().availableProcessors());
+        DataLoader loader = new DataLoader(mnistTraining, net.getBatchSize(), 2, 16, 0, true);
+
+        // run with -Dnn.metrics=true to log throughput, loss and latencies and expose them over JMX
+        loader.setMetrics(net.getMetrics());
+
+        // keeps NetworkData and the two checkpoints before it as NetworkData.1 and NetworkData.2
+        Checkpointer checkpointer = new Checkpointer(networkDataFile, 3);
+
+        // scores the whole test set in parallel batches, quick enough to run after every round of training
+        Evaluator evaluator = new Evaluator(net, Runtime.getRuntime().availableProcessors(), 100);
 
         for (int i = 0; i < 0; i++)
         {
-            trainNet(net, mnistTraining, 10000);
+            trainNet(trainer, loader, 10000);
             System.out.println("Trained on " + ((i + 1) * 10000L) + " Examples");
+
+            checkpointer.checkpoint(net);
+
+            System.out.printf("Test accuracy %.2f%%%n", evaluator.evaluate(mnistTesting, 0).getAccuracy() * 100);
         }
 
+        loader.close();
+        trainer.close();
+
         System.out.println("Saving to File");
-        net.saveToFile(networkDataFile);
+        checkpointer.checkpoint(net);
+        checkpointer.close();
         System.out.println("Saved to File");
-        System.out.println("Saving to Backup File");
-        net.saveToFile(networkDataFileCopy);
-        System.out.println("Saved to Backup File");
 
-        System.out.println(testNet(net, mnistTesting));
+        System.out.print(evaluator.evaluate(mnistTesting, 10));
+        evaluator.close();
+
+        // -Dnn.quantize=true also compares an int8 copy of the network against it
+        if (Boolean.getBoolean("nn.quantize"))
+        {
+            printQuantizationReport(net, mnistTraining, mnistTesting);
+        }
+
+        // -Dnn.compile=true also compares a class generated for the network's exact shape against it
+        if (Boolean.getBoolean("nn.compile"))
+        {
+            printCompiledReport(net, mnistTesting);
+        }
+
+        // -Dnn.hogwild=true also times lock-free asynchronous training against the synchronous trainer, both from the saved network
+        if (Boolean.getBoolean("nn.hogwild"))
+        {
+            printHogwildReport(networkDataFile, mnistTraining, mnistTesting, Long.getLong("nn.hogwildExamples", 60000));
+        }
+
+        // -Dnn.distributed=4 trains copies of the saved network in 1, 2 and 4 local processes kept in step over TCP
+        // and prints how throughput scales, -Dnn.distributedSync=k averages weights every k batches instead of summing every gradient
+        // a run whose processes have not all finished after -Dnn.distributedTimeout seconds is killed
+        Integer maxProcesses = Integer.getInteger("nn.distributed");
+        if (maxProcesses != null)
+        {
+            printDistributedReport(networkDataFile, imageTrainingFile, lableTrainingFile, mnistTesting, maxProcesses,
+                Long.getLong("nn.distributedExamples", 20000), Integer.getInteger("nn.distributedSync", 1),
+                Integer.getInteger("nn.distributedPort", 7400), net.getBatchSize(), net.getStepSize(), Long.getLong("nn.distributedTimeout", 600));
+        }
+
+        // -Dnn.sweep=784-50-40-10:20:0.001,784-100-10:50:0.0005 trains a fresh network of each shape, batch size and step size
+        // side by side on one shared pass over the data, ranks them on the last -Dnn.sweepValidation training images, which they
+        // never train on, and prints the test accuracy of each one's best checkpoint
+        String sweep = System.getProperty("nn.sweep");
+        if (sweep != null)
+        {
+            printSweepReport(networkDataFile, mnistTraining, mnistTesting, sweep, Long.getLong("nn.sweepExamples", 60000), Integer.getInteger("nn.sweepRounds", 3),
+                Integer.getInteger("nn.sweepValidation", 10000));
+        }
+
+        // -Dnn.prune=0.9 then prunes 90% of the weights with fine tuning and compares a sparse copy of the network against it
+        String pruneSparsity = System.getProperty("nn.prune");
+        if (pruneSparsity != null)
+        {
+            printPruningReport(net, networkDataFile, mnistTraining, mnistTesting, Double.parseDouble(pruneSparsity), Long.getLong("nn.pruneFineTune", 60000));
+        }
+
+        // -Dnn.serve=8080 then serves the saved network on that loopback port until the process is stopped
+        Integer servePort = Integer.getInteger("nn.serve");
+        if (servePort != null)
+        {
+            InferenceServer server = new InferenceServer(networkDataFile, servePort, 64, 200);
+            System.out.println("Serving on http://localhost:" + server.getPort() + "/evaluate");
+
+            while (true)
+            {
+                Thread.sleep(10000);
+                System.out.println(server.getStatsLine());
+            }
+        }
     }
 
-    public static void trainNet(NeuralNetwork net, MNISTImageReader mnist, long numExamples)
+    /**
+     * quantizes the network to int8, calibrated on the first 1000 training images,
+     * and prints how its accuracy, outputs, speed and size compare with the original on the whole test set
+     */
+    public static void printQuantizationReport(NeuralNetwork net, ImageDataset training, ImageDataset testing)
     {
-        int currentExample = 0;
+        int numCalibration = Math.min(1000, training.getNumImages());
 
-        while (currentExample < numExamples)
+        Matrix calibration = new Matrix(numCalibration, 784);
+        for (int i = 0; i < numCalibration; i++) training.getImage(i, calibration.getData(), i * 784);
+
+        QuantizedNetwork quantized = new QuantizedNetwork(net, calibration);
+
+        double[] image = new double[784];
+        double[] quantizedOut = new double[10];
+
+        int numImages = testing.getNumImages();
+        int originalCorrect = 0;
+        int quantizedCorrect = 0;
+        int agree = 0;
+        double maxDifference = 0;
+
+        long originalTime = 0;
+        long quantizedTime = 0;
+
+        for (int currentExample = 0; currentExample < numImages; currentExample++)
         {
-            int exampleNum = (int) (Math.random() * mnist.getNumImages());
+            testing.getImage(currentExample, image);
+            int lable = testing.getLable(currentExample);
 
-            int[][] image = mnist.getImage(exampleNum);
-            int lable = mnist.getLable(exampleNum);
+            long start = System.nanoTime();
+            double[] originalOut = net.evaluate(image);
+            long middle = System.nanoTime();
+            quantized.evaluate(image, quantizedOut);
+            long end = System.nanoTime();
 
-            double[] convertedImage = new double[784];
-            double[] convertedLable = new double[10];
+            originalTime += middle - start;
+            quantizedTime += end - middle;
 
-            for (int row = 0; row < 28; row ++)
+            int originalGuess = 0;
+            int quantizedGuess = 0;
+            for (int i = 1; i < 10; i++)
             {
-                for (int col = 0; col < 28; col ++)
+                if (originalOut[i] > originalOut[originalGuess]) originalGuess = i;
+                if (quantizedOut[i] > quantizedOut[quantizedGuess]) quantizedGuess = i;
+            }
+
+            for (int i = 0; i < 10; i++) maxDifference = Math.max(maxDifference, Math.abs(originalOut[i] - quantizedOut[i]));
+
+            if (originalGuess == lable) originalCorrect++;
+            if (quantizedGuess == lable) quantizedCorrect++;
+            if (originalGuess == quantizedGuess) agree++;
+        }
+
+        System.out.printf("original accuracy:  %.2f%%%n", 100.0 * originalCorrect / numImages);
+        System.out.printf("quantized accuracy: %.2f%%%n", 100.0 * quantizedCorrect / numImages);
+        System.out.printf("same prediction:    %.2f%%%n", 100.0 * agree / numImages);
+        System.out.printf("max output difference: %.5f%n", maxDifference);
+        System.out.printf("time per image: original %.2f us, quantized %.2f us%n", originalTime / 1000.0 / numImages, quantizedTime / 1000.0 / numImages);
+        System.out.printf("weight bytes: original %d, quantized %d%n", quantized.getWeightBytes() * Double.BYTES, quantized.getWeightBytes());
+    }
+
+    /**
+     * trains two copies of the saved network on the same number of examples, one with ParallelTrainer and one with
+     * HogwildTrainer, and prints the samples per second and test accuracy of each
+     */
+    public static void printHogwildReport(File networkDataFile, ImageDataset training, ImageDataset testing, long numExamples)
+    {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+
+        NeuralNetwork synchronous = new NeuralNetwork(networkDataFile);
+        synchronous.setBatchSize(20);
+        synchronous.setStepSize(0.001);
+
+        NeuralNetwork hogwild = new NeuralNetwork(networkDataFile);
+        hogwild.setBatchSize(20);
+        hogwild.setStepSize(0.001);
+
+        long synchronousTime;
+        try (ParallelTrainer trainer = new ParallelTrainer(synchronous, numThreads);
+             DataLoader loader = new DataLoader(training, synchronous.getBatchSize(), 2, 16, 0, true))
+        {
+            long start = System.nanoTime();
+            trainNet(trainer, loader, numExamples);
+            synchronousTime = System.nanoTime() - start;
+        }
+
+        long hogwildTime;
+        try (HogwildTrainer trainer = new HogwildTrainer(hogwild, numThreads, true);
+             DataLoader loader = new DataLoader(training, hogwild.getBatchSize(), 2, 16, 0, true))
+        {
+            long start = System.nanoTime();
+            trainer.train(loader, numExamples);
+            hogwildTime = System.nanoTime() - start;
+        }
+
+        System.out.printf("%d threads, %d examples%n", numThreads, numExamples);
+        System.out.printf("synchronous: %.0f samples/sec, accuracy %.2f%%%n", numExamples * 1e9 / synchronousTime, testNet(synchronous, testing));
+        System.out.printf("hogwild:     %.0f samples/sec, accuracy %.2f%%%n", numExamples * 1e9 / hogwildTime, testNet(hogwild, testing));
+    }
+
+    /**
+     * prunes the network to a sparsity in four steps with fine tuning on the training set between them,
+     * saves a PrunedNetwork of it next to the network file with .pruned on the end,
+     * and prints how its accuracy, speed and size compare with the original on the whole test set
+     * the network is pruned in place but its saved file is left as it was
+     */
+    public static void printPruningReport(NeuralNetwork net, File networkDataFile, ImageDataset training, ImageDataset testing,
+        double sparsity, long fineTuneExamples) throws IOException
+    {
+        int numSteps = 4;
+
+        double originalAccuracy = testNet(net, testing);
+
+        // the same pruning all at once with no fine tuning, on a copy from the saved file
+        NeuralNetwork oneShot = new NeuralNetwork(networkDataFile);
+        oneShot.prune(sparsity);
+        double oneShotAccuracy = testNet(oneShot, testing);
+
+        ParallelTrainer trainer = new ParallelTrainer(net, Runtime.getRuntime().availableProcessors());
+        DataLoader loader = new DataLoader(training, net.getBatchSize(), 2, 16, 0, true);
+
+        for (int step = 1; step <= numSteps; step++)
+        {
+            net.prune(sparsity * step / numSteps);
+            trainNet(trainer, loader, fineTuneExamples / numSteps);
+        }
+
+        loader.close();
+        trainer.close();
+
+        PrunedNetwork pruned = new PrunedNetwork(net);
+
+        File prunedFile = new File(networkDataFile.getPath() + ".pruned");
+        pruned.save(prunedFile);
+
+        double[] image = new double[784];
+        double[] denseOut = new double[10];
+        double[] prunedOut = new double[10];
+
+        int numImages = testing.getNumImages();
+        int prunedCorrect = 0;
+        double maxDifference = 0;
+
+        for (int currentExample = 0; currentExample < numImages; currentExample++)
+        {
+            testing.getImage(currentExample, image);
+
+            net.evaluate(image, denseOut);
+            pruned.evaluate(image, prunedOut);
+
+            int guess = 0;
+            for (int i = 1; i < 10; i++) if (prunedOut[i] > prunedOut[guess]) guess = i;
+
+            for (int i = 0; i < 10; i++) maxDifference = Math.max(maxDifference, Math.abs(denseOut[i] - prunedOut[i]));
+
+            if (guess == testing.getLable(currentExample)) prunedCorrect++;
+        }
+
+        // timed on a second pass so both are compiled, the vector kernels are very slow until they are
+        long denseTime = 0;
+        long prunedTime = 0;
+
+        for (int currentExample = 0; currentExample < numImages; currentExample++)
+        {
+            testing.getImage(currentExample, image);
+
+            long start = System.nanoTime();
+            net.evaluate(image, denseOut);
+            long middle = System.nanoTime();
+            pruned.evaluate(image, prunedOut);
+            long end = System.nanoTime();
+
+            denseTime += middle - start;
+            prunedTime += end - middle;
+        }
+
+        double prunedAccuracy = 100.0 * prunedCorrect / numImages;
+
+        System.out.printf("sparsity: %.2f%%%n", pruned.getSparsity() * 100);
+        System.out.printf("original accuracy:            %.2f%%%n", originalAccuracy);
+        System.out.printf("pruned at once, no fine tune: %.2f%% (%+.2f)%n", oneShotAccuracy, oneShotAccuracy - originalAccuracy);
+        System.out.printf("pruned in %d steps, %d fine tuning examples: %.2f%% (%+.2f)%n", numSteps, fineTuneExamples, prunedAccuracy, prunedAccuracy - originalAccuracy);
+        System.out.printf("max output difference from the dense network: %.3g%n", maxDifference);
+        System.out.printf("time per image: dense %.2f us, pruned %.2f us%n", denseTime / 1000.0 / numImages, prunedTime / 1000.0 / numImages);
+        long denseWeights = 0;
+        for (Layer layer : net.getLayers()) denseWeights += layer.getWeightMatrix().getData().length;
+
+        System.out.printf("weight bytes: dense %d, pruned %d%n", denseWeights * Double.BYTES, pruned.getWeightBytes());
+        System.out.printf("file bytes: dense %d, pruned %d%n", networkDataFile.length(), prunedFile.length());
+    }
+
+    /**
+     * compiles the network into a shape-specialized class and prints how its outputs and speed compare with the original
+     * on the whole test set
+     */
+    public static void printCompiledReport(NeuralNetwork net, ImageDataset testing)
+    {
+        long compileStart = System.nanoTime();
+        CompiledNetwork compiled = CompiledNetwork.compile(net);
+        long compileTime = System.nanoTime() - compileStart;
+
+        double[] image = new double[784];
+        double[] netOut = new double[10];
+        double[] compiledOut = new double[10];
+
+        int numImages = testing.getNumImages();
+        int compiledCorrect = 0;
+        double maxDifference = 0;
+
+        for (int currentExample = 0; currentExample < numImages; currentExample++)
+        {
+            testing.getImage(currentExample, image);
+
+            net.evaluate(image, netOut);
+            compiled.evaluate(image, compiledOut);
+
+            int guess = 0;
+            for (int i = 1; i < 10; i++) if (compiledOut[i] > compiledOut[guess]) guess = i;
+
+            for (int i = 0; i < 10; i++) maxDifference = Math.max(maxDifference, Math.abs(netOut[i] - compiledOut[i]));
+
+            if (guess == testing.getLable(currentExample)) compiledCorrect++;
+        }
+
+        // timed on a second pass so both are compiled by the JIT
+        long netTime = 0;
+        long compiledTime = 0;
+
+        for (int currentExample = 0; currentExample < numImages; currentExample++)
+        {
+            testing.getImage(currentExample, image);
+
+            long start = System.nanoTime();
+            net.evaluate(image, netOut);
+            long middle = System.nanoTime();
+            compiled.evaluate(image, compiledOut);
+            long end = System.nanoTime();
+
+            netTime += middle - start;
+            compiledTime += end - middle;
+        }
+
+        System.out.printf("compiled in %.0f ms, %s%n", compileTime / 1e6, compiled.isVectorized() ? "vectorized" : "scalar");
+        System.out.printf("compiled accuracy: %.2f%%%n", 100.0 * compiledCorrect / numImages);
+        System.out.printf("max output difference from the network: %.3g%n", maxDifference);
+        System.out.printf("time per image: network %.2f us, compiled %.2f us%n", netTime / 1000.0 / numImages, compiledTime / 1000.0 / numImages);
+    }
+
+    /**
+     * trains every configuration of a sweep from scratch with RMSProp, sharing one DataLoader, and prints the ranked results
+     * the last numValidation training images are held out, the models train on the rest and are ranked and checkpointed
+     * on the held out ones, the test set is only used once at the end to report the test accuracy of each best checkpoint
+     * the best network of each is kept next to the network file as NetworkData.sweep0, NetworkData.sweep1 and so on
+     * @param configurations is a comma separated list of shape:batch size:step size, such as 784-50-40-10:20:0.001
+     * @param numValidation is the number of training images held out for validation
+     */
+    public static void printSweepReport(File networkDataFile, ImageDataset training, ImageDataset testing, String configurations,
+        long examplesPerRound, int numRounds, int numValidation)
+    {
+        if (numValidation < 1 || numValidation >= training.getNumImages())
+        {
+            throw new IllegalArgumentException("validation set must hold out between 1 and " + (training.getNumImages() - 1) + " training images");
+        }
+
+        int numTraining = training.getNumImages() - numValidation;
+        ImageDataset trainingPart = new DatasetSlice(training, 0, numTraining);
+        ImageDataset validation = new DatasetSlice(training, numTraining, training.getNumImages());
+
+        String[] parts = configurations.split(",");
+
+        List<SweepRunner.Result> results;
+        double seconds;
+
+        // one loader batch has to split evenly into the batches of every model
+        int loaderBatchSize = 1;
+
+        try (SweepRunner runner = new SweepRunner(Math.min(parts.length, Runtime.getRuntime().availableProcessors())))
+        {
+            for (int i = 0; i < parts.length; i++)
+            {
+                String[] fields = parts[i].trim().split(":");
+
+                if (fields.length != 3)
                 {
-                    convertedImage[row * 28 + col] = image[row][col] / 255.0;
+                    throw new IllegalArgumentException("sweep configuration " + parts[i] + " is not shape:batch size:step size");
                 }
+
+                String[] sizes = fields[0].split("-");
+                int[] layerSizes = new int[sizes.length];
+                for (int layer = 0; layer < sizes.length; layer++) layerSizes[layer] = Integer.parseInt(sizes[layer]);
+
+                File bestFile = new File(networkDataFile.getPath() + ".sweep" + i);
+
+                NeuralNetwork net = new NeuralNetwork(layerSizes, bestFile);
+                net.setBatchSize(Integer.parseInt(fields[1]));
+                net.setOptimizer(new RMSPropOptimizer());
+                net.setStepSize(Double.parseDouble(fields[2]));
+
+                loaderBatchSize = lcm(loaderBatchSize, net.getBatchSize());
+
+                runner.addModel(parts[i].trim(), net, bestFile);
             }
 
-            for (int i = 0; i < 10; i ++) convertedLable[i] = 0;
-            convertedLable[lable] = 1;
+            long start = System.nanoTime();
 
-            net.train(convertedImage, convertedLable);
+            try (DataLoader loader = new DataLoader(trainingPart, loaderBatchSize, 2, 16, 0, true))
+            {
+                results = runner.run(loader, validation, examplesPerRound, numRounds);
+            }
 
-            currentExample++;
+            seconds = (System.nanoTime() - start) / 1e9;
+        }
+
+        // the runner is closed, so every best checkpoint has been written
+        System.out.print(SweepRunner.formatResults(results));
+        System.out.printf("%d models, %d rounds of %d examples from one shared pass in %.1f s, ranked on %d held out training images%n",
+            parts.length, numRounds, examplesPerRound, seconds, numValidation);
+
+        System.out.printf("%-16s %8s %8s%n", "model", "best", "test");
+        for (SweepRunner.Result result : results)
+        {
+            NeuralNetwork best = new NeuralNetwork(result.getBestFile());
+            System.out.printf("%-16s %7.2f%% %7.2f%%%n", result.getName(), result.getBestAccuracy() * 100, testNet(best, testing));
+            Metrics.unregister(best.getMetrics());
         }
     }
 
-    public static double testNet(NeuralNetwork net, MNISTImageReader mnist, long numExamples)
+    /**
+     * runs DistributedTrainer in 1, 2, 4 and so on up to maxProcesses local processes, each training on numExamples of its own shard,
+     * and prints the total throughput, the scaling efficiency against one process, the time spent syncing and the test accuracy
+     * the processes start from the saved network and the network of process 0 is kept as NetworkData.distributed
+     * the output of each process goes to a temp file so none can block on a full pipe, and if the processes of one run
+     * have not all exited within timeoutSeconds, or any fails, every process of the run is killed
+     */
+    public static void printDistributedReport(File networkDataFile, File imageFile, File lableFile, ImageDataset testing, int maxProcesses,
+        long numExamples, int syncInterval, int basePort, int batchSize, double stepSize, long timeoutSeconds) throws IOException, InterruptedException
     {
-        double percentage = 0;
+        if (maxProcesses < 1)
+        {
+            throw new IllegalArgumentException("need at least one process");
+        }
+
+        File outFile = new File(networkDataFile.getPath() + ".distributed");
+
+        // the workers run with the same JVM options as this one, without a debugger that would want the same port
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments())
+        {
+            if (!option.startsWith("-agentlib:jdwp")) command.add(option);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("DistributedTrainer");
+
+        System.out.printf("%-9s %10s %8s %10s %9s %13s %8s%n", "processes", "samples/s", "speedup", "efficiency", "sync time", "bytes/example", "accuracy");
+
+        double singleThroughput = 0;
+
+        // doubling up to maxProcesses, which is run even when it is not a power of 2
+        for (int numProcesses = 1; numProcesses <= maxProcesses; numProcesses = numProcesses < maxProcesses ? Math.min(numProcesses * 2, maxProcesses) : maxProcesses + 1)
+        {
+            List<Process> processes = new ArrayList<>();
+            List<File> outputs = new ArrayList<>();
+
+            // the throughputs of the processes add up, the sync time and bytes are those of process 0
+            double throughput = 0;
+            String syncTime = "";
+            String bytesPerExample = "";
+
+            try
+            {
+                for (int rank = 0; rank < numProcesses; rank++)
+                {
+                    List<String> arguments = new ArrayList<>(command);
+                    arguments.addAll(List.of(imageFile.getPath(), lableFile.getPath(), networkDataFile.getPath(), outFile.getPath(),
+                        Integer.toString(rank), Integer.toString(numProcesses), Integer.toString(basePort), Long.toString(numExamples),
+                        Integer.toString(syncInterval), Integer.toString(batchSize), Double.toString(stepSize)));
+
+                    File output = File.createTempFile("distributed" + rank + "-", ".out");
+                    outputs.add(output);
+
+                    processes.add(new ProcessBuilder(arguments).redirectError(ProcessBuilder.Redirect.INHERIT).redirectOutput(output).start());
+                }
+
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+
+                for (Process process : processes)
+                {
+                    if (!process.waitFor(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS))
+                    {
+                        throw new IllegalStateException("distributed run with " + numProcesses + " processes did not finish in " + timeoutSeconds + " s");
+                    }
+
+                    if (process.exitValue() != 0)
+                    {
+                        throw new IllegalStateException("distributed worker failed with " + numProcesses + " processes");
+                    }
+                }
+
+                for (int rank = 0; rank < numProcesses; rank++)
+                {
+                    String stats = "";
+                    for (String line : Files.readAllLines(outputs.get(rank).toPath()))
+                    {
+                        if (line.startsWith("rank=")) stats = line;
+                    }
+
+                    if (stats.isEmpty())
+                    {
+                        throw new IllegalStateException("distributed worker " + rank + " printed no stats");
+                    }
+
+                    for (String pair : stats.split(" "))
+                    {
+                        String[] keyValue = pair.split("=");
+
+                        if (keyValue[0].equals("samples/s")) throughput += Double.parseDouble(keyValue[1]);
+                        if (rank == 0 && keyValue[0].equals("sync_time")) syncTime = keyValue[1];
+                        if (rank == 0 && keyValue[0].equals("bytes/example")) bytesPerExample = keyValue[1];
+                    }
+                }
+            }
+            finally
+            {
+                // only does anything when the run failed or timed out
+                for (Process process : processes) process.destroyForcibly();
+                for (File output : outputs) output.delete();
+            }
+
+            if (numProcesses == 1) singleThroughput = throughput;
+
+            NeuralNetwork trained = new NeuralNetwork(outFile);
+            double accuracy = testNet(trained, testing);
+            Metrics.unregister(trained.getMetrics());
+
+            System.out.printf("%-9d %10.0f %7.2fx %9.1f%% %9s %13s %7.2f%%%n", numProcesses, throughput, throughput / singleThroughput,
+                100 * throughput / (numProcesses * singleThroughput), syncTime, bytesPerExample, accuracy);
+        }
+    }
+
+    private static int lcm(int a, int b)
+    {
+        int x = a, y = b;
+        while (y != 0)
+        {
+            int t = x % y;
+            x = y;
+            y = t;
+        }
 
+        return a / x * b;
+    }
+
+    public static void trainNet(NeuralNetwork net, ImageDataset mnist, long numExamples)
+    {
         int currentExample = 0;
 
+        double[] convertedImage = new double[784];
+        double[] convertedLable = new double[10];
+
         while (currentExample < numExamples)
         {
             int exampleNum = (int) (Math.random() * mnist.getNumImages());
 
-            int[][] image = mnist.getImage(exampleNum);
             int lable = mnist.getLable(exampleNum);
 
-            double[] convertedImage = new double[784];
+            mnist.getImage(exampleNum, convertedImage);
+
+            for (int i = 0; i < 10; i ++) convertedLable[i] = 0;
+            convertedLable[lable] = 1;
+
+            net.train(convertedImage, convertedLable);
+
+            currentExample++;
+        }
+    }
+
+    /**
+     * trains on batches from the loader, each batch split across the trainer's threads
+     * the loader only needs to fill sparse inputs
+     */
+    public static void trainNet(ParallelTrainer trainer, DataLoader loader, long numExamples)
+    {
+        long currentExample = 0;
+
+        while (currentExample < numExamples)
+        {
+            DataBatch batch = loader.next();
+
+            trainer.trainBatch(batch.getSparseInputs(), batch.getTargets());
+
+            currentExample += batch.getSize();
+        }
+    }
+
+    /**
+     * trains a single precision network in mini-batches of its batch size
+     */
+    public static void trainNet(FloatNeuralNetwork net, ImageDataset mnist, long numExamples)
+    {
+        int batchSize = net.getBatchSize();
 
-            for (int row = 0; row < 28; row ++)
+        FloatMatrix images = new FloatMatrix(batchSize, 784);
+        FloatMatrix lables = new FloatMatrix(batchSize, 10);
+
+        long currentExample = 0;
+
+        while (currentExample < numExamples)
+        {
+            lables.fill(0);
+
+            for (int row = 0; row < batchSize; row ++)
             {
-                for (int col = 0; col < 28; col ++)
-                {
-                    convertedImage[row * 28 + col] = image[row][col] / 255.0;
-                }
+                int exampleNum = (int) (Math.random() * mnist.getNumImages());
+
+                mnist.getImage(exampleNum, images.getData(), row * 784);
+                lables.set(row, mnist.getLable(exampleNum), 1);
             }
 
-            double[] rawEvaluation = net.evaluate(convertedImage);
+            net.trainBatch(images, lables);
+
+            currentExample += batchSize;
+        }
+    }
+
+    public static double testNet(FloatNeuralNetwork net, ImageDataset mnist)
+    {
+        double percentage = 0;
+
+        float[] convertedImage = new float[784];
+
+        for (int currentExample = 0; currentExample < mnist.getNumImages(); currentExample++)
+        {
+            mnist.getImage(currentExample, convertedImage);
+
+            float[] rawEvaluation = net.evaluate(convertedImage);
 
             int evaluation = 0;
             for (int i = 1; i < 10; i++) if (rawEvaluation[i] > rawEvaluation[evaluation]) evaluation = i;
 
-            if (evaluation == lable)
+            if (evaluation == mnist.getLable(currentExample))
             {
                 percentage += 100;
             }
-
-            currentExample++;
         }
 
-        return percentage / numExamples;
+        return percentage / mnist.getNumImages();
     }
 
-    public static double testNet(NeuralNetwork net, MNISTImageReader mnist)
+    public static double testNet(NeuralNetwork net, ImageDataset mnist, long numExamples)
     {
         double percentage = 0;
 
         int currentExample = 0;
 
-        while (currentExample < mnist.getNumImages())
+        double[] convertedImage = new double[784];
+
+        while (currentExample < numExamples)
         {
-            int[][] image = mnist.getImage(currentExample);
-            int lable = mnist.getLable(currentExample);
+            int exampleNum = (int) (Math.random() * mnist.getNumImages());
 
-            double[] convertedImage = new double[784];
+            int lable = mnist.getLable(exampleNum);
 
-            for (int row = 0; row < 28; row ++)
-            {
-                for (int col = 0; col < 28; col ++)
-                {
-                    convertedImage[row * 28 + col] = image[row][col] / 255.0;
-                }
-            }
+            mnist.getImage(exampleNum, convertedImage);
 
             double[] rawEvaluation = net.evaluate(convertedImage);
 
@@ -141,6 +745,18 @@ public class App {
             currentExample++;
         }
 
-        return percentage / mnist.getNumImages();
+        return percentage / numExamples;
+    }
+
+    /**
+     * scores the network on every image, see Evaluator for the full report
+     * @return the percentage of images guessed right
+     */
+    public static double testNet(NeuralNetwork net, ImageDataset mnist)
+    {
+        try (Evaluator evaluator = new Evaluator(net, Runtime.getRuntime().availableProcessors(), 100))
+        {
+            return evaluator.evaluate(mnist, 0).getAccuracy() * 100;
+        }
     }
 }
@@ -0,0 +1,57 @@
+/**
+ * holds the per-layer matrices needed to run a mini-batch forward and backward through a network
+ * every matrix has one row per example in the batch
+ */
+public class BatchWorkspace {
+
+    private final int batchSize;
+
+    // inputs and targets of the batch
+    final Matrix inputs;
+    final Matrix targets;
+
+    // activations[layer] is the output of layer - 1, valuesAfterBiases[layer] is before the activation function
+    final Matrix[] activations;
+    final Matrix[] valuesAfterBiases;
+
+    // derivatives[layer] is the derivative of the cost with respect to activations[layer]
+    final Matrix[] derivatives;
+
+    // for the weight derivative of a sparse batch, made the first time a sparse batch is trained, see LinearAlgebra.addTransposeAMultiply
+    Matrix sparseScratch;
+    boolean[] sparseTouched;
+
+    public BatchWorkspace(int[] layerSizes, int inBatchSize)
+    {
+        if (inBatchSize < 1)
+        {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+
+        int numLayers = layerSizes.length - 1;
+
+        batchSize = inBatchSize;
+
+        inputs = new Matrix(batchSize, layerSizes[0]);
+        targets = new Matrix(batchSize, layerSizes[numLayers]);
+
+        activations = new Matrix[numLayers + 1];
+        valuesAfterBiases = new Matrix[numLayers + 1];
+        derivatives = new Matrix[numLayers + 1];
+
+        for (int layer = 1; layer <= numLayers; layer ++)
+        {
+            activations[layer] = new Matrix(batchSize, layerSizes[layer]);
+            valuesAfterBiases[layer] = new Matrix(batchSize, layerSizes[layer]);
+            derivatives[layer] = new Matrix(batchSize, layerSizes[layer]);
+        }
+
+        // derivatives[0], the derivative with respect to the network input, is never needed for training
+        activations[0] = inputs;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+}
@@ -0,0 +1,306 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * saves checkpoints of a network on a background thread so training does not stop for the disk
+ *
+ * checkpoint copies the weights, biases and optimizer state into a snapshot, which is only a few array copies, and returns
+ * NetworkFile writes the snapshot to a temp file next to the target, forces it to disk, then atomically renames it over the target,
+ * so the target always holds a whole checkpoint even if the process dies mid-write
+ *
+ * the previous checkpoints are kept as target.1 (the newest) up to target.(numToKeep - 1)
+ * if checkpoints come faster than they can be written, the ones waiting are replaced by the newest
+ */
+public class Checkpointer implements AutoCloseable {
+
+    private final File target;
+    private final int numToKeep;
+
+    private final ExecutorService writer;
+
+    private final Object lock = new Object();
+
+    // the snapshot waiting to be written and a written one free for reuse, at most three snapshots ever exist
+    private Snapshot pending;
+    private Snapshot spare;
+
+    // true while a write task is queued or running
+    private boolean writing;
+
+    private long numWritten;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param inTarget is the file the newest checkpoint is saved to
+     * @param inNumToKeep is the number of checkpoints kept, including the newest
+     */
+    public Checkpointer(File inTarget, int inNumToKeep)
+    {
+        if (inNumToKeep < 1)
+        {
+            throw new IllegalArgumentException("must keep at least one checkpoint");
+        }
+
+        target = inTarget.getAbsoluteFile();
+        numToKeep = inNumToKeep;
+
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * snapshots the network and saves it in the background
+     * must be called between batches, while nothing is changing the weights
+     * @param net is the network to save
+     */
+    public void checkpoint(NeuralNetwork net)
+    {
+        checkFailure();
+
+        Snapshot snapshot;
+        synchronized (lock)
+        {
+            // a snapshot still waiting to be written is about to be out of date, so it is reused
+            snapshot = pending != null ? pending : spare;
+            pending = null;
+            spare = null;
+        }
+
+        if (snapshot == null || !snapshot.matches(net))
+        {
+            snapshot = new Snapshot(net.getLayerSizes());
+        }
+
+        snapshot.copyFrom(net);
+
+        synchronized (lock)
+        {
+            pending = snapshot;
+
+            if (!writing)
+            {
+                writing = true;
+                writer.execute(this::writePending);
+            }
+        }
+    }
+
+    /**
+     * waits until every checkpoint taken so far is on disk
+     */
+    public void flush()
+    {
+        synchronized (lock)
+        {
+            while (writing)
+            {
+                try
+                {
+                    lock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for a checkpoint", e);
+                }
+            }
+        }
+
+        checkFailure();
+    }
+
+    /**
+     * writes the last checkpoint taken and stops the writer thread
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            writer.shutdown();
+        }
+    }
+
+    public long getNumWritten()
+    {
+        synchronized (lock)
+        {
+            return numWritten;
+        }
+    }
+
+    public File getTarget()
+    {
+        return target;
+    }
+
+    private void checkFailure()
+    {
+        if (failure != null)
+        {
+            throw new IllegalStateException("checkpoint writer failed", failure);
+        }
+    }
+
+    // runs on the writer thread until there is nothing left to write
+    private void writePending()
+    {
+        while (true)
+        {
+            Snapshot snapshot;
+            synchronized (lock)
+            {
+                snapshot = pending;
+                pending = null;
+
+                if (snapshot == null)
+                {
+                    writing = false;
+                    lock.notifyAll();
+                    return;
+                }
+            }
+
+            try
+            {
+                write(snapshot);
+
+                synchronized (lock)
+                {
+                    numWritten++;
+                }
+            }
+            catch (Throwable e)
+            {
+                failure = e;
+            }
+
+            synchronized (lock)
+            {
+                spare = snapshot;
+            }
+        }
+    }
+
+    private void write(Snapshot snapshot) throws IOException
+    {
+        keepPrevious(target.toPath());
+
+        // NetworkFile writes its own temp file, forces it and renames it over the target
+        NetworkFile.write(target, snapshot.layerSizes, snapshot.weights, snapshot.biases,
+            snapshot.optimizer, snapshot.step, snapshot.weightStates, snapshot.biasStates);
+    }
+
+    // shifts target.1 .. target.(numToKeep - 2) up by one and makes target.1 the current target
+    private void keepPrevious(Path targetPath) throws IOException
+    {
+        if (numToKeep < 2 || !Files.exists(targetPath))
+        {
+            return;
+        }
+
+        Files.deleteIfExists(previous(targetPath, numToKeep - 1));
+
+        for (int i = numToKeep - 2; i >= 1; i--)
+        {
+            if (Files.exists(previous(targetPath, i)))
+            {
+                Files.move(previous(targetPath, i), previous(targetPath, i + 1), StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        // a hard link keeps the old file without copying it or leaving a moment with no target
+        try
+        {
+            Files.createLink(previous(targetPath, 1), targetPath);
+        }
+        catch (UnsupportedOperationException | IOException e)
+        {
+            Files.copy(targetPath, previous(targetPath, 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Path previous(Path targetPath, int age)
+    {
+        return targetPath.resolveSibling(targetPath.getFileName() + "." + age);
+    }
+
+    // a copy of the weights, biases and optimizer state of every layer
+    private static class Snapshot
+    {
+        final int[] layerSizes;
+        final Matrix[] weights;
+        final double[][] biases;
+
+        Optimizer optimizer;
+        long step;
+
+        // a layer with no optimizer state yet is null
+        final double[][] weightStates;
+        final double[][] biasStates;
+
+        Snapshot(int[] inLayerSizes)
+        {
+            layerSizes = inLayerSizes.clone();
+
+            int numLayers = layerSizes.length - 1;
+
+            weights = new Matrix[numLayers];
+            biases = new double[numLayers][];
+            weightStates = new double[numLayers][];
+            biasStates = new double[numLayers][];
+
+            for (int layer = 0; layer < numLayers; layer ++)
+            {
+                weights[layer] = new Matrix(layerSizes[layer + 1], layerSizes[layer]);
+                biases[layer] = new double[layerSizes[layer + 1]];
+            }
+        }
+
+        boolean matches(NeuralNetwork net)
+        {
+            return Arrays.equals(layerSizes, net.getLayerSizes());
+        }
+
+        void copyFrom(NeuralNetwork net)
+        {
+            Layer[] layers = net.getLayers();
+
+            // optimizers only hold hyperparameters, so the network's own can be written from another thread
+            optimizer = net.getOptimizer();
+            step = net.getNumSteps();
+
+            for (int layer = 0; layer < layers.length; layer ++)
+            {
+                layers[layer].copyTo(weights[layer], biases[layer]);
+
+                weightStates[layer] = copyOf(layers[layer].getWeightState(), weightStates[layer]);
+                biasStates[layer] = copyOf(layers[layer].getBiasState(), biasStates[layer]);
+            }
+        }
+
+        // copies into the old array when it is the right length
+        private static double[] copyOf(double[] state, double[] old)
+        {
+            if (state == null)
+            {
+                return null;
+            }
+
+            double[] copy = old != null && old.length == state.length ? old : new double[state.length];
+            System.arraycopy(state, 0, copy, 0, state.length);
+            return copy;
+        }
+    }
+}
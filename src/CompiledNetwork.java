@@ -0,0 +1,469 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.tools.*;
+
+/**
+ * a trained NeuralNetwork turned into a class written for its exact layer sizes, for inference only
+ *
+ * compile writes Java source with every layer size as a constant, bias and activation folded into the end of each row,
+ * and no calls through Kernels or Layer, compiles it in memory with the JDK's compiler and loads it as a hidden class,
+ * so the JIT sees constant trip counts it can unroll and nothing to dispatch on
+ * rows are done eight at a time so eight sums are in flight, with the Vector API when jdk.incubator.vector is loaded
+ * and with scalar sums otherwise, the nn.kernels property is honoured the same way as LinearAlgebra
+ *
+ * the weights and biases are copied, so later training does not change a compiled network
+ * the generated class only depends on the layer sizes, so it is compiled once per shape and reused for every network of that shape
+ * the outputs match the network up to the order the products are added in
+ */
+public class CompiledNetwork {
+
+    // the activation is a leaky ReLU, this is its slope below 0
+    private static final double LEAK = 0.05;
+
+    // rows up to this long are written out in full instead of looped over
+    private static final int UNROLL_COLS = 16;
+
+    // rows summed at once, each has its own sum so this many adds are in flight
+    private static final int GROUP_ROWS = 8;
+
+    // the constructor of the generated class for each shape and kind of kernel
+    private static final Map<String, MethodHandle> CONSTRUCTORS = new ConcurrentHashMap<>();
+
+    /**
+     * implemented by the generated class
+     */
+    public interface Generated
+    {
+        /**
+         * @param in is the input, its length is the first layer size
+         * @param hidden holds the output of every layer but the last
+         * @param out receives the output
+         */
+        void evaluate(double[] in, double[][] hidden, double[] out);
+    }
+
+    private final int numLayers;
+    private final int[] layerSizes;
+    private final boolean vectorized;
+    private final String source;
+
+    private final Generated generated;
+
+    // the outputs of the hidden layers, taken by one call at a time
+    private final WorkspacePool<double[][]> workspaces = new WorkspacePool<>(this::newWorkspace);
+
+    private CompiledNetwork(int[] inLayerSizes, boolean inVectorized, String inSource, Generated inGenerated)
+    {
+        numLayers = inLayerSizes.length - 1;
+        layerSizes = inLayerSizes;
+        vectorized = inVectorized;
+        source = inSource;
+        generated = inGenerated;
+    }
+
+    /**
+     * generates, compiles and loads a class for the shape of a network and fills it with a copy of the network's weights
+     * the first network of a shape takes a moment for javac, the rest of that shape only copy their weights
+     * @param net is the network to compile, it is only read
+     * @throws IllegalStateException if the runtime has no Java compiler, as on a JRE, or the generated source does not compile
+     */
+    public static CompiledNetwork compile(NeuralNetwork net)
+    {
+        int[] layerSizes = net.getLayerSizes().clone();
+        boolean vectorized = isVectorAvailable();
+
+        String name = className(layerSizes, vectorized);
+        String source = generateSource(name, layerSizes, vectorized);
+
+        MethodHandle constructor = CONSTRUCTORS.computeIfAbsent(name, key -> define(key, source, vectorized));
+
+        double[][] weights = new double[layerSizes.length - 1][];
+        double[][] biases = new double[layerSizes.length - 1][];
+
+        for (int layer = 0; layer < weights.length; layer ++)
+        {
+            weights[layer] = net.getLayers()[layer].getWeightMatrix().getData().clone();
+            biases[layer] = net.getLayers()[layer].getBiases();
+        }
+
+        try
+        {
+            return new CompiledNetwork(layerSizes, vectorized, source, (Generated) constructor.invoke(weights, biases));
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException("could not make the compiled network " + name, e);
+        }
+    }
+
+    // vectorized exactly when LinearAlgebra managed to load VectorKernels
+    private static boolean isVectorAvailable()
+    {
+        return LinearAlgebra.getKernelsName().equals("VectorKernels");
+    }
+
+    private static String className(int[] layerSizes, boolean vectorized)
+    {
+        StringBuilder name = new StringBuilder("CompiledNetwork").append(vectorized ? "Vector" : "Scalar");
+        for (int size : layerSizes) name.append('_').append(size);
+        return name.toString();
+    }
+
+    /**
+     * writes the class for a shape, a final class implementing Generated with one method per layer
+     */
+    static String generateSource(String name, int[] layerSizes, boolean vectorized)
+    {
+        int numLayers = layerSizes.length - 1;
+
+        // lanes of the species the generated code will use, its loops are split at multiples of this
+        int lanes = vectorized ? vectorLanes() : 1;
+
+        StringBuilder code = new StringBuilder();
+
+        if (vectorized)
+        {
+            code.append("import jdk.incubator.vector.*;\n\n");
+        }
+
+        code.append("final class ").append(name).append(" implements CompiledNetwork.Generated {\n\n");
+
+        if (vectorized)
+        {
+            code.append("    private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;\n\n");
+        }
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            code.append("    private final double[] w").append(layer).append(";\n");
+            code.append("    private final double[] b").append(layer).append(";\n");
+        }
+
+        code.append("\n    ").append(name).append("(double[][] weights, double[][] biases)\n    {\n");
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            code.append("        w").append(layer).append(" = weights[").append(layer).append("];\n");
+            code.append("        b").append(layer).append(" = biases[").append(layer).append("];\n");
+        }
+        code.append("    }\n\n");
+
+        code.append("    @Override\n    public void evaluate(double[] in, double[][] hidden, double[] out)\n    {\n");
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            String from = layer == 0 ? "in" : "hidden[" + (layer - 1) + "]";
+            String to = layer == numLayers - 1 ? "out" : "hidden[" + layer + "]";
+
+            code.append("        layer").append(layer).append("(").append(from).append(", ").append(to).append(");\n");
+        }
+        code.append("    }\n");
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            appendLayer(code, layer, layerSizes[layer], layerSizes[layer + 1], lanes, vectorized);
+        }
+
+        code.append("}\n");
+
+        return code.toString();
+    }
+
+    // in and out are arrays of exactly cols and rows, every index is a constant or a loop counter with a constant bound
+    private static void appendLayer(StringBuilder code, int layer, int cols, int rows, int lanes, boolean vectorized)
+    {
+        String w = "w" + layer;
+        String b = "b" + layer;
+
+        // a layer narrower than one vector is done without vectors
+        boolean useVectors = vectorized && cols >= lanes;
+
+        // the columns covered by the loop, the rest are written out one at a time with constant indices
+        int loopCols = useVectors ? cols - cols % lanes : cols > UNROLL_COLS ? cols : 0;
+
+        code.append("\n    private void layer").append(layer).append("(double[] in, double[] out)\n    {\n");
+
+        // with the lengths known to match the constants, the JIT can drop the bounds check of every access
+        code.append("        double[] ").append(w).append(" = this.").append(w).append(";\n");
+        code.append("        double[] ").append(b).append(" = this.").append(b).append(";\n");
+        code.append("        if (in.length != ").append(cols).append(" || out.length != ").append(rows).append(" || ").append(w)
+            .append(".length != ").append(rows * cols).append(" || ").append(b).append(".length != ").append(rows)
+            .append(") throw new IllegalArgumentException(\"layer ").append(layer).append(" dimentions do not match\");\n\n");
+
+        // rows are done GROUP_ROWS at a time in a loop, then the rest four and one at a time with constant row numbers
+        int loopRows = rows - rows % GROUP_ROWS;
+
+        if (loopRows > 0)
+        {
+            code.append("        for (int row = 0; row < ").append(loopRows).append("; row += ").append(GROUP_ROWS).append(")\n        {\n");
+            appendGroup(code, w, b, "row", GROUP_ROWS, cols, loopCols, useVectors);
+            code.append("        }\n");
+        }
+
+        for (int row = loopRows; row < rows; )
+        {
+            int numRows = rows - row >= 4 ? 4 : 1;
+
+            code.append("        {\n");
+            appendGroup(code, w, b, Integer.toString(row), numRows, cols, loopCols, useVectors);
+            code.append("        }\n");
+
+            row += numRows;
+        }
+
+        code.append("    }\n");
+    }
+
+    // numRows rows from firstRow, which is a constant or the loop counter, through the dot product, bias and activation
+    private static void appendGroup(StringBuilder code, String w, String b, String firstRow, int numRows, int cols, int loopCols, boolean useVectors)
+    {
+        code.append("            int r0 = ").append(firstRow).append(" * ").append(cols).append(";\n");
+        appendRows(code, w, "r0", numRows, cols, loopCols, useVectors, "            ");
+
+        for (int r = 0; r < numRows; r++)
+        {
+            String row = firstRow + " + " + r;
+
+            code.append("            s").append(r).append(" += ").append(b).append("[").append(row).append("];\n");
+            code.append("            out[").append(row).append("] = s").append(r).append(" > 0 ? s").append(r)
+                .append(" : ").append(LEAK).append(" * s").append(r).append(";\n");
+        }
+    }
+
+    // leaves the dot products of numRows rows starting at start in s0 up to s(numRows - 1)
+    private static void appendRows(StringBuilder code, String w, String start, int numRows, int cols, int loopCols,
+        boolean useVectors, String indent)
+    {
+        if (useVectors)
+        {
+            for (int r = 0; r < numRows; r++)
+            {
+                code.append(indent).append("DoubleVector v").append(r).append(" = DoubleVector.zero(S);\n");
+            }
+
+            // multiply then add like VectorKernels.dot4, so the sums round the same way
+            code.append(indent).append("for (int i = 0; i < ").append(loopCols).append("; i += S.length())\n");
+            code.append(indent).append("{\n");
+            code.append(indent).append("    DoubleVector x = DoubleVector.fromArray(S, in, i);\n");
+
+            for (int r = 0; r < numRows; r++)
+            {
+                code.append(indent).append("    v").append(r).append(" = v").append(r).append(".add(DoubleVector.fromArray(S, ").append(w)
+                    .append(", ").append(start).append(" + ").append(r * cols).append(" + i).mul(x));\n");
+            }
+
+            code.append(indent).append("}\n");
+
+            for (int r = 0; r < numRows; r++)
+            {
+                code.append(indent).append("double s").append(r).append(" = v").append(r).append(".reduceLanes(VectorOperators.ADD);\n");
+            }
+        }
+        else
+        {
+            for (int r = 0; r < numRows; r++)
+            {
+                code.append(indent).append("double s").append(r).append(" = 0;\n");
+            }
+
+            if (loopCols > 0)
+            {
+                code.append(indent).append("for (int i = 0; i < ").append(loopCols).append("; i++)\n");
+                code.append(indent).append("{\n");
+                code.append(indent).append("    double x = in[i];\n");
+
+                for (int r = 0; r < numRows; r++)
+                {
+                    code.append(indent).append("    s").append(r).append(" += ").append(w).append("[").append(start).append(" + ")
+                        .append(r * cols).append(" + i] * x;\n");
+                }
+
+                code.append(indent).append("}\n");
+            }
+        }
+
+        for (int i = loopCols; i < cols; i++)
+        {
+            for (int r = 0; r < numRows; r++)
+            {
+                code.append(indent).append("s").append(r).append(" += ").append(w).append("[").append(start).append(" + ")
+                    .append(r * cols + i).append("] * in[").append(i).append("];\n");
+            }
+        }
+    }
+
+    // only called when the module is loaded, so nothing touches jdk.incubator.vector otherwise
+    private static int vectorLanes()
+    {
+        try
+        {
+            Object species = Class.forName("jdk.incubator.vector.DoubleVector").getField("SPECIES_PREFERRED").get(null);
+
+            // called through the public interface, the class of the species is not exported
+            return (Integer) Class.forName("jdk.incubator.vector.VectorSpecies").getMethod("length").invoke(species);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("could not read the vector length", e);
+        }
+    }
+
+    // compiles the source in memory and loads it as a hidden class next to this one
+    private static MethodHandle define(String name, String source, boolean vectorized)
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+        if (compiler == null)
+        {
+            throw new IllegalStateException("compiling a network needs a JDK, this runtime has no Java compiler");
+        }
+
+        Map<String, ByteArrayOutputStream> classes = new ConcurrentHashMap<>();
+
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + name + ".java"), JavaFileObject.Kind.SOURCE)
+        {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors)
+            {
+                return source;
+            }
+        };
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+        JavaFileManager fileManager = new ForwardingJavaFileManager<>(compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8))
+        {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling)
+            {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className + ".class"), kind)
+                {
+                    @Override
+                    public OutputStream openOutputStream()
+                    {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+
+        // the generated class implements Generated, so it is compiled against the classes this one was loaded from
+        List<String> options = new ArrayList<>(List.of("-classpath", System.getProperty("java.class.path"), "-g:none", "-proc:none", "-nowarn"));
+        if (vectorized)
+        {
+            options.addAll(List.of("--add-modules", "jdk.incubator.vector"));
+        }
+
+        boolean compiled = compiler.getTask(null, fileManager, diagnostics, options, null, List.of(sourceFile)).call();
+
+        if (!compiled || !classes.containsKey(name))
+        {
+            StringBuilder errors = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+            {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) errors.append('\n').append(diagnostic.getMessage(null));
+            }
+
+            throw new IllegalStateException("could not compile " + name + errors);
+        }
+
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classes.get(name).toByteArray(), true);
+
+            return lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, double[][].class, double[][].class));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("could not load " + name, e);
+        }
+    }
+
+    /**
+     * evaluates an input, allocating the output
+     * @param in is the input
+     * @return the output of the network
+     */
+    public double[] evaluate(double[] in)
+    {
+        double[] out = new double[layerSizes[numLayers]];
+        evaluate(in, out);
+        return out;
+    }
+
+    /**
+     * evaluates an input without allocating once warmed up, safe from any number of threads, virtual threads included
+     * @param in is the input, its length must match the first layer
+     * @param out receives the output, its length must match the last layer
+     */
+    public void evaluate(double[] in, double[] out)
+    {
+        if (in.length != layerSizes[0])
+        {
+            throw new IllegalArgumentException("in length must match in length of the first layer of the network");
+        }
+
+        if (out.length != layerSizes[numLayers])
+        {
+            throw new IllegalArgumentException("out length must match out length of the last layer in the netword");
+        }
+
+        double[][] hidden = workspaces.take();
+
+        try
+        {
+            generated.evaluate(in, hidden, out);
+        }
+        finally
+        {
+            workspaces.give(hidden);
+        }
+    }
+
+    private double[][] newWorkspace()
+    {
+        double[][] hidden = new double[numLayers - 1][];
+
+        for (int layer = 0; layer < numLayers - 1; layer ++)
+        {
+            hidden[layer] = new double[layerSizes[layer + 1]];
+        }
+
+        return hidden;
+    }
+
+    /**
+     * @return the Java source of the generated class
+     */
+    public String getSource()
+    {
+        return source;
+    }
+
+    /**
+     * @return true if the generated class uses the Vector API
+     */
+    public boolean isVectorized()
+    {
+        return vectorized;
+    }
+
+    public int[] getLayerSizes()
+    {
+        return layerSizes.clone();
+    }
+
+    public int getNumLayers()
+    {
+        return numLayers;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * one mini-batch of images ready to train on, one example per row
+ */
+public class DataBatch {
+
+    private final Matrix inputs;
+    private final SparseMatrix sparseInputs;
+    private final Matrix targets;
+    private final int[] lables;
+
+    // which pass over the data the batch is from
+    int epoch;
+
+    public DataBatch(int batchSize, int inputSize, int numClasses)
+    {
+        this(batchSize, inputSize, numClasses, true, true);
+    }
+
+    /**
+     * @param dense is true to hold the inputs as a dense matrix
+     * @param sparse is true to hold the inputs as a sparse matrix
+     */
+    public DataBatch(int batchSize, int inputSize, int numClasses, boolean dense, boolean sparse)
+    {
+        if (!dense && !sparse)
+        {
+            throw new IllegalArgumentException("a batch needs dense or sparse inputs");
+        }
+
+        inputs = dense ? new Matrix(batchSize, inputSize) : null;
+        sparseInputs = sparse ? new SparseMatrix(inputSize, batchSize, 0) : null;
+        targets = new Matrix(batchSize, numClasses);
+        lables = new int[batchSize];
+    }
+
+    /**
+     * @return the inputs, one image per row
+     * @throws IllegalStateException if the batch only has sparse inputs
+     */
+    public Matrix getInputs()
+    {
+        if (inputs == null)
+        {
+            throw new IllegalStateException("batch has no dense inputs, make its DataLoader with sparse false");
+        }
+
+        return inputs;
+    }
+
+    /**
+     * @return the same inputs with only their nonzero pixels, for the sparse first layer
+     * @throws IllegalStateException if the batch only has dense inputs
+     */
+    public SparseMatrix getSparseInputs()
+    {
+        if (sparseInputs == null)
+        {
+            throw new IllegalStateException("batch has no sparse inputs, make its DataLoader with sparse true");
+        }
+
+        return sparseInputs;
+    }
+
+    public boolean hasDenseInputs()
+    {
+        return inputs != null;
+    }
+
+    public boolean hasSparseInputs()
+    {
+        return sparseInputs != null;
+    }
+
+    /**
+     * @return the one-hot encoded lables, one per row
+     */
+    public Matrix getTargets()
+    {
+        return targets;
+    }
+
+    public int[] getLables()
+    {
+        return lables;
+    }
+
+    public int getEpoch()
+    {
+        return epoch;
+    }
+
+    public int getSize()
+    {
+        return lables.length;
+    }
+}
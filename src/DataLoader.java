@@ -0,0 +1,299 @@
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * loads mini-batches from an ImageDataset on background threads so training never waits on decoding
+ *
+ * every epoch visits each image exactly once, in the order of a permutation made from the seed and the epoch number
+ * batches are handed out round robin from one bounded queue per producer, so the order is the same on every run
+ * an epoch only has whole batches, images past the last whole batch of a permutation are skipped for that epoch
+ * batches hold their images dense, as a sparse matrix of the nonzero pixels for the sparse first layer, or both,
+ * only the representations asked for are decoded, so a trainer that only reads one does not pay to convert the other
+ */
+public class DataLoader implements AutoCloseable {
+
+    private static final int NUM_CLASSES = 10;
+    private static final int IMAGE_SIZE = 784;
+
+    private final ImageDataset reader;
+    private final int batchSize;
+    private final long seed;
+
+    private final boolean dense;
+    private final boolean sparse;
+
+    private final int batchesPerEpoch;
+
+    private final Producer[] producers;
+
+    // the batch last handed out and the producer it goes back to
+    private DataBatch current;
+    private Producer currentProducer;
+
+    private long numTaken;
+
+    private volatile Throwable failure;
+
+    // where the time next() spends waiting is recorded, null when not tracked
+    private TrainingMetrics metrics;
+
+    // the two most recently used epoch permutations, any other epoch is rebuilt from the seed
+    private final int[] cachedEpochs = {-1, -1};
+    private final int[][] cachedPermutations = new int[2][];
+
+    /**
+     * makes batches with both dense and sparse inputs, for a caller that needs both
+     * @param inReader is where the images come from
+     * @param inBatchSize is the number of images per batch
+     * @param numProducers is the number of background threads decoding batches
+     * @param queueCapacity is the total number of ready batches that are kept ahead of the trainer
+     * @param inSeed decides the order the images are shuffled in
+     */
+    public DataLoader(ImageDataset inReader, int inBatchSize, int numProducers, int queueCapacity, long inSeed)
+    {
+        this(inReader, inBatchSize, numProducers, queueCapacity, inSeed, true, true);
+    }
+
+    /**
+     * makes batches with only one representation of the inputs, the other getter of DataBatch throws
+     * @param inSparse is true to fill only getSparseInputs, false to fill only getInputs
+     */
+    public DataLoader(ImageDataset inReader, int inBatchSize, int numProducers, int queueCapacity, long inSeed, boolean inSparse)
+    {
+        this(inReader, inBatchSize, numProducers, queueCapacity, inSeed, !inSparse, inSparse);
+    }
+
+    private DataLoader(ImageDataset inReader, int inBatchSize, int numProducers, int queueCapacity, long inSeed, boolean inDense, boolean inSparse)
+    {
+        if (inBatchSize < 1 || inBatchSize > inReader.getNumImages())
+        {
+            throw new IllegalArgumentException("batch size must be between 1 and the number of images");
+        }
+
+        if (numProducers < 1 || queueCapacity < numProducers)
+        {
+            throw new IllegalArgumentException("need at least one producer and one queued batch per producer");
+        }
+
+        reader = inReader;
+        batchSize = inBatchSize;
+        seed = inSeed;
+        dense = inDense;
+        sparse = inSparse;
+
+        batchesPerEpoch = reader.getNumImages() / batchSize;
+
+        producers = new Producer[numProducers];
+
+        for (int i = 0; i < numProducers; i++)
+        {
+            producers[i] = new Producer(i, numProducers, (queueCapacity + numProducers - 1) / numProducers);
+        }
+
+        for (Producer producer : producers)
+        {
+            producer.thread.start();
+        }
+    }
+
+    /**
+     * @param inMetrics is where the time spent waiting in next() is recorded, null to stop recording it
+     */
+    public void setMetrics(TrainingMetrics inMetrics)
+    {
+        metrics = inMetrics;
+    }
+
+    /**
+     * waits for the next batch, the batch before it is recycled so it must not be used after this call
+     * @return the next batch
+     */
+    public DataBatch next()
+    {
+        if (current != null)
+        {
+            currentProducer.free.add(current);
+            current = null;
+        }
+
+        Producer producer = producers[(int) (numTaken % producers.length)];
+
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        try
+        {
+            DataBatch batch;
+            while ((batch = producer.ready.poll(100, TimeUnit.MILLISECONDS)) == null)
+            {
+                if (failure != null)
+                {
+                    throw new IllegalStateException("data loader failed", failure);
+                }
+            }
+
+            current = batch;
+            currentProducer = producer;
+            numTaken++;
+
+            if (metrics != null) metrics.recordDataWait(System.nanoTime() - start);
+
+            return batch;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a batch", e);
+        }
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public int getBatchesPerEpoch()
+    {
+        return batchesPerEpoch;
+    }
+
+    /**
+     * @return true if batches have getInputs filled
+     */
+    public boolean hasDenseInputs()
+    {
+        return dense;
+    }
+
+    /**
+     * @return true if batches have getSparseInputs filled
+     */
+    public boolean hasSparseInputs()
+    {
+        return sparse;
+    }
+
+    @Override
+    public void close()
+    {
+        for (Producer producer : producers)
+        {
+            producer.thread.interrupt();
+        }
+    }
+
+    /**
+     * @param epoch is the pass over the data
+     * @return the order images are visited in during that epoch
+     */
+    private int[] getPermutation(int epoch)
+    {
+        synchronized (cachedEpochs)
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                if (cachedEpochs[i] == epoch) return cachedPermutations[i];
+            }
+
+            // Fisher-Yates shuffle
+            int[] permutation = new int[reader.getNumImages()];
+            for (int i = 0; i < permutation.length; i++) permutation[i] = i;
+
+            Random random = new Random(seed * 31 + epoch);
+            for (int i = permutation.length - 1; i > 0; i--)
+            {
+                int j = random.nextInt(i + 1);
+                int swap = permutation[i];
+                permutation[i] = permutation[j];
+                permutation[j] = swap;
+            }
+
+            // replace whichever cached epoch is older
+            int slot = cachedEpochs[0] < cachedEpochs[1] ? 0 : 1;
+            cachedEpochs[slot] = epoch;
+            cachedPermutations[slot] = permutation;
+
+            return permutation;
+        }
+    }
+
+    // fills batches first, first + stride, first + 2 * stride, ... into its own queue
+    private class Producer implements Runnable
+    {
+        private final int first;
+        private final int stride;
+
+        private final BlockingQueue<DataBatch> ready;
+        private final BlockingQueue<DataBatch> free;
+
+        private final Thread thread;
+
+        Producer(int inFirst, int inStride, int capacity)
+        {
+            first = inFirst;
+            stride = inStride;
+
+            ready = new ArrayBlockingQueue<>(capacity);
+
+            // one extra batch for the one being filled and one for the one the trainer holds
+            free = new ArrayBlockingQueue<>(capacity + 2);
+            for (int i = 0; i < capacity + 2; i++)
+            {
+                free.add(new DataBatch(batchSize, IMAGE_SIZE, NUM_CLASSES, dense, sparse));
+            }
+
+            thread = new Thread(this, "data-loader-" + first);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for (long batchNum = first; ; batchNum += stride)
+                {
+                    DataBatch batch = free.take();
+                    fill(batch, batchNum);
+                    ready.put(batch);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // closed
+            }
+            catch (Throwable e)
+            {
+                failure = e;
+            }
+        }
+
+        private void fill(DataBatch batch, long batchNum)
+        {
+            int epoch = (int) (batchNum / batchesPerEpoch);
+            int start = (int) (batchNum % batchesPerEpoch) * batchSize;
+
+            int[] permutation = getPermutation(epoch);
+
+            double[] inputs = dense ? batch.getInputs().getData() : null;
+            SparseMatrix sparseInputs = sparse ? batch.getSparseInputs() : null;
+            Matrix targets = batch.getTargets();
+            int[] lables = batch.getLables();
+
+            targets.fill(0);
+            if (sparse) sparseInputs.clear();
+
+            for (int row = 0; row < batchSize; row++)
+            {
+                int image = permutation[start + row];
+
+                if (dense) reader.getImage(image, inputs, row * IMAGE_SIZE);
+                if (sparse) reader.getImage(image, sparseInputs);
+
+                lables[row] = reader.getLable(image);
+                targets.set(row, lables[row], 1);
+            }
+
+            batch.epoch = epoch;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * a pair of IDX files converted once into one contiguous file of ready to use images, lables and one-hot targets
+ *
+ * the cache is memory mapped, so every epoch and every later job reads the converted pixels straight from the page cache
+ * instead of decoding the IDX bytes again, and getImages and getTargets are views of the whole dataset with nothing copied
+ * pixels are kept either as floats already scaled to 0-1, or as the original bytes with the scale to apply, 4 times smaller
+ * the header records the size and modification time of both IDX files, open rebuilds the cache when either has changed
+ *
+ * the file is little endian:
+ *   int     magic, the bytes "NNDC"
+ *   short   version
+ *   byte    dtype, DTYPE_FLOAT32 or DTYPE_UINT8
+ *   byte    number of classes
+ *   int     number of images
+ *   int     pixels per image
+ *   long    size of the image IDX file
+ *   long    modification time of the image IDX file, in milliseconds
+ *   long    size of the lable IDX file
+ *   long    modification time of the lable IDX file, in milliseconds
+ *   float   scale, the real value of a pixel is its stored value times this
+ *   padding up to HEADER_SIZE
+ *   every image row by row, floats or bytes by the dtype
+ *   every lable as a byte
+ *   padding up to a multiple of 4
+ *   every target as number of classes floats, 1 for the lable and 0 for the rest
+ */
+public class DatasetCache implements ImageDataset {
+
+    public static final int MAGIC = 0x43444E4E; // "NNDC" when written little endian
+    public static final short VERSION = 1;
+
+    // numbered like the dtypes of NetworkFile
+    public static final byte DTYPE_FLOAT32 = 2;
+    public static final byte DTYPE_UINT8 = 3;
+
+    // the images start on a boundary this size, like the weights of a network file
+    private static final int HEADER_SIZE = 64;
+
+    private static final int IMAGE_SIZE = 784;
+    private static final int NUM_CLASSES = 10;
+
+    private final File file;
+
+    private final byte dtype;
+    private final int numImages;
+    private final float scale;
+
+    // views of the mapping, only the image view for the dtype is set
+    private final FloatBuffer floatImages;
+    private final ByteBuffer byteImages;
+    private final ByteBuffer lables;
+    private final FloatBuffer targets;
+
+    private DatasetCache(File inFile, MappedByteBuffer mapping)
+    {
+        file = inFile;
+
+        ByteBuffer buffer = mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+        dtype = buffer.get(6);
+        numImages = buffer.getInt(8);
+        scale = buffer.getFloat(48);
+
+        int pixelBytes = dtype == DTYPE_FLOAT32 ? Float.BYTES : Byte.BYTES;
+        long lableOffset = HEADER_SIZE + (long) numImages * IMAGE_SIZE * pixelBytes;
+        long targetOffset = align(lableOffset + numImages);
+
+        ByteBuffer images = slice(buffer, HEADER_SIZE, lableOffset);
+
+        floatImages = dtype == DTYPE_FLOAT32 ? images.asFloatBuffer() : null;
+        byteImages = dtype == DTYPE_UINT8 ? images : null;
+        lables = slice(buffer, lableOffset, lableOffset + numImages);
+        targets = slice(buffer, targetOffset, targetOffset + (long) numImages * NUM_CLASSES * Float.BYTES).asFloatBuffer();
+    }
+
+    /**
+     * maps the cache of a pair of IDX files, converting them first if there is no cache yet or it is out of date
+     * a new cache is written to a temporary file and moved into place, so jobs starting at once never see half a cache
+     * @param imageFile is the IDX file of images
+     * @param lableFile is the IDX file of lables
+     * @param cacheFile is where the cache is kept
+     * @param dtype is DTYPE_FLOAT32 or DTYPE_UINT8, a cache of the other dtype is rebuilt
+     * @throws UncheckedIOException if the cache cannot be read or written
+     */
+    public static DatasetCache open(File imageFile, File lableFile, File cacheFile, byte dtype)
+    {
+        if (dtype != DTYPE_FLOAT32 && dtype != DTYPE_UINT8)
+        {
+            throw new IllegalArgumentException("dtype must be DTYPE_FLOAT32 or DTYPE_UINT8");
+        }
+
+        try
+        {
+            // a stale cache is only ever read through the channel, never mapped, so nothing here holds
+            // a mapping of the file build moves over, which some platforms would refuse
+            if (!isValid(imageFile, lableFile, cacheFile, dtype))
+            {
+                build(imageFile, lableFile, cacheFile, dtype);
+            }
+
+            MappedByteBuffer mapping = mapIfValid(imageFile, lableFile, cacheFile, dtype);
+
+            if (mapping == null)
+            {
+                throw new IOException("the cache just written does not match its source, was it changed while converting?");
+            }
+
+            return new DatasetCache(cacheFile, mapping);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("could not cache " + imageFile + " in " + cacheFile, e);
+        }
+    }
+
+    /**
+     * reads only the header of the cache, nothing is mapped
+     * @return true if the cache exists and was made from the IDX files as they are now, in the given dtype
+     */
+    public static boolean isValid(File imageFile, File lableFile, File cacheFile, byte dtype)
+    {
+        if (!cacheFile.exists())
+        {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+        {
+            return headerMatches(channel, imageFile, lableFile, dtype);
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    // maps the cache, or returns null if its header does not match, the header is checked before anything is mapped
+    private static MappedByteBuffer mapIfValid(File imageFile, File lableFile, File cacheFile, byte dtype) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+        {
+            if (!headerMatches(channel, imageFile, lableFile, dtype))
+            {
+                return null;
+            }
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // reads the fixed size header and checks it against the source files and the length of the cache
+    private static boolean headerMatches(FileChannel channel, File imageFile, File lableFile, byte dtype) throws IOException
+    {
+        if (channel.size() < HEADER_SIZE)
+        {
+            return false;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (header.hasRemaining())
+        {
+            if (channel.read(header, header.position()) < 0)
+            {
+                return false;
+            }
+        }
+
+        int numImages = header.getInt(8);
+
+        return header.getInt(0) == MAGIC
+            && header.getShort(4) == VERSION
+            && header.get(6) == dtype
+            && header.get(7) == NUM_CLASSES
+            && numImages >= 0
+            && header.getInt(12) == IMAGE_SIZE
+            && header.getLong(16) == imageFile.length()
+            && header.getLong(24) == lastModified(imageFile)
+            && header.getLong(32) == lableFile.length()
+            && header.getLong(40) == lastModified(lableFile)
+            && channel.size() == fileSize(numImages, dtype);
+    }
+
+    // reads the IDX files once and writes every image, lable and target in the cache layout
+    private static void build(File imageFile, File lableFile, File cacheFile, byte dtype) throws IOException
+    {
+        // the times are taken before reading, so a source changed while converting makes the new cache out of date
+        long imageSize = imageFile.length();
+        long imageTime = lastModified(imageFile);
+        long lableSize = lableFile.length();
+        long lableTime = lastModified(lableFile);
+
+        MNISTImageReader reader = new MNISTImageReader(imageFile, lableFile);
+        int numImages = reader.getNumImages();
+
+        long size = fileSize(numImages, dtype);
+
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("dataset is too large to cache in one file");
+        }
+
+        File directory = cacheFile.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+
+        try
+        {
+            try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE))
+            {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+
+                buffer.putInt(MAGIC);
+                buffer.putShort(VERSION);
+                buffer.put(dtype);
+                buffer.put((byte) NUM_CLASSES);
+                buffer.putInt(numImages);
+                buffer.putInt(IMAGE_SIZE);
+                buffer.putLong(imageSize);
+                buffer.putLong(imageTime);
+                buffer.putLong(lableSize);
+                buffer.putLong(lableTime);
+                buffer.putFloat(dtype == DTYPE_FLOAT32 ? 1 : 1 / 255.0f);
+
+                buffer.position(HEADER_SIZE);
+
+                if (dtype == DTYPE_FLOAT32)
+                {
+                    FloatBuffer images = buffer.asFloatBuffer();
+                    float[] image = new float[IMAGE_SIZE];
+
+                    for (int num = 0; num < numImages; num++)
+                    {
+                        reader.getImage(num, image, 0);
+                        images.put(image);
+                    }
+
+                    buffer.position(buffer.position() + numImages * IMAGE_SIZE * Float.BYTES);
+                }
+                else
+                {
+                    byte[] image = new byte[IMAGE_SIZE];
+
+                    for (int num = 0; num < numImages; num++)
+                    {
+                        reader.getImage(num, image);
+                        buffer.put(image);
+                    }
+                }
+
+                for (int num = 0; num < numImages; num++)
+                {
+                    buffer.put((byte) reader.getLable(num));
+                }
+
+                // the mapping starts zeroed, so only the 1 of each target is written
+                int targetOffset = (int) align(buffer.position());
+
+                for (int num = 0; num < numImages; num++)
+                {
+                    int lable = reader.getLable(num);
+
+                    if (lable >= NUM_CLASSES)
+                    {
+                        throw new IllegalArgumentException("lable " + lable + " of image " + num + " is not one of " + NUM_CLASSES + " classes");
+                    }
+
+                    buffer.putFloat(targetOffset + (num * NUM_CLASSES + lable) * Float.BYTES, 1);
+                }
+
+                ((MappedByteBuffer) buffer).force();
+            }
+
+            Files.move(temporary.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private static long fileSize(int numImages, byte dtype)
+    {
+        int pixelBytes = dtype == DTYPE_FLOAT32 ? Float.BYTES : Byte.BYTES;
+        long lableOffset = HEADER_SIZE + (long) numImages * IMAGE_SIZE * pixelBytes;
+        return align(lableOffset + numImages) + (long) numImages * NUM_CLASSES * Float.BYTES;
+    }
+
+    // up to a multiple of 4 so the targets can be viewed as floats
+    private static long align(long offset)
+    {
+        return (offset + 3) / 4 * 4;
+    }
+
+    private static long lastModified(File file) throws IOException
+    {
+        return Files.getLastModifiedTime(file.toPath()).toMillis();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long start, long end)
+    {
+        return buffer.duplicate().position((int) start).limit((int) end).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void getImage(int num, double[] out, int outOffset)
+    {
+        int offset = getImageOffset(num);
+
+        if (floatImages != null)
+        {
+            for (int i = 0; i < IMAGE_SIZE; i++) out[outOffset + i] = floatImages.get(offset + i);
+        }
+        else
+        {
+            for (int i = 0; i < IMAGE_SIZE; i++) out[outOffset + i] = (byteImages.get(offset + i) & 0xFF) * scale;
+        }
+    }
+
+    @Override
+    public void getImage(int num, float[] out, int outOffset)
+    {
+        int offset = getImageOffset(num);
+
+        if (floatImages != null)
+        {
+            floatImages.get(offset, out, outOffset, IMAGE_SIZE);
+        }
+        else
+        {
+            for (int i = 0; i < IMAGE_SIZE; i++) out[outOffset + i] = (byteImages.get(offset + i) & 0xFF) * scale;
+        }
+    }
+
+    @Override
+    public void getImage(int num, SparseMatrix out)
+    {
+        if (out.getCols() != IMAGE_SIZE)
+        {
+            throw new IllegalArgumentException("sparse matrix must have " + IMAGE_SIZE + " cols");
+        }
+
+        int offset = getImageOffset(num);
+
+        for (int i = 0; i < IMAGE_SIZE; i++)
+        {
+            double pixel = floatImages != null ? floatImages.get(offset + i) : (byteImages.get(offset + i) & 0xFF) * scale;
+
+            if (pixel != 0)
+            {
+                out.append(i, pixel);
+            }
+        }
+
+        out.endRow();
+    }
+
+    /**
+     * copies the one-hot target of an image
+     * @param num is the index of the image
+     * @param out receives the 10 values
+     * @param outOffset is where in out the target starts, so it can be put straight into a batch row
+     */
+    public void getTarget(int num, double[] out, int outOffset)
+    {
+        getImageOffset(num);
+
+        for (int i = 0; i < NUM_CLASSES; i++) out[outOffset + i] = targets.get(num * NUM_CLASSES + i);
+    }
+
+    @Override
+    public int getLable(int num)
+    {
+        getImageOffset(num);
+
+        return lables.get(num) & 0xFF;
+    }
+
+    // where the image starts in the image view, in pixels
+    private int getImageOffset(int num)
+    {
+        if (num < 0 || num >= numImages)
+        {
+            throw new IndexOutOfBoundsException("image " + num + " out of " + numImages);
+        }
+
+        return num * IMAGE_SIZE;
+    }
+
+    /**
+     * the view is read only and shared, not copied, image n is the 784 floats from n * 784
+     * @return every image as floats scaled to 0-1
+     * @throws IllegalStateException if the cache keeps bytes
+     */
+    public FloatBuffer getImages()
+    {
+        if (floatImages == null)
+        {
+            throw new IllegalStateException(file + " keeps its pixels as bytes, see getImageBytes");
+        }
+
+        return floatImages.asReadOnlyBuffer();
+    }
+
+    /**
+     * the view is read only and shared, not copied, image n is the 784 bytes from n * 784, multiply them by getScale
+     * @return every image as unsigned bytes
+     * @throws IllegalStateException if the cache keeps floats
+     */
+    public ByteBuffer getImageBytes()
+    {
+        if (byteImages == null)
+        {
+            throw new IllegalStateException(file + " keeps its pixels as floats, see getImages");
+        }
+
+        return byteImages.asReadOnlyBuffer();
+    }
+
+    /**
+     * the view is read only and shared, not copied, the target of image n is the 10 floats from n * 10
+     * @return every one-hot target
+     */
+    public FloatBuffer getTargets()
+    {
+        return targets.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return every lable as an unsigned byte, a read only view
+     */
+    public ByteBuffer getLables()
+    {
+        return lables.asReadOnlyBuffer();
+    }
+
+    @Override
+    public int getNumImages()
+    {
+        return numImages;
+    }
+
+    public byte getDtype()
+    {
+        return dtype;
+    }
+
+    public float getScale()
+    {
+        return scale;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+}
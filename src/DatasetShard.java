@@ -0,0 +1,81 @@
+/**
+ * one of several equal parts of a dataset, image i of shard s of n is image s + i * n of the whole
+ * each process of a distributed run trains on its own shard so no two see the same images in an epoch
+ * images past the last whole round of n are left out, so every shard is the same size
+ */
+public class DatasetShard implements ImageDataset {
+
+    private final ImageDataset data;
+    private final int shard;
+    private final int numShards;
+    private final int numImages;
+
+    /**
+     * @param inData is the whole dataset
+     * @param inShard is which part this is, from 0
+     * @param inNumShards is the number of parts
+     */
+    public DatasetShard(ImageDataset inData, int inShard, int inNumShards)
+    {
+        if (inNumShards < 1 || inShard < 0 || inShard >= inNumShards)
+        {
+            throw new IllegalArgumentException("shard must be between 0 and the number of shards");
+        }
+
+        data = inData;
+        shard = inShard;
+        numShards = inNumShards;
+        numImages = data.getNumImages() / numShards;
+    }
+
+    // where an image of the shard is in the whole dataset
+    private int toWhole(int num)
+    {
+        if (num < 0 || num >= numImages)
+        {
+            throw new IndexOutOfBoundsException("image " + num + " out of " + numImages);
+        }
+
+        return shard + num * numShards;
+    }
+
+    @Override
+    public int getNumImages()
+    {
+        return numImages;
+    }
+
+    @Override
+    public int getLable(int num)
+    {
+        return data.getLable(toWhole(num));
+    }
+
+    @Override
+    public void getImage(int num, double[] out, int outOffset)
+    {
+        data.getImage(toWhole(num), out, outOffset);
+    }
+
+    @Override
+    public void getImage(int num, float[] out, int outOffset)
+    {
+        data.getImage(toWhole(num), out, outOffset);
+    }
+
+    @Override
+    public void getImage(int num, SparseMatrix out)
+    {
+        data.getImage(toWhole(num), out);
+    }
+
+    public int getShard()
+    {
+        return shard;
+    }
+
+    public int getNumShards()
+    {
+        return numShards;
+    }
+}
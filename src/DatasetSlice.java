@@ -0,0 +1,73 @@
+/**
+ * a contiguous range of the images of a dataset, image i of the slice is image start + i of the whole
+ * used to hold part of a training set out as a validation set, so model selection never looks at the test set
+ */
+public class DatasetSlice implements ImageDataset {
+
+    private final ImageDataset data;
+    private final int start;
+    private final int numImages;
+
+    /**
+     * @param inData is the whole dataset
+     * @param inStart is the first image of the slice
+     * @param inEnd is one past the last image of the slice
+     */
+    public DatasetSlice(ImageDataset inData, int inStart, int inEnd)
+    {
+        if (inStart < 0 || inEnd < inStart || inEnd > inData.getNumImages())
+        {
+            throw new IllegalArgumentException("slice must be a range within the " + inData.getNumImages() + " images of the dataset");
+        }
+
+        data = inData;
+        start = inStart;
+        numImages = inEnd - inStart;
+    }
+
+    // where an image of the slice is in the whole dataset
+    private int toWhole(int num)
+    {
+        if (num < 0 || num >= numImages)
+        {
+            throw new IndexOutOfBoundsException("image " + num + " out of " + numImages);
+        }
+
+        return start + num;
+    }
+
+    @Override
+    public int getNumImages()
+    {
+        return numImages;
+    }
+
+    @Override
+    public int getLable(int num)
+    {
+        return data.getLable(toWhole(num));
+    }
+
+    @Override
+    public void getImage(int num, double[] out, int outOffset)
+    {
+        data.getImage(toWhole(num), out, outOffset);
+    }
+
+    @Override
+    public void getImage(int num, float[] out, int outOffset)
+    {
+        data.getImage(toWhole(num), out, outOffset);
+    }
+
+    @Override
+    public void getImage(int num, SparseMatrix out)
+    {
+        data.getImage(toWhole(num), out);
+    }
+
+    public int getStart()
+    {
+        return start;
+    }
+}
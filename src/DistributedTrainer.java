@@ -0,0 +1,306 @@
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * trains one copy of a network in each of several processes, each on its own shard of the data, kept in step by a RingAllReduce
+ *
+ * with a sync interval of 1 the gradients of every batch are summed across the processes before each step,
+ * so every copy takes the same steps as one network training on batches numProcesses times larger
+ * with a sync interval of k each copy takes k steps on its own and then the weights and biases are averaged,
+ * which sends k times less but lets the copies drift apart between syncs, the optimizer state is never synced
+ *
+ * the first train makes every copy start from the weights of process 0, and every process must train on the same
+ * number of examples with the same batch size, since each sync waits for all of them
+ */
+public class DistributedTrainer {
+
+    private final NeuralNetwork net;
+    private final RingAllReduce ring;
+    private final int syncInterval;
+
+    // every weight and bias laid end to end, and for gradients the number of examples summed last
+    private final double[] buffer;
+
+    private final NetworkGradient gradient;
+    private BatchWorkspace workspace;
+
+    // the layers are loaded from these after an average
+    private final Matrix[] weights;
+    private final double[][] biases;
+
+    private boolean started;
+    private long numBatches;
+
+    private long numExamples;
+    private long nanos;
+
+    /**
+     * @param inNet is this process's copy of the network, its batch size is the size of the batches of each process
+     * @param inRing connects this process to the others
+     * @param inSyncInterval is the number of batches between syncs, 1 sums the gradients of every batch
+     */
+    public DistributedTrainer(NeuralNetwork inNet, RingAllReduce inRing, int inSyncInterval)
+    {
+        if (inSyncInterval < 1)
+        {
+            throw new IllegalArgumentException("sync interval must be positive");
+        }
+
+        net = inNet;
+        ring = inRing;
+        syncInterval = inSyncInterval;
+
+        int[] layerSizes = net.getLayerSizes();
+        int numLayers = layerSizes.length - 1;
+
+        int size = 1;
+        for (int layer = 0; layer < numLayers; layer ++) size += layerSizes[layer + 1] * (layerSizes[layer] + 1);
+        buffer = new double[size];
+
+        gradient = new NetworkGradient(layerSizes);
+
+        weights = new Matrix[numLayers];
+        biases = new double[numLayers][];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            weights[layer] = new Matrix(layerSizes[layer + 1], layerSizes[layer]);
+            biases[layer] = new double[layerSizes[layer + 1]];
+        }
+    }
+
+    /**
+     * trains on batches from a loader until at least numExamples examples have been used by this process
+     * @param loader is where this process's batches come from, with sparse inputs, usually over its DatasetShard
+     * @param inNumExamples is the number of examples, rounded up to whole batches, the same in every process
+     */
+    public void train(DataLoader loader, long inNumExamples)
+    {
+        if (loader.getBatchSize() != net.getBatchSize())
+        {
+            throw new IllegalArgumentException("loader batch size must match the batch size of the network");
+        }
+
+        if (!loader.hasSparseInputs())
+        {
+            throw new IllegalArgumentException("loader must fill sparse inputs");
+        }
+
+        long start = System.nanoTime();
+
+        if (!started)
+        {
+            copyWeightsOfFirstProcess();
+            started = true;
+        }
+
+        long currentExample = 0;
+
+        while (currentExample < inNumExamples)
+        {
+            DataBatch batch = loader.next();
+
+            if (syncInterval == 1)
+            {
+                trainSummed(batch);
+            }
+            else
+            {
+                net.trainBatch(batch.getSparseInputs(), batch.getTargets());
+
+                if ((numBatches + 1) % syncInterval == 0)
+                {
+                    averageWeights();
+                }
+            }
+
+            numBatches++;
+            currentExample += batch.getSize();
+        }
+
+        // the copies leave every train the same, even when it stops between syncs
+        if (syncInterval > 1 && numBatches % syncInterval != 0)
+        {
+            averageWeights();
+        }
+
+        numExamples += currentExample;
+        nanos += System.nanoTime() - start;
+    }
+
+    // one step along the gradient of the batches of every process
+    private void trainSummed(DataBatch batch)
+    {
+        if (workspace == null || workspace.getBatchSize() != batch.getSize())
+        {
+            workspace = new BatchWorkspace(net.getLayerSizes(), batch.getSize());
+        }
+
+        net.computeGradient(batch.getSparseInputs(), batch.getTargets(), workspace, gradient);
+
+        int position = 0;
+        for (int layer = 0; layer < gradient.dWeights.length; layer ++)
+        {
+            position = put(gradient.dWeights[layer].getData(), position);
+            position = put(gradient.dBiases[layer], position);
+        }
+        buffer[position] = gradient.count;
+
+        ring.allReduce(buffer, buffer.length);
+
+        position = 0;
+        for (int layer = 0; layer < gradient.dWeights.length; layer ++)
+        {
+            position = take(gradient.dWeights[layer].getData(), position);
+            position = take(gradient.dBiases[layer], position);
+        }
+        gradient.count = (int) Math.round(buffer[position]);
+
+        net.applyGradient(gradient);
+        gradient.clear();
+    }
+
+    private void averageWeights()
+    {
+        syncWeights(1.0 / ring.getNumProcesses(), true);
+    }
+
+    // every process but the first sends zeros, so the sum is the first's weights
+    private void copyWeightsOfFirstProcess()
+    {
+        syncWeights(1, ring.getRank() == 0);
+    }
+
+    private void syncWeights(double scale, boolean send)
+    {
+        Layer[] layers = net.getLayers();
+
+        // the weights and biases without the gradient count
+        int length = buffer.length - 1;
+
+        if (send)
+        {
+            int position = 0;
+            for (int layer = 0; layer < layers.length; layer ++)
+            {
+                layers[layer].copyTo(weights[layer], biases[layer]);
+
+                position = put(weights[layer].getData(), position);
+                position = put(biases[layer], position);
+            }
+        }
+        else
+        {
+            Arrays.fill(buffer, 0, length, 0);
+        }
+
+        ring.allReduce(buffer, length);
+
+        int position = 0;
+        for (int layer = 0; layer < layers.length; layer ++)
+        {
+            position = take(weights[layer].getData(), position);
+            position = take(biases[layer], position);
+
+            if (scale != 1)
+            {
+                double[] data = weights[layer].getData();
+                for (int i = 0; i < data.length; i++) data[i] *= scale;
+                for (int i = 0; i < biases[layer].length; i++) biases[layer][i] *= scale;
+            }
+
+            layers[layer].copyFrom(weights[layer], biases[layer]);
+        }
+    }
+
+    private int put(double[] values, int position)
+    {
+        System.arraycopy(values, 0, buffer, position, values.length);
+        return position + values.length;
+    }
+
+    private int take(double[] values, int position)
+    {
+        System.arraycopy(buffer, position, values, 0, values.length);
+        return position + values.length;
+    }
+
+    /**
+     * one line of key=value pairs: rank, processes, examples, throughput of this process, syncs, the share of the time
+     * spent syncing and the bytes sent per example
+     */
+    public String getStatsLine()
+    {
+        double seconds = nanos / 1e9;
+
+        return String.format("rank=%d processes=%d examples=%d samples/s=%.0f syncs=%d sync_time=%.1f%% bytes/example=%.0f",
+            ring.getRank(), ring.getNumProcesses(), numExamples, seconds == 0 ? 0 : numExamples / seconds, ring.getNumAllReduces(),
+            nanos == 0 ? 0 : 100.0 * ring.getNanos() / nanos, numExamples == 0 ? 0 : (double) ring.getBytesSent() / numExamples);
+    }
+
+    public NeuralNetwork getNetwork()
+    {
+        return net;
+    }
+
+    public int getSyncInterval()
+    {
+        return syncInterval;
+    }
+
+    public long getNumExamples()
+    {
+        return numExamples;
+    }
+
+    /**
+     * @return the time spent in train, in nanoseconds
+     */
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    /**
+     * runs one process of a distributed run on the loopback address, App launches these for its scaling report
+     * the network starts from networkFile, process 0 saves the result to outFile and each process prints its stats line
+     *
+     * arguments: imageFile lableFile networkFile outFile rank numProcesses basePort numExamples syncInterval batchSize stepSize
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 11)
+        {
+            throw new IllegalArgumentException("expected imageFile lableFile networkFile outFile rank numProcesses basePort numExamples"
+                + " syncInterval batchSize stepSize");
+        }
+
+        int rank = Integer.parseInt(args[4]);
+        int numProcesses = Integer.parseInt(args[5]);
+
+        ImageDataset data = new DatasetShard(new MNISTImageReader(new File(args[0]), new File(args[1])), rank, numProcesses);
+
+        NeuralNetwork net = new NeuralNetwork(new File(args[2]));
+        net.setBatchSize(Integer.parseInt(args[9]));
+
+        if (net.getNumSteps() == 0)
+        {
+            net.setOptimizer(new RMSPropOptimizer());
+        }
+        net.setStepSize(Double.parseDouble(args[10]));
+
+        try (RingAllReduce ring = new RingAllReduce(rank, RingAllReduce.localAddresses(numProcesses, Integer.parseInt(args[6])), 30000);
+             DataLoader loader = new DataLoader(data, net.getBatchSize(), 1, 8, rank, true))
+        {
+            DistributedTrainer trainer = new DistributedTrainer(net, ring, Integer.parseInt(args[8]));
+            trainer.train(loader, Long.parseLong(args[7]));
+
+            if (rank == 0)
+            {
+                net.saveToFile(new File(args[3]));
+            }
+
+            System.out.println(trainer.getStatsLine());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * how well a network did on a labelled dataset: accuracy, a confusion matrix, per-class precision and recall,
+ * and the misclassified examples the network was most confident about
+ */
+public class EvaluationResult {
+
+    // confusion[actual][predicted] is the number of examples of class actual that were guessed as predicted
+    private final long[][] confusion;
+
+    private final int[] misclassified;
+    private final double[] misclassifiedMargins;
+
+    EvaluationResult(long[][] inConfusion, int[] inMisclassified, double[] inMisclassifiedMargins)
+    {
+        confusion = inConfusion;
+        misclassified = inMisclassified;
+        misclassifiedMargins = inMisclassifiedMargins;
+    }
+
+    public int getNumClasses()
+    {
+        return confusion.length;
+    }
+
+    public long getNumExamples()
+    {
+        long total = 0;
+        for (long[] row : confusion) for (long count : row) total += count;
+        return total;
+    }
+
+    public long getNumCorrect()
+    {
+        long correct = 0;
+        for (int c = 0; c < confusion.length; c++) correct += confusion[c][c];
+        return correct;
+    }
+
+    /**
+     * @return the fraction of examples guessed right, between 0 and 1
+     */
+    public double getAccuracy()
+    {
+        long total = getNumExamples();
+        return total == 0 ? 0 : (double) getNumCorrect() / total;
+    }
+
+    /**
+     * @return the fraction of guesses of the class that were right, 0 if the class was never guessed
+     */
+    public double getPrecision(int c)
+    {
+        long guessed = 0;
+        for (long[] row : confusion) guessed += row[c];
+        return guessed == 0 ? 0 : (double) confusion[c][c] / guessed;
+    }
+
+    /**
+     * @return the fraction of examples of the class that were guessed right, 0 if the class never came up
+     */
+    public double getRecall(int c)
+    {
+        long actual = 0;
+        for (long count : confusion[c]) actual += count;
+        return actual == 0 ? 0 : (double) confusion[c][c] / actual;
+    }
+
+    /**
+     * @return a copy of the confusion matrix, indexed [actual][predicted]
+     */
+    public long[][] getConfusionMatrix()
+    {
+        long[][] copy = new long[confusion.length][];
+        for (int c = 0; c < confusion.length; c++) copy[c] = confusion[c].clone();
+        return copy;
+    }
+
+    /**
+     * @return the indices of the misclassified examples, most confidently wrong first
+     */
+    public int[] getMisclassified()
+    {
+        return misclassified.clone();
+    }
+
+    /**
+     * @return how far the guess of each of getMisclassified() was above the output for the right class
+     */
+    public double[] getMisclassifiedMargins()
+    {
+        return misclassifiedMargins.clone();
+    }
+
+    /**
+     * @return a multi-line report with the accuracy, precision and recall of every class, the confusion matrix and the worst mistakes
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder();
+
+        out.append(String.format("accuracy %.2f%% (%d / %d)%n", getAccuracy() * 100, getNumCorrect(), getNumExamples()));
+
+        out.append(String.format("class  precision  recall%n"));
+        for (int c = 0; c < confusion.length; c++)
+        {
+            out.append(String.format("%5d  %9.4f  %6.4f%n", c, getPrecision(c), getRecall(c)));
+        }
+
+        out.append(String.format("confusion matrix, rows are actual, columns are predicted%n"));
+        for (long[] row : confusion)
+        {
+            for (long count : row) out.append(String.format("%7d", count));
+            out.append(System.lineSeparator());
+        }
+
+        if (misclassified.length > 0)
+        {
+            out.append("most confident mistakes:");
+            for (int i = 0; i < misclassified.length; i++) out.append(' ').append(misclassified[i]);
+            out.append(System.lineSeparator());
+        }
+
+        return out.toString();
+    }
+}
@@ -0,0 +1,299 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * scores a network on a whole labelled dataset using a pool of worker threads
+ *
+ * the dataset is cut into batches that the workers take in turn, every batch is read straight from the dataset
+ * into the worker's own sparse batch, since most pixels are 0, and run through NeuralNetwork.evaluateBatch, so nothing is allocated per image
+ * each worker counts into its own confusion matrix and list of worst mistakes, which are merged at the end,
+ * so the result is the same whatever the number of threads
+ */
+public class Evaluator implements AutoCloseable {
+
+    private final NeuralNetwork net;
+    private final int numThreads;
+    private final int batchSize;
+
+    private final ExecutorService pool;
+
+    private final Worker[] workers;
+    private final List<Callable<Void>> tasks;
+
+    // set for the length of one evaluate call
+    private ImageDataset data;
+    private int numBatches;
+    private final AtomicInteger nextBatch = new AtomicInteger();
+
+    /**
+     * @param inNet is the network to score, it must not be trained while an evaluate is running
+     * @param inNumThreads is the number of worker threads
+     * @param inBatchSize is the number of images each worker evaluates at once
+     */
+    public Evaluator(NeuralNetwork inNet, int inNumThreads, int inBatchSize)
+    {
+        if (inNumThreads < 1 || inBatchSize < 1)
+        {
+            throw new IllegalArgumentException("number of threads and batch size must be positive");
+        }
+
+        net = inNet;
+        numThreads = inNumThreads;
+        batchSize = inBatchSize;
+
+        pool = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "evaluator-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        workers = new Worker[numThreads];
+        tasks = new ArrayList<>(numThreads);
+
+        for (int i = 0; i < numThreads; i++)
+        {
+            workers[i] = new Worker();
+            tasks.add(workers[i]);
+        }
+    }
+
+    /**
+     * evaluates every image of a dataset
+     * @param inData is the dataset, its lables must all be outputs of the network
+     * @param topK is the number of misclassified images to return, the ones the network was most sure of
+     * @return the accuracy, confusion matrix, precision and recall, and the worst mistakes
+     */
+    public synchronized EvaluationResult evaluate(ImageDataset inData, int topK)
+    {
+        int[] layerSizes = net.getLayerSizes();
+        int numClasses = layerSizes[layerSizes.length - 1];
+
+        if (layerSizes[0] != 784)
+        {
+            throw new IllegalArgumentException("network input must be the size of an image");
+        }
+
+        if (topK < 0)
+        {
+            throw new IllegalArgumentException("top k must not be negative");
+        }
+
+        data = inData;
+        numBatches = (data.getNumImages() + batchSize - 1) / batchSize;
+        nextBatch.set(0);
+
+        for (Worker worker : workers)
+        {
+            worker.reset(numClasses, topK);
+        }
+
+        try
+        {
+            for (Future<Void> result : pool.invokeAll(tasks))
+            {
+                result.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while evaluating", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("worker failed while evaluating", e.getCause());
+        }
+        finally
+        {
+            data = null;
+        }
+
+        // merge in worker order, the mistakes are sorted with ties broken by index so the order does not matter
+        long[][] confusion = new long[numClasses][numClasses];
+        Mistakes worst = new Mistakes(topK);
+
+        for (Worker worker : workers)
+        {
+            for (int actual = 0; actual < numClasses; actual++)
+            {
+                for (int predicted = 0; predicted < numClasses; predicted++)
+                {
+                    confusion[actual][predicted] += worker.confusion[actual][predicted];
+                }
+            }
+
+            for (int i = 0; i < worker.mistakes.size; i++)
+            {
+                worst.add(worker.mistakes.indices[i], worker.mistakes.margins[i]);
+            }
+        }
+
+        return new EvaluationResult(confusion, worst.getIndices(), worst.getMargins());
+    }
+
+    public NeuralNetwork getNetwork()
+    {
+        return net;
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+    }
+
+    // takes batches until there are none left, with its own buffers and counts
+    private class Worker implements Callable<Void>
+    {
+        // the last batch of a dataset is usually short, so it gets a workspace of its own instead of replacing the full one
+        private BatchWorkspace workspace;
+        private BatchWorkspace shortWorkspace;
+        private final SparseMatrix images = new SparseMatrix(784, batchSize, 0);
+
+        long[][] confusion;
+        Mistakes mistakes;
+
+        void reset(int numClasses, int topK)
+        {
+            if (confusion == null || confusion.length != numClasses)
+            {
+                confusion = new long[numClasses][numClasses];
+            }
+
+            for (long[] row : confusion) Arrays.fill(row, 0);
+
+            if (mistakes == null || mistakes.capacity() != topK)
+            {
+                mistakes = new Mistakes(topK);
+            }
+
+            mistakes.size = 0;
+        }
+
+        @Override
+        public Void call()
+        {
+            int numImages = data.getNumImages();
+            int numClasses = confusion.length;
+
+            int batch;
+            while ((batch = nextBatch.getAndIncrement()) < numBatches)
+            {
+                int start = batch * batchSize;
+                int rows = Math.min(batchSize, numImages - start);
+
+                if (rows == batchSize && workspace == null)
+                {
+                    workspace = new BatchWorkspace(net.getLayerSizes(), rows);
+                }
+                else if (rows != batchSize && (shortWorkspace == null || shortWorkspace.getBatchSize() != rows))
+                {
+                    shortWorkspace = new BatchWorkspace(net.getLayerSizes(), rows);
+                }
+
+                BatchWorkspace workspace = rows == batchSize ? this.workspace : shortWorkspace;
+
+                images.clear();
+                for (int row = 0; row < rows; row++)
+                {
+                    data.getImage(start + row, images);
+                }
+
+                double[] out = net.evaluateBatch(images, workspace).getData();
+
+                for (int row = 0; row < rows; row++)
+                {
+                    int offset = row * numClasses;
+                    int actual = data.getLable(start + row);
+
+                    if (actual >= numClasses)
+                    {
+                        throw new IllegalArgumentException("lable " + actual + " is not an output of the network");
+                    }
+
+                    int predicted = 0;
+                    for (int i = 1; i < numClasses; i++) if (out[offset + i] > out[offset + predicted]) predicted = i;
+
+                    confusion[actual][predicted]++;
+
+                    if (predicted != actual)
+                    {
+                        mistakes.add(start + row, out[offset + predicted] - out[offset + actual]);
+                    }
+                }
+            }
+
+            return null;
+        }
+    }
+
+    // the k mistakes with the largest margins, largest first, ties broken by the smaller index
+    private static class Mistakes
+    {
+        final int[] indices;
+        final double[] margins;
+        int size;
+
+        Mistakes(int capacity)
+        {
+            indices = new int[capacity];
+            margins = new double[capacity];
+        }
+
+        int capacity()
+        {
+            return indices.length;
+        }
+
+        // an insertion sort step, k is small so this is cheaper than a heap and allocates nothing
+        void add(int index, double margin)
+        {
+            int position = size;
+            while (position > 0 && worse(margin, index, margins[position - 1], indices[position - 1]))
+            {
+                position--;
+            }
+
+            if (position >= capacity())
+            {
+                return;
+            }
+
+            int last = Math.min(size, capacity() - 1);
+            System.arraycopy(indices, position, indices, position + 1, last - position);
+            System.arraycopy(margins, position, margins, position + 1, last - position);
+
+            indices[position] = index;
+            margins[position] = margin;
+            size = Math.min(size + 1, capacity());
+        }
+
+        private static boolean worse(double margin, int index, double otherMargin, int otherIndex)
+        {
+            return margin > otherMargin || (margin == otherMargin && index < otherIndex);
+        }
+
+        int[] getIndices()
+        {
+            return Arrays.copyOf(indices, size);
+        }
+
+        double[] getMargins()
+        {
+            return Arrays.copyOf(margins, size);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * a single precision version of Layer, weights, activations and gradients are all floats
+ */
+public class FloatLayer {
+
+    // the activation is a leaky ReLU, this is its slope below 0
+    private static final float LEAK = 0.05f;
+
+    // state of the last evaluate and dTrain, reused so training one example at a time does not allocate
+    private float[] input;
+    private float[] output;
+    private float[] valueAfterBiases;
+    private float[] dValueAfterBiases;
+    private float[] dIn;
+
+    // row-major, one row per output
+    private FloatMatrix weights;
+    private float[] biases;
+
+    private FloatMatrix dWeights;
+    private float[] dBiases;
+
+    int numInBatch;
+
+    // setup with values
+    public FloatLayer(float[][] inWeights, float[] inBiases)
+    {
+        if (inWeights.length != inBiases.length)
+        {
+            throw new IllegalArgumentException("weight and biases lengths do not match");
+        }
+
+        input = new float[inWeights[0].length];
+        output = new float[inBiases.length];
+        valueAfterBiases = new float[inBiases.length];
+        dValueAfterBiases = new float[inBiases.length];
+        dIn = new float[inWeights[0].length];
+
+        weights = new FloatMatrix(inWeights);
+        biases = inBiases.clone();
+
+        dWeights = new FloatMatrix(inWeights.length, inWeights[0].length);
+        dBiases = new float[inBiases.length];
+
+        numInBatch = 0;
+    }
+
+    // setup with values, the matrix and biases are used directly instead of copied
+    public FloatLayer(FloatMatrix inWeights, float[] inBiases)
+    {
+        if (inWeights.getRows() != inBiases.length)
+        {
+            throw new IllegalArgumentException("weight and biases lengths do not match");
+        }
+
+        int outSize = inWeights.getRows();
+        int inSize = inWeights.getCols();
+
+        input = new float[inSize];
+        output = new float[outSize];
+        valueAfterBiases = new float[outSize];
+        dValueAfterBiases = new float[outSize];
+        dIn = new float[inSize];
+
+        weights = inWeights;
+        biases = inBiases;
+
+        dWeights = new FloatMatrix(outSize, inSize);
+        dBiases = new float[outSize];
+
+        numInBatch = 0;
+    }
+
+    // rounds the weights and biases of a double precision layer
+    public FloatLayer(Layer layer)
+    {
+        Matrix inWeights = layer.getWeightMatrix();
+        double[] inBiases = layer.getBiases();
+
+        int outSize = inWeights.getRows();
+        int inSize = inWeights.getCols();
+
+        input = new float[inSize];
+        output = new float[outSize];
+        valueAfterBiases = new float[outSize];
+        dValueAfterBiases = new float[outSize];
+        dIn = new float[inSize];
+
+        weights = new FloatMatrix(outSize, inSize);
+        biases = new float[outSize];
+
+        double[] inWeightData = inWeights.getData();
+        float[] weightData = weights.getData();
+
+        for (int i = 0; i < weightData.length; i++) weightData[i] = (float) inWeightData[i];
+        for (int i = 0; i < outSize; i++) biases[i] = (float) inBiases[i];
+
+        dWeights = new FloatMatrix(outSize, inSize);
+        dBiases = new float[outSize];
+
+        numInBatch = 0;
+    }
+
+    // randomizes values
+    public FloatLayer(int inSize, int outSize)
+    {
+        input = new float[inSize];
+        output = new float[outSize];
+        valueAfterBiases = new float[outSize];
+        dValueAfterBiases = new float[outSize];
+        dIn = new float[inSize];
+
+        weights = new FloatMatrix(outSize, inSize);
+        biases = new float[outSize];
+
+        for (int row = 0; row < outSize; row ++)
+        {
+            for (int col = 0; col < inSize; col ++)
+            {
+                weights.set(row, col, getRandomWeight());
+            }
+        }
+
+        for (int row = 0; row < outSize; row ++)
+        {
+            biases[row] = getRandomBias();
+        }
+
+        dWeights = new FloatMatrix(outSize, inSize);
+        dBiases = new float[outSize];
+
+        numInBatch = 0;
+    }
+
+    /**
+     * evaluates a given input by multiplying weights, adding biases, and an activation function
+     * @param in
+     * @return the evaluation, the array belongs to the layer and is overwritten by the next evaluate
+     */
+    public float[] evaluate(float[] in)
+    {
+        if (in.length != weights.getCols())
+        {
+            throw new IllegalArgumentException("evaluate input length must match layer input length");
+        }
+
+        input = in;
+        LinearAlgebra.dot(weights, in, valueAfterBiases);
+        LinearAlgebra.addBiasLeakyRelu(valueAfterBiases, 0, biases, output, 0, LEAK);
+
+        return output;
+    }
+
+    /**
+     * evaluates a given input without reading or writing any state besides the weights and biases
+     * @param in is the input
+     * @param out receives the evaluation, its length must match the layer output length
+     */
+    public void evaluate(float[] in, float[] out)
+    {
+        if (in.length != weights.getCols())
+        {
+            throw new IllegalArgumentException("evaluate input length must match layer input length");
+        }
+
+        LinearAlgebra.dot(weights, in, out);
+        LinearAlgebra.addBiasLeakyRelu(out, 0, biases, out, 0, LEAK);
+    }
+
+    /**
+     * dTrain updates the layer along the derivative of the output
+     * @param dOut the derivative of the output of the layer with respect to the output of the network
+     * @return the derivate of the input of the layer with respect to the output of the netword, overwritten by the next dTrain
+     */
+    public float[] dTrain(float[] dOut)
+    {
+        if(dOut.length != biases.length)
+        {
+            throw new IllegalArgumentException("dTrain input length must match layer output length");
+        }
+
+        System.arraycopy(dOut, 0, dValueAfterBiases, 0, dOut.length);
+
+        // derivative with respect to valueAfterBiases
+        LinearAlgebra.multiplyLeakyReluDerivative(valueAfterBiases, 0, dValueAfterBiases, 0, output.length, LEAK);
+
+        // calculate dWeights
+        LinearAlgebra.addOuterProduct(dWeights, dValueAfterBiases, input);
+
+        // calculate dBiases
+        LinearAlgebra.axpy(1, dValueAfterBiases, 0, dBiases, 0, output.length);
+
+        // calculate dIn
+        LinearAlgebra.dotTranspose(weights, dValueAfterBiases, dIn);
+
+        numInBatch++;
+
+        return dIn;
+    }
+
+    /**
+     * evaluates a batch of inputs at once, one input per row
+     * @param in is the batch of inputs
+     * @param valueAfterBiasesOut receives the values before the activation function
+     * @param out receives the evaluations
+     */
+    public void evaluateBatch(FloatMatrix in, FloatMatrix valueAfterBiasesOut, FloatMatrix out)
+    {
+        if (in.getCols() != weights.getCols())
+        {
+            throw new IllegalArgumentException("evaluate input length must match layer input length");
+        }
+
+        LinearAlgebra.multiplyTransposeB(in, weights, valueAfterBiasesOut);
+
+        float[] values = valueAfterBiasesOut.getData();
+        float[] outData = out.getData();
+
+        for (int row = 0; row < in.getRows(); row++)
+        {
+            int offset = row * biases.length;
+            LinearAlgebra.addBiasLeakyRelu(values, offset, biases, outData, offset, LEAK);
+        }
+    }
+
+    /**
+     * dTrainBatch updates the layer along the derivative of a whole batch, the same as calling dTrain on every row
+     * @param in is the batch of inputs that was evaluated
+     * @param valueAfterBiases is the matching output of evaluateBatch
+     * @param dOut is the derivative of each output, it is overwritten with the derivative of the values after biases
+     * @param dIn receives the derivative of each input, can be null if not needed
+     */
+    public void dTrainBatch(FloatMatrix in, FloatMatrix valueAfterBiases, FloatMatrix dOut, FloatMatrix dIn)
+    {
+        if (dOut.getCols() != biases.length)
+        {
+            throw new IllegalArgumentException("dTrain input length must match layer output length");
+        }
+
+        float[] values = valueAfterBiases.getData();
+        float[] delta = dOut.getData();
+
+        for (int row = 0; row < dOut.getRows(); row++)
+        {
+            int offset = row * biases.length;
+            LinearAlgebra.multiplyLeakyReluDerivative(values, offset, delta, offset, biases.length, LEAK);
+
+            // calculate dBiases
+            LinearAlgebra.axpy(1, delta, offset, dBiases, 0, biases.length);
+        }
+
+        // calculate dWeights
+        LinearAlgebra.addTransposeAMultiply(dOut, in, dWeights);
+
+        // calculate dIn
+        if (dIn != null)
+        {
+            LinearAlgebra.multiply(dOut, weights, dIn);
+        }
+
+        numInBatch += dOut.getRows();
+    }
+
+    public void applyGradient(float stepSize)
+    {
+        // nothing was accumulated, dividing by the count would make every weight NaN
+        if (numInBatch == 0)
+        {
+            return;
+        }
+
+        float[] weightData = weights.getData();
+        float[] dWeightData = dWeights.getData();
+
+        // apply to weights
+        for (int i = 0; i < weightData.length; i ++)
+        {
+            weightData[i] += -dWeightData[i] / numInBatch * stepSize;
+        }
+
+        // apply to biases
+        for (int i = 0; i < biases.length; i ++)
+        {
+            biases[i] += -dBiases[i] / numInBatch * stepSize;
+        }
+
+        dWeights.fill(0);
+        for (int i = 0; i < dBiases.length; i ++) dBiases[i] = 0;
+
+        numInBatch = 0;
+    }
+
+    private float getRandomWeight()
+    {
+        return (float) (Math.random() * 2 - 1);
+    }
+
+    private float getRandomBias()
+    {
+        return (float) (Math.random() * 2 - 1);
+    }
+
+    /**
+     * the matrix is shared with the layer, not copied
+     * @return the row-major weight matrix
+     */
+    public FloatMatrix getWeightMatrix()
+    {
+        return weights;
+    }
+
+    public float[][] getWeights()
+    {
+        return weights.toArray();
+    }
+
+    public float[] getBiases()
+    {
+        return biases.clone();
+    }
+}
@@ -0,0 +1,322 @@
+import java.io.*;
+
+/**
+ * a single precision version of NeuralNetwork
+ * half the memory and memory bandwidth of the double network, which is plenty of precision for MNIST sized models
+ *
+ * saves and loads through the current NetworkFile format, version 2, with a single precision dtype,
+ * double precision files are read too and rounded to floats
+ */
+public class FloatNeuralNetwork {
+
+    private int numLayers;
+    private int[] layerSizes;
+
+    private FloatLayer[] layers;
+
+    // training vars
+    private int batchSize;
+    private float stepSize;
+
+    private int numInBatch;
+
+    // derivative of the cost for train, reused between calls
+    private float[] dCost;
+
+    // batch matrices, remade when the batch size changes
+    private FloatMatrix[] batchActivations;
+    private FloatMatrix[] batchValuesAfterBiases;
+    private FloatMatrix[] batchDerivatives;
+
+    public FloatNeuralNetwork(File inFile)
+    {
+        setUpFromFile(inFile);
+
+        // setup training vars
+        batchSize = 1;
+        stepSize = 0.02f;
+        numInBatch = 0;
+    }
+
+    // rounds a double precision network
+    public FloatNeuralNetwork(NeuralNetwork net)
+    {
+        setUpFromNetwork(net);
+
+        batchSize = net.getBatchSize();
+        stepSize = (float) net.getStepSize();
+        numInBatch = 0;
+    }
+
+    public FloatNeuralNetwork(int[] inLayerSizes, File inFile)
+    {
+        numLayers = inLayerSizes.length - 1;
+
+        layerSizes = inLayerSizes.clone();
+
+        layers = new FloatLayer[numLayers];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            layers[layer] = new FloatLayer(layerSizes[layer], layerSizes[layer + 1]);
+        }
+
+        saveToFile(inFile);
+
+        // setup training vars
+        batchSize = 1;
+        stepSize = 0.02f;
+        numInBatch = 0;
+    }
+
+    /**
+     * loads a network saved in any format NetworkFile reads, double precision files are rounded
+     * @throws UncheckedIOException if the file cannot be read or is corrupt
+     */
+    private void setUpFromFile(File saveFile)
+    {
+        NetworkFile file;
+        try
+        {
+            file = NetworkFile.read(saveFile);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("could not load network from " + saveFile, e);
+        }
+
+        numLayers = file.getNumLayers();
+        layerSizes = file.getLayerSizes().clone();
+
+        layers = new FloatLayer[numLayers];
+
+        for (int layer = 0; layer < numLayers; layer++)
+        {
+            FloatMatrix weights = new FloatMatrix(layerSizes[layer + 1], layerSizes[layer], file.getWeightsAsFloats(layer));
+
+            layers[layer] = new FloatLayer(weights, file.getBiasesAsFloats(layer));
+        }
+    }
+
+    private void setUpFromNetwork(NeuralNetwork net)
+    {
+        numLayers = net.getNumLayers();
+        layerSizes = net.getLayerSizes().clone();
+
+        layers = new FloatLayer[numLayers];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            layers[layer] = new FloatLayer(net.getLayers()[layer]);
+        }
+    }
+
+    /**
+     * saves the network in the current NetworkFile format with single precision
+     * @throws UncheckedIOException if the file cannot be written
+     */
+    public void saveToFile(File saveFile)
+    {
+        FloatMatrix[] weights = new FloatMatrix[numLayers];
+        float[][] biases = new float[numLayers][];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            weights[layer] = layers[layer].getWeightMatrix();
+            biases[layer] = layers[layer].getBiases();
+        }
+
+        try
+        {
+            NetworkFile.write(saveFile, layerSizes, weights, biases);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("could not save network to " + saveFile, e);
+        }
+    }
+
+    /**
+     * evaluates a given input to the neural network
+     *
+     * @param in
+     * @return the evaluation of the network, the array is reused by the next evaluate
+     */
+    public float[] evaluate(float[] in)
+    {
+        float[] out = in;
+
+        for (FloatLayer layer : layers)
+        {
+            out = layer.evaluate(out);
+        }
+
+        return out;
+    }
+
+    /**
+     * train uses a general cost fuction to update the network to match a given input to a given output
+     *
+     * @param in is the the given input to the neural network
+     * @param target is the target output of the neural network
+     * @return the derivative of the fuction with respect to the input of the network
+     */
+    public float[] train(float[] in, float[] target)
+    {
+        if (in.length != layerSizes[0])
+        {
+            throw new IllegalArgumentException("in length must match in length of the first layer of the network");
+        }
+
+        if (target.length != layerSizes[numLayers])
+        {
+            throw new IllegalArgumentException("out length must match out length of the last layer in the netword");
+        }
+
+        float[] netOut = evaluate(in);
+
+        if (dCost == null)
+        {
+            dCost = new float[layerSizes[numLayers]];
+        }
+
+        for (int i = 0; i < netOut.length; i ++)
+        {
+            dCost[i] = 2 * (netOut[i] - target[i]);
+        }
+
+        return dTrain(dCost);
+    }
+
+    /**
+     * Must have a called evaluate previously
+     * @param dOut is the derivative of the output of the network (mostly used with the cost function)
+     * @return the derivative with respect to the input of the last call to evaluate
+     */
+    public float[] dTrain(float[] dOut)
+    {
+        for (int layer = numLayers - 1; layer >= 0; layer --)
+        {
+            dOut = layers[layer].dTrain(dOut);
+        }
+
+        if (++numInBatch >= batchSize)
+        {
+            for (FloatLayer layer : layers)
+            {
+                layer.applyGradient(stepSize);
+            }
+
+            numInBatch = 0;
+        }
+
+        return dOut;
+    }
+
+    /**
+     * trainBatch trains on a whole mini-batch at once using matrix-matrix products and then applies the gradient
+     *
+     * @param inputs is one input to the network per row
+     * @param targets is the target output for each input
+     */
+    public void trainBatch(FloatMatrix inputs, FloatMatrix targets)
+    {
+        if (inputs.getCols() != layerSizes[0])
+        {
+            throw new IllegalArgumentException("in length must match in length of the first layer of the network");
+        }
+
+        if (targets.getCols() != layerSizes[numLayers] || targets.getRows() != inputs.getRows())
+        {
+            throw new IllegalArgumentException("out length must match out length of the last layer in the netword");
+        }
+
+        if (inputs.getRows() < 1)
+        {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+
+        int rows = inputs.getRows();
+
+        if (batchActivations == null || batchActivations[numLayers].getRows() != rows)
+        {
+            batchActivations = new FloatMatrix[numLayers + 1];
+            batchValuesAfterBiases = new FloatMatrix[numLayers + 1];
+            batchDerivatives = new FloatMatrix[numLayers + 1];
+
+            for (int layer = 1; layer <= numLayers; layer ++)
+            {
+                batchActivations[layer] = new FloatMatrix(rows, layerSizes[layer]);
+                batchValuesAfterBiases[layer] = new FloatMatrix(rows, layerSizes[layer]);
+                batchDerivatives[layer] = new FloatMatrix(rows, layerSizes[layer]);
+            }
+        }
+
+        // forward
+        FloatMatrix out = inputs;
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            layers[layer].evaluateBatch(out, batchValuesAfterBiases[layer + 1], batchActivations[layer + 1]);
+            out = batchActivations[layer + 1];
+        }
+
+        // derivative of the cost
+        float[] netOut = out.getData();
+        float[] target = targets.getData();
+        float[] dCost = batchDerivatives[numLayers].getData();
+
+        for (int i = 0; i < dCost.length; i ++)
+        {
+            dCost[i] = 2 * (netOut[i] - target[i]);
+        }
+
+        // backward
+        for (int layer = numLayers - 1; layer >= 0; layer --)
+        {
+            FloatMatrix in = layer == 0 ? inputs : batchActivations[layer];
+            layers[layer].dTrainBatch(in, batchValuesAfterBiases[layer + 1], batchDerivatives[layer + 1], batchDerivatives[layer]);
+        }
+
+        for (FloatLayer layer : layers)
+        {
+            layer.applyGradient(stepSize);
+        }
+
+        numInBatch = 0;
+    }
+
+    public void setBatchSize(int inBatchSize)
+    {
+        batchSize = inBatchSize;
+    }
+
+    public void setStepSize(float inStepSize)
+    {
+        stepSize = inStepSize;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public float getStepSize()
+    {
+        return stepSize;
+    }
+
+    public FloatLayer[] getLayers()
+    {
+        return layers;
+    }
+
+    public int[] getLayerSizes()
+    {
+        return layerSizes;
+    }
+
+    public int getNumLayers()
+    {
+        return numLayers;
+    }
+}
@@ -0,0 +1,312 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * trains a network with Hogwild, asynchronous gradient descent with no locks
+ *
+ * each worker thread takes whole batches, runs them forward and backward in its own workspace and steps the shared
+ * weights straight away with NeuralNetwork.applyGradientUnlocked, never waiting for the other workers
+ * a worker can read weights another is halfway through stepping and an update can be lost when two collide,
+ * so unlike ParallelTrainer the result changes from run to run, in exchange there is no barrier per batch
+ * with sparse batches only the first layer weights of pixels lit somewhere in the batch are cleared and stepped,
+ * so workers on different batches mostly step different weights
+ *
+ * the calling thread takes batches from the DataLoader and copies them into buffers the workers pick up,
+ * since a loader batch is recycled as soon as the next one is taken
+ */
+public class HogwildTrainer implements AutoCloseable {
+
+    // handed to each worker once the last batch is queued
+    private static final Work STOP = new Work();
+
+    private final NeuralNetwork net;
+    private final int numThreads;
+    private final boolean sparse;
+
+    private final ExecutorService pool;
+
+    private final Worker[] workers;
+
+    // copied batches wait in ready for a worker, then go back to free
+    private final BlockingQueue<Work> ready = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Work> free = new LinkedBlockingQueue<>();
+
+    /**
+     * @param inNet is the network to train, nothing else may train it while train is running
+     * @param inNumThreads is the number of worker threads
+     * @param inSparse is true to train on the sparse copy of every batch, see NeuralNetwork.trainBatch(SparseMatrix, Matrix)
+     */
+    public HogwildTrainer(NeuralNetwork inNet, int inNumThreads, boolean inSparse)
+    {
+        if (inNumThreads < 1)
+        {
+            throw new IllegalArgumentException("number of threads must be positive");
+        }
+
+        net = inNet;
+        numThreads = inNumThreads;
+        sparse = inSparse;
+
+        pool = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "hogwild-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        workers = new Worker[numThreads];
+
+        for (int i = 0; i < numThreads; i++)
+        {
+            workers[i] = new Worker();
+        }
+
+        // two buffers per worker so the next batch is copied while the last is trained on
+        for (int i = 0; i < 2 * numThreads; i++)
+        {
+            free.add(new Work());
+        }
+    }
+
+    /**
+     * trains on batches from a loader until at least numExamples examples have been used, returning once every worker is done
+     * @param loader is where the batches come from, only the calling thread takes from it,
+     * it must fill the sparse or dense inputs this trainer was made to train on
+     * @param numExamples is the number of examples to train on, rounded up to whole batches
+     */
+    public void train(DataLoader loader, long numExamples)
+    {
+        if (sparse ? !loader.hasSparseInputs() : !loader.hasDenseInputs())
+        {
+            throw new IllegalArgumentException("loader must fill the " + (sparse ? "sparse" : "dense") + " inputs this trainer trains on");
+        }
+
+        net.prepareUnlockedTraining();
+
+        List<Future<Void>> results = new ArrayList<>(numThreads);
+        for (Worker worker : workers)
+        {
+            results.add(pool.submit(worker));
+        }
+
+        try
+        {
+            long currentExample = 0;
+
+            while (currentExample < numExamples)
+            {
+                DataBatch batch = loader.next();
+
+                Work work;
+                while ((work = free.poll(100, TimeUnit.MILLISECONDS)) == null)
+                {
+                    checkWorkers(results);
+                }
+
+                work.copyFrom(batch, sparse);
+                ready.add(work);
+
+                currentExample += batch.getSize();
+            }
+
+            for (int i = 0; i < numThreads; i++)
+            {
+                ready.add(STOP);
+            }
+
+            for (Future<Void> result : results)
+            {
+                result.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while training", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("worker failed while training", e.getCause());
+        }
+        finally
+        {
+            // a failed run leaves the other workers waiting, this frees them and leaves the queues ready for the next run
+            for (Future<Void> result : results)
+            {
+                result.cancel(true);
+            }
+
+            for (Work work; (work = ready.poll()) != null; )
+            {
+                if (work != STOP) free.add(work);
+            }
+        }
+    }
+
+    // rethrows the failure of a worker that has stopped early
+    private static void checkWorkers(List<Future<Void>> results) throws InterruptedException, ExecutionException
+    {
+        for (Future<Void> result : results)
+        {
+            if (result.isDone())
+            {
+                result.get();
+                throw new IllegalStateException("worker stopped before training finished");
+            }
+        }
+    }
+
+    public NeuralNetwork getNetwork()
+    {
+        return net;
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    @Override
+    public void close()
+    {
+        pool.shutdownNow();
+    }
+
+    // one batch copied out of the loader, the arrays are made on the first copy and reused after
+    private static class Work
+    {
+        Matrix inputs;
+        SparseMatrix sparseInputs;
+        Matrix targets;
+
+        void copyFrom(DataBatch batch, boolean sparse)
+        {
+            int rows = batch.getSize();
+
+            if (targets == null || targets.getRows() != rows)
+            {
+                targets = new Matrix(rows, batch.getTargets().getCols());
+                inputs = null;
+            }
+
+            targets.copyFrom(batch.getTargets());
+
+            if (sparse)
+            {
+                if (sparseInputs == null)
+                {
+                    sparseInputs = new SparseMatrix(batch.getSparseInputs().getCols(), rows, 0);
+                }
+
+                sparseInputs.setRows(batch.getSparseInputs(), 0, rows);
+            }
+            else
+            {
+                if (inputs == null)
+                {
+                    inputs = new Matrix(rows, batch.getInputs().getCols());
+                }
+
+                inputs.copyFrom(batch.getInputs());
+            }
+        }
+    }
+
+    // trains on batches as they come with its own activations and gradient until it is handed STOP
+    private class Worker implements Callable<Void>
+    {
+        private final NetworkGradient gradient = new NetworkGradient(net.getLayerSizes());
+
+        private BatchWorkspace workspace;
+
+        // the first layer weights of the pixels lit in a sparse batch, as pairs of start and end indices
+        private final boolean[] lit = new boolean[net.getLayerSizes()[0]];
+        private int[] ranges = new int[0];
+        private int numRanges;
+
+        @Override
+        public Void call() throws InterruptedException
+        {
+            Work work;
+            while ((work = ready.take()) != STOP)
+            {
+                train(work);
+                free.add(work);
+            }
+
+            return null;
+        }
+
+        private void train(Work work)
+        {
+            int rows = work.targets.getRows();
+
+            if (workspace == null || workspace.getBatchSize() != rows)
+            {
+                workspace = new BatchWorkspace(net.getLayerSizes(), rows);
+            }
+
+            if (sparse)
+            {
+                findRanges(work.sparseInputs);
+
+                net.computeGradient(work.sparseInputs, work.targets, workspace, gradient);
+                net.applyGradientUnlocked(gradient, ranges, numRanges);
+
+                // nothing outside the ranges was written, so only they need clearing
+                gradient.clear(ranges, numRanges);
+            }
+            else
+            {
+                net.computeGradient(work.inputs, work.targets, workspace, gradient);
+                net.applyGradientUnlocked(gradient, null, 0);
+
+                gradient.clear();
+            }
+        }
+
+        // every run of lit columns becomes one range in each row of the first layer's weights
+        private void findRanges(SparseMatrix inputs)
+        {
+            int cols = lit.length;
+            int rows = net.getLayerSizes()[1];
+
+            int[] indices = inputs.getIndices();
+            for (int p = 0; p < inputs.getNumNonzeros(); p++) lit[indices[p]] = true;
+
+            int numRuns = 0;
+            for (int col = 0; col < cols; col++)
+            {
+                if (lit[col] && (col == 0 || !lit[col - 1])) numRuns++;
+            }
+
+            if (ranges.length < 2 * numRuns * rows)
+            {
+                ranges = new int[2 * numRuns * rows];
+            }
+
+            int run = 0;
+            for (int col = 0; col < cols; )
+            {
+                if (!lit[col])
+                {
+                    col++;
+                    continue;
+                }
+
+                int runStart = col;
+                while (col < cols && lit[col]) lit[col++] = false;
+
+                for (int row = 0; row < rows; row++)
+                {
+                    ranges[2 * (row * numRuns + run)] = row * cols + runStart;
+                    ranges[2 * (row * numRuns + run) + 1] = row * cols + col;
+                }
+
+                run++;
+            }
+
+            numRanges = numRuns * rows;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * a labelled set of 784 pixel images with pixels scaled from 0-255 to 0-1
+ * every method only reads, so any number of threads can share one dataset
+ * MNISTImageReader decodes straight from the IDX files, DatasetCache reads a converted copy of them
+ */
+public interface ImageDataset {
+
+    int getNumImages();
+
+    int getLable(int num);
+
+    /**
+     * copies an image row by row
+     * @param num is the index of the image
+     * @param out receives the 784 pixels
+     * @param outOffset is where in out the image starts, so an image can be put straight into a batch row
+     */
+    void getImage(int num, double[] out, int outOffset);
+
+    /**
+     * same as getImage(int, double[], int) in single precision
+     */
+    void getImage(int num, float[] out, int outOffset);
+
+    /**
+     * adds an image as a new row of a sparse matrix, blank pixels are left out
+     * @param num is the index of the image
+     * @param out receives the row, its cols must be 784
+     */
+    void getImage(int num, SparseMatrix out);
+
+    default void getImage(int num, double[] out)
+    {
+        getImage(num, out, 0);
+    }
+
+    default void getImage(int num, float[] out)
+    {
+        getImage(num, out, 0);
+    }
+}
@@ -0,0 +1,488 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * serves a saved network over HTTP on the loopback address, grouping concurrent requests into micro-batches
+ *
+ *   POST /evaluate   the body is the input as numbers separated by commas or whitespace, the reply is the output the same way
+ *   GET  /stats      one line of key=value pairs: requests, throughput, p50 and p99 latency and the mean batch size
+ *   POST /reload     loads the network file again, for when a new checkpoint has been written over it
+ *
+ * every request waits on one batcher thread, which takes the first waiting request, then keeps taking more
+ * until it has maxBatchSize of them or maxWaitMicros has passed since the first, and runs them all through
+ * NeuralNetwork.evaluateBatch together, so under load the cost of the weights is shared by the whole batch
+ *
+ * requests are handled on virtual threads when the runtime has them and on a cached thread pool otherwise
+ * a reload swaps the network between batches, requests already queued are answered by the new network and none are dropped
+ */
+public class InferenceServer implements AutoCloseable {
+
+    private final File modelFile;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final Thread batcher;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    // replaced by reload, read once per batch
+    private volatile NeuralNetwork net;
+
+    // the workspace for each batch size, made the first time that size is seen, only used by the batcher thread
+    private BatchWorkspace[] workspaces;
+    private NeuralNetwork workspacesNet;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong numBatches = new AtomicLong();
+    private final AtomicLong numReloads = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    private volatile boolean closed;
+
+    /**
+     * loads the network and starts serving it
+     * @param inModelFile is the saved network, read again on every reload
+     * @param port is the loopback port to listen on, 0 picks a free one, see getPort
+     * @param inMaxBatchSize is the most requests evaluated together
+     * @param maxWaitMicros is the longest the first request of a batch waits for others to join it
+     * @throws UncheckedIOException if the network cannot be loaded or the port cannot be bound
+     */
+    public InferenceServer(File inModelFile, int port, int inMaxBatchSize, long maxWaitMicros)
+    {
+        if (inMaxBatchSize < 1 || maxWaitMicros < 0)
+        {
+            throw new IllegalArgumentException("max batch size must be positive and max wait must not be negative");
+        }
+
+        modelFile = inModelFile;
+        maxBatchSize = inMaxBatchSize;
+        maxWaitNanos = maxWaitMicros * 1000;
+
+        net = new NeuralNetwork(modelFile);
+
+        try
+        {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("could not listen on port " + port, e);
+        }
+
+        handlers = newHandlerExecutor();
+
+        server.setExecutor(handlers);
+        server.createContext("/evaluate", this::handleEvaluate);
+        server.createContext("/stats", this::handleStats);
+        server.createContext("/reload", this::handleReload);
+
+        batcher = new Thread(this::runBatcher, "inference-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+
+        server.start();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor only exists from Java 21, so it is looked up instead of called
+    private static ExecutorService newHandlerExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "inference-handler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * evaluates one input, waiting for the batch it joins, safe from any thread
+     * @param in is the input, its length must match the first layer
+     * @return the output of the network
+     */
+    public double[] evaluate(double[] in)
+    {
+        long start = System.nanoTime();
+
+        if (in.length != net.getLayerSizes()[0])
+        {
+            throw new IllegalArgumentException("in length must match in length of the first layer of the network");
+        }
+
+        Request request = new Request(in);
+
+        // close sets closed under the same lock, so every request added is seen by the batcher's last drain
+        synchronized (queue)
+        {
+            if (closed)
+            {
+                throw new IllegalStateException("server is closed");
+            }
+
+            queue.add(request);
+        }
+
+        double[] out;
+        try
+        {
+            out = request.result.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for an evaluation", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("evaluation failed", e.getCause());
+        }
+
+        latency.record(System.nanoTime() - start);
+
+        return out;
+    }
+
+    /**
+     * loads the network file again and serves the new network from the next batch on
+     * if the file cannot be loaded the old network keeps being served
+     * @throws UncheckedIOException if the file cannot be read or is corrupt
+     */
+    public synchronized void reload()
+    {
+        NeuralNetwork newNet = new NeuralNetwork(modelFile);
+        NeuralNetwork oldNet = net;
+
+        net = newNet;
+        numReloads.incrementAndGet();
+
+        // a batch still running on the old network only records into metrics nobody reports any more
+        Metrics.unregister(oldNet.getMetrics());
+    }
+
+    // runs until close, one batch per loop
+    private void runBatcher()
+    {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+
+        while (!closed)
+        {
+            try
+            {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (first == null)
+                {
+                    continue;
+                }
+
+                batch.add(first);
+
+                long deadline = first.arrivalNanos + maxWaitNanos;
+
+                while (batch.size() < maxBatchSize)
+                {
+                    // take whatever is already waiting without a timed wait
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0)
+                    {
+                        continue;
+                    }
+
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                    {
+                        break;
+                    }
+
+                    Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null)
+                    {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+
+                runBatch(batch);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+            catch (RuntimeException e)
+            {
+                for (Request request : batch) request.result.completeExceptionally(e);
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+
+        // answer anything left so no caller waits forever
+        Request request;
+        while ((request = queue.poll()) != null)
+        {
+            request.result.completeExceptionally(new IllegalStateException("server is closed"));
+        }
+    }
+
+    private void runBatch(List<Request> batch)
+    {
+        NeuralNetwork current = net;
+
+        int inSize = current.getLayerSizes()[0];
+        int outSize = current.getLayerSizes()[current.getNumLayers()];
+
+        // a request checked against a network reloaded with another input size cannot be run
+        List<Request> runnable = new ArrayList<>(batch.size());
+        for (Request request : batch)
+        {
+            if (request.in.length == inSize)
+            {
+                runnable.add(request);
+            }
+            else
+            {
+                request.result.completeExceptionally(new IllegalArgumentException("in length must match in length of the first layer of the network"));
+            }
+        }
+
+        int rows = runnable.size();
+        if (rows == 0)
+        {
+            return;
+        }
+
+        BatchWorkspace workspace = getWorkspace(current, rows);
+
+        double[] in = workspace.inputs.getData();
+        for (int row = 0; row < rows; row++)
+        {
+            System.arraycopy(runnable.get(row).in, 0, in, row * inSize, inSize);
+        }
+
+        double[] out = current.evaluateBatch(workspace.inputs, workspace).getData();
+
+        numBatches.incrementAndGet();
+
+        for (int row = 0; row < rows; row++)
+        {
+            double[] result = new double[outSize];
+            System.arraycopy(out, row * outSize, result, 0, outSize);
+            runnable.get(row).result.complete(result);
+        }
+    }
+
+    private BatchWorkspace getWorkspace(NeuralNetwork current, int rows)
+    {
+        // a reloaded network can have other layer sizes
+        if (workspacesNet != current)
+        {
+            workspaces = new BatchWorkspace[maxBatchSize + 1];
+            workspacesNet = current;
+        }
+
+        if (workspaces[rows] == null)
+        {
+            workspaces[rows] = new BatchWorkspace(current.getLayerSizes(), rows);
+        }
+
+        return workspaces[rows];
+    }
+
+    private void handleEvaluate(HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            if (!exchange.getRequestMethod().equals("POST"))
+            {
+                reply(exchange, 405, "use POST\n");
+                return;
+            }
+
+            double[] in;
+            try
+            {
+                in = parse(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            }
+            catch (NumberFormatException e)
+            {
+                reply(exchange, 400, "body must be numbers separated by commas or whitespace\n");
+                return;
+            }
+
+            double[] out;
+            try
+            {
+                out = evaluate(in);
+            }
+            catch (IllegalArgumentException e)
+            {
+                reply(exchange, 400, e.getMessage() + "\n");
+                return;
+            }
+            catch (IllegalStateException e)
+            {
+                reply(exchange, 503, e.getMessage() + "\n");
+                return;
+            }
+
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < out.length; i++)
+            {
+                if (i > 0) body.append(',');
+                body.append(out[i]);
+            }
+            body.append('\n');
+
+            reply(exchange, 200, body.toString());
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            reply(exchange, 200, getStatsLine() + "\n");
+        }
+    }
+
+    private void handleReload(HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            if (!exchange.getRequestMethod().equals("POST"))
+            {
+                reply(exchange, 405, "use POST\n");
+                return;
+            }
+
+            try
+            {
+                reload();
+            }
+            catch (UncheckedIOException e)
+            {
+                reply(exchange, 500, e.getMessage() + ", still serving the old network\n");
+                return;
+            }
+
+            reply(exchange, 200, "reloaded " + modelFile + "\n");
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static double[] parse(String body)
+    {
+        String trimmed = body.trim();
+
+        if (trimmed.isEmpty())
+        {
+            return new double[0];
+        }
+
+        String[] parts = trimmed.split("[,\\s]+");
+
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) values[i] = Double.parseDouble(parts[i]);
+        return values;
+    }
+
+    /**
+     * @return one line of key=value pairs, latencies are from a request arriving to its answer, throughput is since the server started
+     */
+    public String getStatsLine()
+    {
+        long requests = latency.getCount();
+        long batches = numBatches.get();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        return String.format("requests=%d throughputPerSec=%.1f p50Us=%.1f p99Us=%.1f meanUs=%.1f batches=%d meanBatchSize=%.2f reloads=%d",
+            requests, requests / seconds, latency.getPercentileMicros(50), latency.getPercentileMicros(99), latency.getMeanMicros(),
+            batches, batches == 0 ? 0 : (double) requests / batches, numReloads.get());
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    public NeuralNetwork getNetwork()
+    {
+        return net;
+    }
+
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    public long getNumBatches()
+    {
+        return numBatches.get();
+    }
+
+    /**
+     * stops listening, answers every waiting request with an error and stops the batcher
+     */
+    @Override
+    public void close()
+    {
+        synchronized (queue)
+        {
+            closed = true;
+        }
+
+        server.stop(0);
+
+        try
+        {
+            batcher.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        handlers.shutdown();
+
+        Metrics.unregister(net.getMetrics());
+    }
+
+    // one input waiting to be evaluated
+    private static class Request
+    {
+        final double[] in;
+        final long arrivalNanos = System.nanoTime();
+        final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+        Request(double[] input)
+        {
+            in = input;
+        }
+    }
+}
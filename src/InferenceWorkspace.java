@@ -0,0 +1,21 @@
+/**
+ * the scratch buffers for evaluating one input at a time through a network
+ * a workspace must only be used by one thread at a time, the network itself can be shared
+ */
+public class InferenceWorkspace {
+
+    // outputs[layer] is the output of that layer
+    final double[][] outputs;
+
+    public InferenceWorkspace(int[] layerSizes)
+    {
+        int numLayers = layerSizes.length - 1;
+
+        outputs = new double[numLayers][];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            outputs[layer] = new double[layerSizes[layer + 1]];
+        }
+    }
+}
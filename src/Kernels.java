@@ -0,0 +1,67 @@
+/**
+ * the innermost loops of LinearAlgebra and the layer activations
+ * kept behind an interface so a SIMD version can be picked at startup, see LinearAlgebra
+ */
+public interface Kernels {
+
+    /**
+     * @return the dot product of v1[off1..off1 + length) and v2[off2..off2 + length)
+     */
+    double dot(double[] v1, int off1, double[] v2, int off2, int length);
+
+    /**
+     * out[outOff + r] += dot of x[x0 + r * stride..] and v[vOff..] for r from 0 to 3
+     * four dot products against the same vector, so each element of v is loaded once
+     */
+    void dot4(double[] x, int x0, int stride, double[] v, int vOff, int length, double[] out, int outOff);
+
+    /**
+     * @return the sum of values[off + i] * v[indices[off + i]] for i from 0 to length, a dot product with a sparse row
+     */
+    double sparseDot(double[] values, int[] indices, int off, int length, double[] v);
+
+    /**
+     * y[yOff..] += alpha * x[xOff..]
+     */
+    void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int length);
+
+    /**
+     * y[yOff..] += a0 * x[x0..] + a1 * x[x0 + stride..] + a2 * x[x0 + 2 * stride..] + a3 * x[x0 + 3 * stride..]
+     * four axpys fused so y is only loaded and stored once
+     */
+    void axpy4(double a0, double a1, double a2, double a3, double[] x, int x0, int stride, double[] y, int yOff, int length);
+
+    /**
+     * out[outOff + i] = v1[off1 + i] + v2[off2 + i]
+     */
+    void add(double[] v1, int off1, double[] v2, int off2, double[] out, int outOff, int length);
+
+    /**
+     * values[off + i] += biases[i], then out[outOff + i] is the leaky ReLU of it
+     * values and out can be the same array
+     */
+    void addBiasLeakyRelu(double[] values, int off, double[] biases, double[] out, int outOff, int length, double slope);
+
+    /**
+     * delta[deltaOff + i] *= the derivative of the leaky ReLU at values[off + i]
+     */
+    void multiplyLeakyReluDerivative(double[] values, int off, double[] delta, int deltaOff, int length, double slope);
+
+    float dot(float[] v1, int off1, float[] v2, int off2, int length);
+
+    void dot4(float[] x, int x0, int stride, float[] v, int vOff, int length, float[] out, int outOff);
+
+    void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int length);
+
+    void axpy4(float a0, float a1, float a2, float a3, float[] x, int x0, int stride, float[] y, int yOff, int length);
+
+    void addBiasLeakyRelu(float[] values, int off, float[] biases, float[] out, int outOff, int length, float slope);
+
+    void multiplyLeakyReluDerivative(float[] values, int off, float[] delta, int deltaOff, int length, float slope);
+
+    // int8 versions for QuantizedNetwork, the products are summed exactly in int
+
+    int dot(byte[] v1, int off1, byte[] v2, int off2, int length);
+
+    void dot4(byte[] x, int x0, int stride, byte[] v, int vOff, int length, int[] out, int outOff);
+}
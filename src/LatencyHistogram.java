@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * counts durations in power of two buckets of nanoseconds
+ * recording is two atomic adds and an increment, so it is cheap enough to time every layer call, and safe from any thread
+ * percentiles are estimated from the buckets, so they are within a factor of two of the real value
+ */
+public class LatencyHistogram {
+
+    // bucket i holds durations in [2^(i - 1), 2^i) nanoseconds, bucket 0 holds 0
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+        {
+            nanos = 0;
+        }
+
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getTotalNanos()
+    {
+        return totalNanos.get();
+    }
+
+    public double getMeanMicros()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1000.0 / n;
+    }
+
+    /**
+     * @param percentile is between 0 and 100
+     * @return the middle of the bucket the percentile falls in, in microseconds, or 0 if nothing was recorded
+     */
+    public double getPercentileMicros(double percentile)
+    {
+        long[] counts = new long[buckets.length()];
+        long total = 0;
+
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile / 100 * total);
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+
+            if (seen >= Math.max(rank, 1))
+            {
+                // the geometric middle of [2^(i - 1), 2^i)
+                return i == 0 ? 0 : Math.pow(2, i - 0.5) / 1000;
+            }
+        }
+
+        return Math.pow(2, counts.length - 0.5) / 1000;
+    }
+}
@@ -1,15 +1,34 @@
+import java.util.Arrays;
+
 public class Layer {
 
+    // the activation is a leaky ReLU, this is its slope below 0
+    private static final double LEAK = 0.05;
+
+    private static final Optimizer SGD = new SGDOptimizer();
+
+    // state of the last evaluate and dTrain, reused so training one example at a time does not allocate
     private double[] input;
     private double[] output;
     private double[] valueAfterBiases;
+    private double[] dValueAfterBiases;
+    private double[] dIn;
 
-    private double[][] weights;
+    // row-major, one row per output
+    private Matrix weights;
     private double[] biases;
 
-    private double[][] dWeights;
+    private Matrix dWeights;
     private double[] dBiases;
 
+    // optimizer state next to the gradients, getStateSize() blocks the length of the weights and of the biases
+    // null until an optimizer that keeps state first steps the layer
+    private double[] weightState;
+    private double[] biasState;
+
+    // pruned[i] is true for a weight that was pruned, which stays 0 through later training, null until the layer is pruned
+    private boolean[] pruned;
+
     int numInBatch;
 
     // setup with values
@@ -23,44 +42,66 @@ public class Layer {
         input = new double[inWeights[0].length];
         output = new double[inBiases.length];
         valueAfterBiases = new double[inBiases.length];
+        dValueAfterBiases = new double[inBiases.length];
+        dIn = new double[inWeights[0].length];
 
-        weights = new double[inWeights.length][inWeights[0].length];
+        weights = new Matrix(inWeights);
         biases = new double[inBiases.length];
 
-        for (int row = 0; row < inWeights.length; row ++)
-        {
-            for (int col = 0; col < inWeights[row].length; col ++)
-            {
-                weights[row][col] = inWeights[row][col];
-            }
-        }
-
         for (int row = 0; row < inBiases.length; row ++)
         {
             biases[row] = inBiases[row];
         }
 
-        dWeights = new double[inWeights.length][inWeights[0].length];
+        dWeights = new Matrix(inWeights.length, inWeights[0].length);
         dBiases = new double[inBiases.length];
 
         numInBatch = 0;
     }
 
+    // setup with values, the matrix and biases are used directly instead of copied
+    public Layer(Matrix inWeights, double[] inBiases)
+    {
+        if (inWeights.getRows() != inBiases.length)
+        {
+            throw new IllegalArgumentException("weight and biases lengths do not match");
+        }
+
+        int outSize = inWeights.getRows();
+        int inSize = inWeights.getCols();
+
+        input = new double[inSize];
+        output = new double[outSize];
+        valueAfterBiases = new double[outSize];
+        dValueAfterBiases = new double[outSize];
+        dIn = new double[inSize];
+
+        weights = inWeights;
+        biases = inBiases;
+
+        dWeights = new Matrix(outSize, inSize);
+        dBiases = new double[outSize];
+
+        numInBatch = 0;
+    }
+
     // randomizes values
     public Layer(int inSize, int outSize)
     {
         input = new double[inSize];
         output = new double[outSize];
         valueAfterBiases = new double[outSize];
+        dValueAfterBiases = new double[outSize];
+        dIn = new double[inSize];
 
-        weights = new double[outSize][inSize];
+        weights = new Matrix(outSize, inSize);
         biases = new double[outSize];
 
         for (int row = 0; row < outSize; row ++)
         {
             for (int col = 0; col < inSize; col ++)
             {
-                weights[row][col] = getRandomWeight();
+                weights.set(row, col, getRandomWeight());
             }
         }
 
@@ -69,7 +110,7 @@ public class Layer {
             biases[row] = getRandomBias();
         }
 
-        dWeights = new double[outSize][inSize];
+        dWeights = new Matrix(outSize, inSize);
         dBiases = new double[outSize];
 
         numInBatch = 0;
@@ -78,25 +119,43 @@ public class Layer {
     /**
      * evaluates a given input by multiplying weights, adding biases, and an activation function
      * @param in
-     * @return the evaluation
+     * @return the evaluation, the array belongs to the layer and is overwritten by the next evaluate
      */
     public double[] evaluate(double[] in)
     {
-        if (in.length != weights[0].length)
+        if (in.length != weights.getCols())
         {
             throw new IllegalArgumentException("evaluate input length must match layer input length");
         }
 
         input = in;
-        valueAfterBiases = LinearAlgebra.add(LinearAlgebra.dot(weights, in), biases);
+        LinearAlgebra.dot(weights, in, valueAfterBiases);
+        LinearAlgebra.addBiasLeakyRelu(valueAfterBiases, 0, biases, output, 0, LEAK);
+
+        return output;
+    }
+
+    /**
+     * evaluates a given input without reading or writing any state besides the weights and biases
+     * so many threads can evaluate the same layer at once
+     * @param in is the input
+     * @param out receives the evaluation, its length must match the layer output length
+     */
+    public void evaluate(double[] in, double[] out)
+    {
+        if (in.length != weights.getCols())
+        {
+            throw new IllegalArgumentException("evaluate input length must match layer input length");
+        }
 
-        return output = sigmoid(valueAfterBiases);
+        LinearAlgebra.dot(weights, in, out);
+        LinearAlgebra.addBiasLeakyRelu(out, 0, biases, out, 0, LEAK);
     }
 
     /**
      * dTrain updates the layer along the derivative of the output
      * @param dOut the derivative of the output of the layer with respect to the output of the network
-     * @return the derivate of the input of the layer with respect to the output of the netword
+     * @return the derivate of the input of the layer with respect to the output of the netword, overwritten by the next dTrain
      */
     public double[] dTrain(double[] dOut)
     {
@@ -105,85 +164,424 @@ public class Layer {
             throw new IllegalArgumentException("dTrain input length must match layer output length");
         }
 
-        double[] dValueAfterBiases = dSigmoid(valueAfterBiases);
-        
+        System.arraycopy(dOut, 0, dValueAfterBiases, 0, dOut.length);
+
+        // derivative with respect to valueAfterBiases
+        LinearAlgebra.multiplyLeakyReluDerivative(valueAfterBiases, 0, dValueAfterBiases, 0, output.length, LEAK);
+
         // calculate dWeights
-        for (int row = 0; row < output.length; row++)
+        LinearAlgebra.addOuterProduct(dWeights, dValueAfterBiases, input);
+
+        // calculate dBiases
+        LinearAlgebra.axpy(1, dValueAfterBiases, 0, dBiases, 0, output.length);
+
+        // calculate dIn
+        LinearAlgebra.dotTranspose(weights, dValueAfterBiases, dIn);
+
+        numInBatch++;
+
+        return dIn;
+    }
+
+    /**
+     * evaluates a batch of inputs at once, one input per row
+     * @param in is the batch of inputs
+     * @param valueAfterBiasesOut receives the values before the activation function
+     * @param out receives the evaluations
+     */
+    public void evaluateBatch(Matrix in, Matrix valueAfterBiasesOut, Matrix out)
+    {
+        if (in.getCols() != weights.getCols())
         {
-            for (int col = 0; col < input.length; col++)
-            {
-                dWeights[row][col] += input[col] * dValueAfterBiases[row] * dOut[row];
-            }
+            throw new IllegalArgumentException("evaluate input length must match layer input length");
         }
 
-        // calculate dBiases
-        for (int i = 0; i < output.length; i++)
+        LinearAlgebra.multiplyTransposeB(in, weights, valueAfterBiasesOut);
+
+        double[] values = valueAfterBiasesOut.getData();
+        double[] outData = out.getData();
+
+        for (int row = 0; row < in.getRows(); row++)
+        {
+            int offset = row * biases.length;
+            LinearAlgebra.addBiasLeakyRelu(values, offset, biases, outData, offset, LEAK);
+        }
+    }
+
+    /**
+     * dTrainBatch updates the layer along the derivative of a whole batch, the same as calling dTrain on every row
+     * @param in is the batch of inputs that was evaluated
+     * @param valueAfterBiases is the matching output of evaluateBatch
+     * @param dOut is the derivative of each output, it is overwritten with the derivative of the values after biases
+     * @param dIn receives the derivative of each input, can be null if not needed
+     */
+    public void dTrainBatch(Matrix in, Matrix valueAfterBiases, Matrix dOut, Matrix dIn)
+    {
+        dTrainBatch(in, valueAfterBiases, dOut, dIn, dWeights, dBiases);
+
+        numInBatch += dOut.getRows();
+    }
+
+    /**
+     * dTrainBatch sums the gradient of a whole batch into the given accumulators, the same as calling dTrain on every row
+     * only reads the weights of the layer, so it can run on several threads at once with different accumulators
+     * @param in is the batch of inputs that was evaluated
+     * @param valueAfterBiases is the matching output of evaluateBatch
+     * @param dOut is the derivative of each output, it is overwritten with the derivative of the values after biases
+     * @param dIn receives the derivative of each input, can be null if not needed
+     * @param dWeightsSum is added to with the derivative of the weights
+     * @param dBiasesSum is added to with the derivative of the biases
+     */
+    public void dTrainBatch(Matrix in, Matrix valueAfterBiases, Matrix dOut, Matrix dIn, Matrix dWeightsSum, double[] dBiasesSum)
+    {
+        if (dOut.getCols() != biases.length)
+        {
+            throw new IllegalArgumentException("dTrain input length must match layer output length");
+        }
+
+        double[] values = valueAfterBiases.getData();
+        double[] delta = dOut.getData();
+
+        for (int row = 0; row < dOut.getRows(); row++)
         {
-            dBiases[i] += dValueAfterBiases[i] * dOut[i];
+            int offset = row * biases.length;
+            LinearAlgebra.multiplyLeakyReluDerivative(values, offset, delta, offset, biases.length, LEAK);
+
+            // calculate dBiases
+            LinearAlgebra.axpy(1, delta, offset, dBiasesSum, 0, biases.length);
         }
 
-        double[] dIn = new double[input.length];
+        // calculate dWeights
+        LinearAlgebra.addTransposeAMultiply(dOut, in, dWeightsSum);
 
         // calculate dIn
-        for (int row = 0; row < output.length; row++)
+        if (dIn != null)
         {
-            for (int col = 0; col < input.length; col++)
-            {
-                dIn[col] += weights[row][col] * dValueAfterBiases[row] * dOut[row];
-            }
+            LinearAlgebra.multiply(dOut, weights, dIn);
         }
+    }
 
-        numInBatch++;
+    /**
+     * same as evaluateBatch(Matrix, Matrix, Matrix) for a sparse batch, only the nonzero inputs are multiplied
+     * for the first layer of image-like data, where most inputs are 0
+     */
+    public void evaluateBatch(SparseMatrix in, Matrix valueAfterBiasesOut, Matrix out)
+    {
+        if (in.getCols() != weights.getCols())
+        {
+            throw new IllegalArgumentException("evaluate input length must match layer input length");
+        }
 
-        return dIn;
+        LinearAlgebra.multiplyTransposeB(in, weights, valueAfterBiasesOut);
+
+        double[] values = valueAfterBiasesOut.getData();
+        double[] outData = out.getData();
+
+        for (int row = 0; row < in.getRows(); row++)
+        {
+            int offset = row * biases.length;
+            LinearAlgebra.addBiasLeakyRelu(values, offset, biases, outData, offset, LEAK);
+        }
+    }
+
+    /**
+     * same as dTrainBatch(Matrix, Matrix, Matrix, Matrix) for a sparse batch, only the weights of nonzero inputs are updated
+     * there is no derivative of the input, a sparse batch is only ever the input of the network
+     * @param scratch is an input length by output length matrix of zeros, it is left as zeros
+     * @param touched is input length falses, it is left as falses
+     */
+    public void dTrainBatch(SparseMatrix in, Matrix valueAfterBiases, Matrix dOut, Matrix scratch, boolean[] touched)
+    {
+        dTrainBatch(in, valueAfterBiases, dOut, dWeights, dBiases, scratch, touched);
+
+        numInBatch += dOut.getRows();
     }
 
+    /**
+     * same as dTrainBatch(Matrix, Matrix, Matrix, Matrix, Matrix, double[]) for a sparse batch with no derivative of the input
+     * only reads the weights of the layer, so it can run on several threads at once with different accumulators
+     */
+    public void dTrainBatch(SparseMatrix in, Matrix valueAfterBiases, Matrix dOut, Matrix dWeightsSum, double[] dBiasesSum,
+        Matrix scratch, boolean[] touched)
+    {
+        if (dOut.getCols() != biases.length)
+        {
+            throw new IllegalArgumentException("dTrain input length must match layer output length");
+        }
+
+        double[] values = valueAfterBiases.getData();
+        double[] delta = dOut.getData();
+
+        for (int row = 0; row < dOut.getRows(); row++)
+        {
+            int offset = row * biases.length;
+            LinearAlgebra.multiplyLeakyReluDerivative(values, offset, delta, offset, biases.length, LEAK);
+
+            // calculate dBiases
+            LinearAlgebra.axpy(1, delta, offset, dBiasesSum, 0, biases.length);
+        }
+
+        // calculate dWeights
+        LinearAlgebra.addTransposeAMultiply(dOut, in, dWeightsSum, scratch, touched);
+    }
+
+    /**
+     * adds a gradient computed outside the layer to the one waiting for applyGradient
+     * @param dWeightsSum is the summed derivative of the weights
+     * @param dBiasesSum is the summed derivative of the biases
+     * @param count is the number of examples the sums are over
+     */
+    public void addGradient(Matrix dWeightsSum, double[] dBiasesSum, int count)
+    {
+        if (dWeightsSum.getRows() != dWeights.getRows() || dWeightsSum.getCols() != dWeights.getCols() || dBiasesSum.length != dBiases.length)
+        {
+            throw new IllegalArgumentException("gradient dimentions must match the layer");
+        }
+
+        double[] dWeightData = dWeights.getData();
+        double[] sumData = dWeightsSum.getData();
+
+        for (int i = 0; i < dWeightData.length; i++) dWeightData[i] += sumData[i];
+        for (int i = 0; i < dBiases.length; i++) dBiases[i] += dBiasesSum[i];
+
+        numInBatch += count;
+    }
+
+    /**
+     * steps the weights and biases with plain gradient descent along the gradient gathered since the last step
+     * @param stepSize is the learning rate
+     */
     public void applyGradient(double stepSize)
     {
-        // apply to weights
-        for (int row = 0; row < weights.length; row ++)
+        applyGradient(SGD, stepSize, 1);
+    }
+
+    /**
+     * steps the weights and biases with an optimizer along the gradient gathered since the last step, then clears the gradient
+     * @param optimizer decides how the gradient moves the parameters, its state is kept in the layer
+     * @param stepSize is the learning rate
+     * @param step is the number of this step, starting at 1
+     */
+    public void applyGradient(Optimizer optimizer, double stepSize, long step)
+    {
+        // nothing was accumulated, dividing by the count would make every weight NaN
+        if (numInBatch == 0)
+        {
+            return;
+        }
+
+        double[] weightData = weights.getData();
+
+        makeOptimizerState(optimizer);
+
+        // a pruned weight and its state are 0, so with no gradient every optimizer leaves it at 0
+        if (pruned != null)
+        {
+            double[] dWeightData = dWeights.getData();
+            for (int i = 0; i < pruned.length; i++) if (pruned[i]) dWeightData[i] = 0;
+        }
+
+        optimizer.update(weightData, dWeights.getData(), numInBatch, weightState, stepSize, step);
+        optimizer.update(biases, dBiases, numInBatch, biasState, stepSize, step);
+
+        dWeights.fill(0);
+        Arrays.fill(dBiases, 0);
+
+        numInBatch = 0;
+    }
+
+    /**
+     * steps the weights and biases straight from a gradient summed outside the layer, with no lock, for Hogwild training
+     * several threads can step the same layer at once, so one thread's update can be lost under another's
+     * the gradient the layer gathers itself is not touched, and makeOptimizerState must have been called first
+     * @param optimizer decides how the gradient moves the parameters
+     * @param dWeightsSum is the summed derivative of the weights, pruned weights are cleared in it
+     * @param dBiasesSum is the summed derivative of the biases
+     * @param count is the number of examples the sums are over
+     * @param stepSize is the learning rate
+     * @param step is the number of this step, starting at 1
+     * @param ranges is pairs of start and end indices into the row-major weights, only weights in them are stepped,
+     * or null to step every weight
+     * @param numRanges is the number of pairs in ranges
+     */
+    public void applyGradientUnlocked(Optimizer optimizer, Matrix dWeightsSum, double[] dBiasesSum, int count, double stepSize, long step,
+        int[] ranges, int numRanges)
+    {
+        double[] weightData = weights.getData();
+        double[] sumData = dWeightsSum.getData();
+
+        // read once, another thread making the state again would swap these arrays
+        double[] currentWeightState = weightState;
+        double[] currentBiasState = biasState;
+
+        if (currentWeightState == null || currentWeightState.length != optimizer.getStateSize() * weightData.length)
+        {
+            throw new IllegalStateException("optimizer state must be made before stepping without a lock");
+        }
+
+        if (sumData.length != weightData.length || dBiasesSum.length != biases.length)
+        {
+            throw new IllegalArgumentException("gradient dimentions must match the layer");
+        }
+
+        if (ranges == null)
+        {
+            if (pruned != null) for (int i = 0; i < pruned.length; i++) if (pruned[i]) sumData[i] = 0;
+
+            optimizer.update(weightData, sumData, count, currentWeightState, stepSize, step);
+        }
+        else
         {
-            for (int col = 0; col < weights[row].length; col ++)
+            for (int range = 0; range < numRanges; range++)
             {
-                weights[row][col] += -dWeights[row][col] / numInBatch * stepSize;
+                int start = ranges[2 * range];
+                int end = ranges[2 * range + 1];
+
+                if (pruned != null) for (int i = start; i < end; i++) if (pruned[i]) sumData[i] = 0;
+
+                optimizer.update(weightData, sumData, count, currentWeightState, stepSize, step, start, end);
             }
         }
 
-        // apply to biases
-        for (int i = 0; i < biases.length; i ++)
+        optimizer.update(biases, dBiasesSum, count, currentBiasState, stepSize, step);
+    }
+
+    /**
+     * makes zeroed optimizer state for the layer unless it already has state of the right size
+     * @param optimizer is the optimizer that will step the layer
+     */
+    public void makeOptimizerState(Optimizer optimizer)
+    {
+        int stateSize = optimizer.getStateSize();
+
+        if (weightState == null || weightState.length != stateSize * weights.getData().length)
         {
-            biases[i] += -dBiases[i] / numInBatch * stepSize;
+            weightState = new double[stateSize * weights.getData().length];
+            biasState = new double[stateSize * biases.length];
         }
+    }
 
-        dWeights = new double[output.length][input.length];
-        dBiases = new double[output.length];
+    /**
+     * forgets the optimizer state, the next applyGradient starts it again from 0
+     */
+    public void resetOptimizerState()
+    {
+        weightState = null;
+        biasState = null;
+    }
 
-        numInBatch = 0;
+    /**
+     * the arrays are shared with the layer, not copied
+     * @return the optimizer state of the weights, or null if no optimizer with state has stepped the layer
+     */
+    public double[] getWeightState()
+    {
+        return weightState;
     }
 
-    private double[] sigmoid(double[] v)
+    /**
+     * @return the optimizer state of the biases, or null if no optimizer with state has stepped the layer
+     */
+    public double[] getBiasState()
     {
-        double[] vOut = new double[v.length];
-        for (int i = 0; i < v.length; i++) vOut[i] = sigmoid(v[i]);
-        return vOut;
+        return biasState;
     }
 
-    private double[] dSigmoid(double[] v)
+    /**
+     * replaces the optimizer state, used when resuming from a checkpoint, the arrays are used directly instead of copied
+     * @param inWeightState is the state of the weights, a whole number of blocks the length of the weights
+     * @param inBiasState is the state of the biases with the same number of blocks
+     */
+    public void setOptimizerState(double[] inWeightState, double[] inBiasState)
     {
-        double[] vOut = new double[v.length];
-        for (int i = 0; i < v.length; i++) vOut[i] = dSigmoid(v[i]);
-        return vOut;
+        int numWeights = weights.getData().length;
+
+        if (inWeightState.length % numWeights != 0 || inWeightState.length / numWeights * biases.length != inBiasState.length)
+        {
+            throw new IllegalArgumentException("optimizer state dimentions must match the layer");
+        }
+
+        weightState = inWeightState;
+        biasState = inBiasState;
     }
 
-    // default is ReLU
-    private double sigmoid(double n)
+    /**
+     * sets the weights with the smallest magnitudes to 0 and keeps them at 0 through later training
+     * weights pruned before are 0 so they are the smallest, pruning again with a larger sparsity prunes more of the rest
+     * the biases are never pruned
+     * @param sparsity is the fraction of the weights to prune, from 0 to 1
+     */
+    public void prune(double sparsity)
     {
-        return n < 0 ? 0.05 * n : n;
+        if (!(sparsity >= 0 && sparsity <= 1))
+        {
+            throw new IllegalArgumentException("sparsity must be between 0 and 1");
+        }
+
+        double[] weightData = weights.getData();
+        int numWeights = weightData.length;
+        int numToPrune = (int) Math.round(sparsity * numWeights);
+
+        if (pruned == null)
+        {
+            pruned = new boolean[numWeights];
+        }
+
+        if (numToPrune == 0)
+        {
+            return;
+        }
+
+        double[] magnitudes = new double[numWeights];
+        for (int i = 0; i < numWeights; i++) magnitudes[i] = Math.abs(weightData[i]);
+        Arrays.sort(magnitudes);
+
+        double threshold = magnitudes[numToPrune - 1];
+
+        // everything below the threshold, then weights equal to it in order until there are enough
+        int count = 0;
+        for (int i = 0; i < numWeights; i++)
+        {
+            if (Math.abs(weightData[i]) < threshold)
+            {
+                pruned[i] = true;
+                count++;
+            }
+        }
+        for (int i = 0; i < numWeights && count < numToPrune; i++)
+        {
+            if (!pruned[i] && Math.abs(weightData[i]) == threshold)
+            {
+                pruned[i] = true;
+                count++;
+            }
+        }
+
+        for (int i = 0; i < numWeights; i++)
+        {
+            if (pruned[i])
+            {
+                weightData[i] = 0;
+
+                if (weightState != null)
+                {
+                    for (int block = i; block < weightState.length; block += numWeights) weightState[block] = 0;
+                }
+            }
+        }
     }
 
-    private double dSigmoid(double n)
+    /**
+     * @return the fraction of the weights that are 0, pruned or not
+     */
+    public double getSparsity()
     {
-        return n < 0 ? 0.05 : 1;
+        double[] weightData = weights.getData();
+
+        int zeros = 0;
+        for (double weight : weightData) if (weight == 0) zeros++;
+
+        return (double) zeros / weightData.length;
     }
 
     private double getRandomWeight()
@@ -203,44 +601,78 @@ public class Layer {
             throw new IllegalArgumentException("weight and biases lengths do not match");
         }
 
-        weights = new double[inWeights.length][inWeights[0].length];
+        weights = new Matrix(inWeights);
         biases = new double[inBiases.length];
 
-        for (int row = 0; row < inWeights.length; row ++)
-        {
-            for (int col = 0; col < inWeights[row].length; col ++)
-            {
-                weights[row][col] = inWeights[row][col];
-            }
-        }
-
         for (int row = 0; row < inBiases.length; row ++)
         {
             biases[row] = inBiases[row];
         }
 
-        dWeights = new double[inWeights.length][inWeights[0].length];
+        dWeights = new Matrix(inWeights.length, inWeights[0].length);
         dBiases = new double[inBiases.length];
+
+        weightState = null;
+        biasState = null;
+        pruned = null;
+
+        input = new double[inWeights[0].length];
+        output = new double[inBiases.length];
+        valueAfterBiases = new double[inBiases.length];
+        dValueAfterBiases = new double[inBiases.length];
+        dIn = new double[inWeights[0].length];
     }
 
-    public double[][] getWeights()
+    /**
+     * copies the weights and biases without allocating, used to snapshot a layer between batches
+     * @param weightsOut receives the weights, its dimentions must match the layer
+     * @param biasesOut receives the biases
+     */
+    public void copyTo(Matrix weightsOut, double[] biasesOut)
     {
-        double[][] weightsCopy = new double[weights.length][];
-        for (int row = 0; row < weights.length; row ++)
+        if (biasesOut.length != biases.length)
         {
-            weightsCopy[row] = new double[weights[row].length];
-            for (int col = 0; col < weights[row].length; col ++)
-            {
-                weightsCopy[row][col] = weights[row][col];
-            }
+            throw new IllegalArgumentException("weight and biases lengths do not match");
         }
-        return weightsCopy;
+
+        weightsOut.copyFrom(weights);
+        System.arraycopy(biases, 0, biasesOut, 0, biases.length);
+    }
+
+    /**
+     * replaces the weights and biases without allocating, keeping the optimizer state, used to load new weights between batches
+     * @param weightsIn holds the new weights, its dimentions must match the layer
+     * @param biasesIn holds the new biases
+     */
+    public void copyFrom(Matrix weightsIn, double[] biasesIn)
+    {
+        if (biasesIn.length != biases.length)
+        {
+            throw new IllegalArgumentException("weight and biases lengths do not match");
+        }
+
+        weights.copyFrom(weightsIn);
+        System.arraycopy(biasesIn, 0, biases, 0, biases.length);
+    }
+
+    public double[][] getWeights()
+    {
+        return weights.toArray();
+    }
+
+    /**
+     * the matrix is shared with the layer, not copied
+     * @return the row-major weight matrix
+     */
+    public Matrix getWeightMatrix()
+    {
+        return weights;
     }
 
     public double[] getBiases()
     {
         double[] biasesCopy = new double[biases.length];
-        for (int row = 0; row < weights.length; row ++)
+        for (int row = 0; row < biases.length; row ++)
         {
             biasesCopy[row] = biases[row];
         }
@@ -0,0 +1,72 @@
+/**
+ * the step size to use at each step of training, in place of the fixed step size of a network
+ * steps are counted from 0 and the count is saved in checkpoints, so a resumed run picks up where the schedule was
+ */
+public interface LearningRateSchedule {
+
+    /**
+     * @param step is the number of steps already taken
+     * @return the step size for the next step
+     */
+    double getStepSize(long step);
+
+    static LearningRateSchedule constant(double stepSize)
+    {
+        return step -> stepSize;
+    }
+
+    /**
+     * @return stepSize times factor for every interval steps taken, for example halving every epoch
+     */
+    static LearningRateSchedule stepDecay(double stepSize, double factor, long interval)
+    {
+        if (interval < 1)
+        {
+            throw new IllegalArgumentException("interval must be at least 1");
+        }
+
+        return step -> stepSize * Math.pow(factor, step / interval);
+    }
+
+    /**
+     * @return stepSize smoothly decayed by factor every interval steps
+     */
+    static LearningRateSchedule exponentialDecay(double stepSize, double factor, long interval)
+    {
+        if (interval < 1)
+        {
+            throw new IllegalArgumentException("interval must be at least 1");
+        }
+
+        return step -> stepSize * Math.pow(factor, (double) step / interval);
+    }
+
+    /**
+     * @return stepSize falling to minStepSize along half a cosine over totalSteps, then staying at minStepSize
+     */
+    static LearningRateSchedule cosine(double stepSize, double minStepSize, long totalSteps)
+    {
+        if (totalSteps < 1)
+        {
+            throw new IllegalArgumentException("total steps must be at least 1");
+        }
+
+        return step -> {
+            double progress = Math.min(1, (double) step / totalSteps);
+            return minStepSize + (stepSize - minStepSize) * 0.5 * (1 + Math.cos(Math.PI * progress));
+        };
+    }
+
+    /**
+     * @return this schedule scaled by a ramp from 0 to 1 over the first warmupSteps steps
+     */
+    default LearningRateSchedule withWarmup(long warmupSteps)
+    {
+        if (warmupSteps < 1)
+        {
+            throw new IllegalArgumentException("warmup steps must be at least 1");
+        }
+
+        return step -> step < warmupSteps ? getStepSize(step) * (step + 1) / warmupSteps : getStepSize(step);
+    }
+}
@@ -1,6 +1,62 @@
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 
-
+/**
+ * the vector and matrix operations used by the layers
+ *
+ * the innermost loops run on a Kernels backend picked once at startup with -Dnn.kernels=
+ *   scalar - plain java loops
+ *   vector - SIMD loops on the incubating Vector API, needs --add-modules jdk.incubator.vector
+ *   auto   - vector when the module is there, otherwise scalar (the default)
+ * any other value is an IllegalArgumentException when LinearAlgebra is first used
+ */
 public class LinearAlgebra {
+
+    // number of columns / rows worked on at a time by the blocked kernels, sized so a tile fits in L1/L2
+    private static final int BLOCK_SIZE = 128;
+
+    private static final Kernels KERNELS = loadKernels();
+
+    private static Kernels loadKernels()
+    {
+        String choice = System.getProperty("nn.kernels", "auto");
+
+        // a typo such as -Dnn.kernels=vectr would otherwise silently pick auto
+        if (!choice.equals("auto") && !choice.equals("scalar") && !choice.equals("vector"))
+        {
+            throw new IllegalArgumentException("nn.kernels must be auto, scalar or vector, not " + choice);
+        }
+
+        if (choice.equals("scalar"))
+        {
+            return new ScalarKernels();
+        }
+
+        try
+        {
+            // loaded by name so nothing touches jdk.incubator.vector unless the module is present
+            return (Kernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            if (choice.equals("vector"))
+            {
+                System.err.println("Vector API unavailable, using scalar kernels: " + e);
+            }
+
+            return new ScalarKernels();
+        }
+    }
+
+    /**
+     * @return the name of the kernel backend in use
+     */
+    public static String getKernelsName()
+    {
+        return KERNELS.getClass().getSimpleName();
+    }
+
     public static double[] add(double[] v1, double[] v2)
     {
         if (v1.length != v2.length)
@@ -9,7 +65,7 @@ public class LinearAlgebra {
         }
 
         double[] sum = new double[v1.length];
-        for (int i = 0; i < sum.length; i++) sum[i] = v1[i] + v2[i];
+        KERNELS.add(v1, 0, v2, 0, sum, 0, sum.length);
         return sum;
     }
 
@@ -20,13 +76,33 @@ public class LinearAlgebra {
             throw new IllegalArgumentException("vector dimentions do not match");
         }
 
-        double out = 0;
-        for (int i = 0; i < v1.length; i++) out += v1[i] * v2[i];
-        return out;
+        return dot(v1, 0, v2, 0, v1.length);
+    }
+
+    /**
+     * dot product of two slices
+     * @param v1 the first array
+     * @param off1 the start of the slice in the first array
+     * @param v2 the second array
+     * @param off2 the start of the slice in the second array
+     * @param length the length of both slices
+     * @return the dot product of the two slices
+     */
+    public static double dot(double[] v1, int off1, double[] v2, int off2, int length)
+    {
+        return KERNELS.dot(v1, off1, v2, off2, length);
     }
 
     /**
-     * 
+     * y[yOff..] += alpha * x[xOff..]
+     */
+    public static void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int length)
+    {
+        KERNELS.axpy(alpha, x, xOff, y, yOff, length);
+    }
+
+    /**
+     *
      * @param m is a matrix where the rows is the height and cols is the width
      * @param v is a vector whose length matches the cols of the matrix
      * @return the dot product of a matrix and a vector
@@ -42,4 +118,720 @@ public class LinearAlgebra {
         for (int i = 0; i < vOut.length; i++) vOut[i] = dot(m[i], v);
         return vOut;
     }
+
+    /**
+     * @param m is a matrix whose cols match the length of v
+     * @param v is a vector
+     * @return the dot product of a matrix and a vector
+     */
+    public static double[] dot(Matrix m, double[] v)
+    {
+        double[] vOut = new double[m.getRows()];
+        dot(m, v, vOut);
+        return vOut;
+    }
+
+    /**
+     * matrix vector product (GEMV), vOut = m * v
+     * four rows are done at once so each element of v is loaded once per four rows
+     * @param m is a matrix whose cols match the length of v
+     * @param v is a vector
+     * @param vOut receives the product, its length must match the rows of m
+     */
+    public static void dot(Matrix m, double[] v, double[] vOut)
+    {
+        int rows = m.getRows();
+        int cols = m.getCols();
+
+        if (cols != v.length || rows != vOut.length)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        double[] data = m.getData();
+
+        int row = 0;
+        for (; row + 3 < rows; row += 4)
+        {
+            vOut[row] = vOut[row + 1] = vOut[row + 2] = vOut[row + 3] = 0;
+            KERNELS.dot4(data, row * cols, cols, v, 0, cols, vOut, row);
+        }
+        for (; row < rows; row++) vOut[row] = KERNELS.dot(data, row * cols, v, 0, cols);
+    }
+
+    /**
+     * matrix vector product with the matrix held in a buffer, vOut = m * v
+     * lets a memory mapped network be evaluated without copying its weights onto the heap
+     * @param m holds a rows by cols row-major matrix starting at index 0
+     * @param v is a vector whose length matches cols
+     * @param vOut receives the product, its length must match rows
+     */
+    public static void dot(DoubleBuffer m, int rows, int cols, double[] v, double[] vOut)
+    {
+        if (cols != v.length || rows != vOut.length || m.limit() < rows * cols)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        int row = 0;
+        for (; row + 3 < rows; row += 4)
+        {
+            int r0 = row * cols;
+            double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+            for (int col = 0; col < cols; col++)
+            {
+                double x = v[col];
+                sum0 += m.get(r0 + col) * x;
+                sum1 += m.get(r0 + cols + col) * x;
+                sum2 += m.get(r0 + 2 * cols + col) * x;
+                sum3 += m.get(r0 + 3 * cols + col) * x;
+            }
+
+            vOut[row] = sum0;
+            vOut[row + 1] = sum1;
+            vOut[row + 2] = sum2;
+            vOut[row + 3] = sum3;
+        }
+        for (; row < rows; row++)
+        {
+            double sum = 0;
+            for (int col = 0; col < cols; col++) sum += m.get(row * cols + col) * v[col];
+            vOut[row] = sum;
+        }
+    }
+
+    /**
+     * same as dot(DoubleBuffer, int, int, double[], double[]) with single precision weights, the sums are kept in double
+     */
+    public static void dot(FloatBuffer m, int rows, int cols, double[] v, double[] vOut)
+    {
+        if (cols != v.length || rows != vOut.length || m.limit() < rows * cols)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        int row = 0;
+        for (; row + 3 < rows; row += 4)
+        {
+            int r0 = row * cols;
+            double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+            for (int col = 0; col < cols; col++)
+            {
+                double x = v[col];
+                sum0 += m.get(r0 + col) * x;
+                sum1 += m.get(r0 + cols + col) * x;
+                sum2 += m.get(r0 + 2 * cols + col) * x;
+                sum3 += m.get(r0 + 3 * cols + col) * x;
+            }
+
+            vOut[row] = sum0;
+            vOut[row + 1] = sum1;
+            vOut[row + 2] = sum2;
+            vOut[row + 3] = sum3;
+        }
+        for (; row < rows; row++)
+        {
+            double sum = 0;
+            for (int col = 0; col < cols; col++) sum += m.get(row * cols + col) * v[col];
+            vOut[row] = sum;
+        }
+    }
+
+    /**
+     * transposed matrix vector product, vOut = transpose(m) * v
+     * walks m row by row so the matrix is still read in storage order
+     * @param m is a matrix whose rows match the length of v
+     * @param v is a vector
+     * @param vOut receives the product, its length must match the cols of m
+     */
+    public static void dotTranspose(Matrix m, double[] v, double[] vOut)
+    {
+        int rows = m.getRows();
+        int cols = m.getCols();
+
+        if (rows != v.length || cols != vOut.length)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        double[] data = m.getData();
+
+        for (int col = 0; col < cols; col++) vOut[col] = 0;
+        for (int row = 0; row < rows; row++) axpy(v[row], data, row * cols, vOut, 0, cols);
+    }
+
+    /**
+     * rank one update, m += a * transpose(b)
+     * @param m is a matrix with a.length rows and b.length cols
+     * @param a is the column vector
+     * @param b is the row vector
+     */
+    public static void addOuterProduct(Matrix m, double[] a, double[] b)
+    {
+        int rows = m.getRows();
+        int cols = m.getCols();
+
+        if (rows != a.length || cols != b.length)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        double[] data = m.getData();
+
+        for (int row = 0; row < rows; row++) axpy(a[row], b, 0, data, row * cols, cols);
+    }
+
+    /**
+     * matrix matrix product (GEMM), out = a * b
+     * blocked over the shared dimension and the columns of b so the active tile of b stays in cache
+     * @param a is an n by k matrix
+     * @param b is a k by m matrix
+     * @param out receives the n by m product
+     */
+    public static void multiply(Matrix a, Matrix b, Matrix out)
+    {
+        int n = a.getRows();
+        int k = a.getCols();
+        int m = b.getCols();
+
+        if (b.getRows() != k || out.getRows() != n || out.getCols() != m)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        double[] aData = a.getData();
+        double[] bData = b.getData();
+        double[] outData = out.getData();
+
+        out.fill(0);
+
+        for (int kk = 0; kk < k; kk += BLOCK_SIZE)
+        {
+            int kEnd = Math.min(kk + BLOCK_SIZE, k);
+
+            for (int jj = 0; jj < m; jj += BLOCK_SIZE)
+            {
+                int jLength = Math.min(jj + BLOCK_SIZE, m) - jj;
+
+                for (int i = 0; i < n; i++)
+                {
+                    int aRow = i * k;
+                    int outRow = i * m + jj;
+
+                    int p = kk;
+                    for (; p + 3 < kEnd; p += 4)
+                    {
+                        int b0 = p * m + jj;
+                        KERNELS.axpy4(aData[aRow + p], aData[aRow + p + 1], aData[aRow + p + 2], aData[aRow + p + 3],
+                            bData, b0, m, outData, outRow, jLength);
+                    }
+                    for (; p < kEnd; p++) axpy(aData[aRow + p], bData, p * m + jj, outData, outRow, jLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * matrix matrix product with the second matrix transposed, out = a * transpose(b)
+     * every entry is a dot product of two contiguous rows; tiled so rows of b are reused from cache
+     * @param a is an n by k matrix
+     * @param b is an m by k matrix
+     * @param out receives the n by m product
+     */
+    public static void multiplyTransposeB(Matrix a, Matrix b, Matrix out)
+    {
+        int n = a.getRows();
+        int k = a.getCols();
+        int m = b.getRows();
+
+        if (b.getCols() != k || out.getRows() != n || out.getCols() != m)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        double[] aData = a.getData();
+        double[] bData = b.getData();
+        double[] outData = out.getData();
+
+        out.fill(0);
+
+        for (int kk = 0; kk < k; kk += BLOCK_SIZE)
+        {
+            int kLength = Math.min(kk + BLOCK_SIZE, k) - kk;
+
+            for (int jj = 0; jj < m; jj += BLOCK_SIZE)
+            {
+                int jEnd = Math.min(jj + BLOCK_SIZE, m);
+
+                for (int i = 0; i < n; i++)
+                {
+                    int aRow = i * k + kk;
+                    int outRow = i * m;
+
+                    int j = jj;
+                    for (; j + 3 < jEnd; j += 4)
+                    {
+                        KERNELS.dot4(bData, j * k + kk, k, aData, aRow, kLength, outData, outRow + j);
+                    }
+                    for (; j < jEnd; j++) outData[outRow + j] += KERNELS.dot(aData, aRow, bData, j * k + kk, kLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * accumulating matrix matrix product with the first matrix transposed, out += transpose(a) * b
+     * used to sum outer products over a batch; tiled over the rows and cols of out
+     * @param a is a k by n matrix
+     * @param b is a k by m matrix
+     * @param out is the n by m matrix that is added to
+     */
+    public static void addTransposeAMultiply(Matrix a, Matrix b, Matrix out)
+    {
+        int k = a.getRows();
+        int n = a.getCols();
+        int m = b.getCols();
+
+        if (b.getRows() != k || out.getRows() != n || out.getCols() != m)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        double[] aData = a.getData();
+        double[] bData = b.getData();
+        double[] outData = out.getData();
+
+        for (int ii = 0; ii < n; ii += BLOCK_SIZE / 4)
+        {
+            int iEnd = Math.min(ii + BLOCK_SIZE / 4, n);
+
+            for (int jj = 0; jj < m; jj += BLOCK_SIZE)
+            {
+                int jLength = Math.min(jj + BLOCK_SIZE, m) - jj;
+
+                int p = 0;
+                for (; p + 3 < k; p += 4)
+                {
+                    int b0 = p * m + jj;
+                    for (int i = ii; i < iEnd; i++)
+                    {
+                        int a0 = p * n + i;
+                        KERNELS.axpy4(aData[a0], aData[a0 + n], aData[a0 + 2 * n], aData[a0 + 3 * n],
+                            bData, b0, m, outData, i * m + jj, jLength);
+                    }
+                }
+                for (; p < k; p++)
+                {
+                    for (int i = ii; i < iEnd; i++)
+                    {
+                        axpy(aData[p * n + i], bData, p * m + jj, outData, i * m + jj, jLength);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * matrix matrix product with a sparse first matrix and the second transposed, out = a * transpose(b)
+     * only the nonzeros of a are visited, each one is used against four rows of b at a time
+     * @param a is an n by k sparse matrix
+     * @param b is an m by k matrix
+     * @param out receives the n by m product
+     */
+    public static void multiplyTransposeB(SparseMatrix a, Matrix b, Matrix out)
+    {
+        int n = a.getRows();
+        int k = a.getCols();
+        int m = b.getRows();
+
+        if (b.getCols() != k || out.getRows() != n || out.getCols() != m)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        int[] rowStarts = a.getRowStarts();
+        int[] indices = a.getIndices();
+        double[] values = a.getValues();
+        double[] bData = b.getData();
+        double[] outData = out.getData();
+
+        for (int i = 0; i < n; i++)
+        {
+            int start = rowStarts[i];
+            int end = rowStarts[i + 1];
+            int outRow = i * m;
+
+            int j = 0;
+            for (; j + 3 < m; j += 4)
+            {
+                int b0 = j * k;
+                double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+                for (int p = start; p < end; p++)
+                {
+                    int col = b0 + indices[p];
+                    double value = values[p];
+
+                    sum0 += bData[col] * value;
+                    sum1 += bData[col + k] * value;
+                    sum2 += bData[col + 2 * k] * value;
+                    sum3 += bData[col + 3 * k] * value;
+                }
+
+                outData[outRow + j] = sum0;
+                outData[outRow + j + 1] = sum1;
+                outData[outRow + j + 2] = sum2;
+                outData[outRow + j + 3] = sum3;
+            }
+            for (; j < m; j++)
+            {
+                double sum = 0;
+                for (int p = start; p < end; p++) sum += bData[j * k + indices[p]] * values[p];
+                outData[outRow + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * sparse matrix vector product, vOut = m * v
+     * each row is a dot product over only its nonzeros, gathering the elements of v they multiply
+     * @param m is a sparse matrix whose cols match the length of v
+     * @param v is a vector
+     * @param vOut receives the product, its length must match the rows of m
+     */
+    public static void dot(SparseMatrix m, double[] v, double[] vOut)
+    {
+        int rows = m.getRows();
+
+        if (m.getCols() != v.length || rows != vOut.length)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        int[] rowStarts = m.getRowStarts();
+        int[] indices = m.getIndices();
+        double[] values = m.getValues();
+
+        for (int row = 0; row < rows; row++)
+        {
+            vOut[row] = KERNELS.sparseDot(values, indices, rowStarts[row], rowStarts[row + 1] - rowStarts[row], v);
+        }
+    }
+
+    /**
+     * accumulating matrix matrix product with the first matrix transposed and a sparse second matrix, out += transpose(a) * b
+     * sums the outer products of a batch against sparse inputs, only the columns of out where b has a nonzero are touched
+     *
+     * scattering into out would be one scalar add per nonzero per row of out, so instead the product is built transposed
+     * in scratch, where each nonzero of b adds a whole contiguous row of a with one vectorized axpy,
+     * and then only the columns of b that had a nonzero are added into out
+     * @param a is a k by n matrix
+     * @param b is a k by m sparse matrix
+     * @param out is the n by m matrix that is added to
+     * @param scratch is an m by n matrix of zeros, it is left as zeros
+     * @param touched is m falses, it is left as falses
+     */
+    public static void addTransposeAMultiply(Matrix a, SparseMatrix b, Matrix out, Matrix scratch, boolean[] touched)
+    {
+        int k = a.getRows();
+        int n = a.getCols();
+        int m = b.getCols();
+
+        if (b.getRows() != k || out.getRows() != n || out.getCols() != m
+            || scratch.getRows() != m || scratch.getCols() != n || touched.length != m)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        int[] rowStarts = b.getRowStarts();
+        int[] indices = b.getIndices();
+        double[] values = b.getValues();
+        double[] aData = a.getData();
+        double[] outData = out.getData();
+        double[] scratchData = scratch.getData();
+
+        // scratch row c += b[p][c] * row p of a
+        for (int p = 0; p < k; p++)
+        {
+            for (int q = rowStarts[p]; q < rowStarts[p + 1]; q++)
+            {
+                int col = indices[q];
+
+                touched[col] = true;
+                KERNELS.axpy(values[q], aData, p * n, scratchData, col * n, n);
+            }
+        }
+
+        // add the touched columns into out one row of out at a time, then clear them
+        for (int i = 0; i < n; i++)
+        {
+            int outRow = i * m;
+
+            for (int col = 0; col < m; col++)
+            {
+                if (touched[col])
+                {
+                    outData[outRow + col] += scratchData[col * n + i];
+                }
+            }
+        }
+
+        for (int col = 0; col < m; col++)
+        {
+            if (touched[col])
+            {
+                Arrays.fill(scratchData, col * n, col * n + n, 0);
+                touched[col] = false;
+            }
+        }
+    }
+
+    /**
+     * adds the biases to one row of values and applies the leaky ReLU, values keeps the sum
+     * @param values holds the row at off, it is overwritten with the values after biases
+     * @param biases is added to the row
+     * @param out receives the activations at outOff, can be values itself
+     * @param slope is the slope of the leaky ReLU below 0
+     */
+    public static void addBiasLeakyRelu(double[] values, int off, double[] biases, double[] out, int outOff, double slope)
+    {
+        KERNELS.addBiasLeakyRelu(values, off, biases, out, outOff, biases.length, slope);
+    }
+
+    /**
+     * multiplies one row of delta by the derivative of the leaky ReLU at the matching values
+     */
+    public static void multiplyLeakyReluDerivative(double[] values, int off, double[] delta, int deltaOff, int length, double slope)
+    {
+        KERNELS.multiplyLeakyReluDerivative(values, off, delta, deltaOff, length, slope);
+    }
+
+    // single precision versions of the kernels above, used by FloatLayer
+
+    public static float dot(float[] v1, int off1, float[] v2, int off2, int length)
+    {
+        return KERNELS.dot(v1, off1, v2, off2, length);
+    }
+
+    public static void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int length)
+    {
+        KERNELS.axpy(alpha, x, xOff, y, yOff, length);
+    }
+
+    public static void dot(FloatMatrix m, float[] v, float[] vOut)
+    {
+        int rows = m.getRows();
+        int cols = m.getCols();
+
+        if (cols != v.length || rows != vOut.length)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        float[] data = m.getData();
+
+        int row = 0;
+        for (; row + 3 < rows; row += 4)
+        {
+            vOut[row] = vOut[row + 1] = vOut[row + 2] = vOut[row + 3] = 0;
+            KERNELS.dot4(data, row * cols, cols, v, 0, cols, vOut, row);
+        }
+        for (; row < rows; row++) vOut[row] = KERNELS.dot(data, row * cols, v, 0, cols);
+    }
+
+    public static void dotTranspose(FloatMatrix m, float[] v, float[] vOut)
+    {
+        int rows = m.getRows();
+        int cols = m.getCols();
+
+        if (rows != v.length || cols != vOut.length)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        float[] data = m.getData();
+
+        for (int col = 0; col < cols; col++) vOut[col] = 0;
+        for (int row = 0; row < rows; row++) axpy(v[row], data, row * cols, vOut, 0, cols);
+    }
+
+    public static void addOuterProduct(FloatMatrix m, float[] a, float[] b)
+    {
+        int rows = m.getRows();
+        int cols = m.getCols();
+
+        if (rows != a.length || cols != b.length)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        float[] data = m.getData();
+
+        for (int row = 0; row < rows; row++) axpy(a[row], b, 0, data, row * cols, cols);
+    }
+
+    public static void multiply(FloatMatrix a, FloatMatrix b, FloatMatrix out)
+    {
+        int n = a.getRows();
+        int k = a.getCols();
+        int m = b.getCols();
+
+        if (b.getRows() != k || out.getRows() != n || out.getCols() != m)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        float[] aData = a.getData();
+        float[] bData = b.getData();
+        float[] outData = out.getData();
+
+        out.fill(0);
+
+        for (int kk = 0; kk < k; kk += BLOCK_SIZE)
+        {
+            int kEnd = Math.min(kk + BLOCK_SIZE, k);
+
+            for (int jj = 0; jj < m; jj += BLOCK_SIZE)
+            {
+                int jLength = Math.min(jj + BLOCK_SIZE, m) - jj;
+
+                for (int i = 0; i < n; i++)
+                {
+                    int aRow = i * k;
+                    int outRow = i * m + jj;
+
+                    int p = kk;
+                    for (; p + 3 < kEnd; p += 4)
+                    {
+                        int b0 = p * m + jj;
+                        KERNELS.axpy4(aData[aRow + p], aData[aRow + p + 1], aData[aRow + p + 2], aData[aRow + p + 3],
+                            bData, b0, m, outData, outRow, jLength);
+                    }
+                    for (; p < kEnd; p++) axpy(aData[aRow + p], bData, p * m + jj, outData, outRow, jLength);
+                }
+            }
+        }
+    }
+
+    public static void multiplyTransposeB(FloatMatrix a, FloatMatrix b, FloatMatrix out)
+    {
+        int n = a.getRows();
+        int k = a.getCols();
+        int m = b.getRows();
+
+        if (b.getCols() != k || out.getRows() != n || out.getCols() != m)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        float[] aData = a.getData();
+        float[] bData = b.getData();
+        float[] outData = out.getData();
+
+        out.fill(0);
+
+        for (int kk = 0; kk < k; kk += BLOCK_SIZE)
+        {
+            int kLength = Math.min(kk + BLOCK_SIZE, k) - kk;
+
+            for (int jj = 0; jj < m; jj += BLOCK_SIZE)
+            {
+                int jEnd = Math.min(jj + BLOCK_SIZE, m);
+
+                for (int i = 0; i < n; i++)
+                {
+                    int aRow = i * k + kk;
+                    int outRow = i * m;
+
+                    int j = jj;
+                    for (; j + 3 < jEnd; j += 4)
+                    {
+                        KERNELS.dot4(bData, j * k + kk, k, aData, aRow, kLength, outData, outRow + j);
+                    }
+                    for (; j < jEnd; j++) outData[outRow + j] += KERNELS.dot(aData, aRow, bData, j * k + kk, kLength);
+                }
+            }
+        }
+    }
+
+    public static void addTransposeAMultiply(FloatMatrix a, FloatMatrix b, FloatMatrix out)
+    {
+        int k = a.getRows();
+        int n = a.getCols();
+        int m = b.getCols();
+
+        if (b.getRows() != k || out.getRows() != n || out.getCols() != m)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        float[] aData = a.getData();
+        float[] bData = b.getData();
+        float[] outData = out.getData();
+
+        for (int ii = 0; ii < n; ii += BLOCK_SIZE / 4)
+        {
+            int iEnd = Math.min(ii + BLOCK_SIZE / 4, n);
+
+            for (int jj = 0; jj < m; jj += BLOCK_SIZE)
+            {
+                int jLength = Math.min(jj + BLOCK_SIZE, m) - jj;
+
+                int p = 0;
+                for (; p + 3 < k; p += 4)
+                {
+                    int b0 = p * m + jj;
+                    for (int i = ii; i < iEnd; i++)
+                    {
+                        int a0 = p * n + i;
+                        KERNELS.axpy4(aData[a0], aData[a0 + n], aData[a0 + 2 * n], aData[a0 + 3 * n],
+                            bData, b0, m, outData, i * m + jj, jLength);
+                    }
+                }
+                for (; p < k; p++)
+                {
+                    for (int i = ii; i < iEnd; i++)
+                    {
+                        axpy(aData[p * n + i], bData, p * m + jj, outData, i * m + jj, jLength);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void addBiasLeakyRelu(float[] values, int off, float[] biases, float[] out, int outOff, float slope)
+    {
+        KERNELS.addBiasLeakyRelu(values, off, biases, out, outOff, biases.length, slope);
+    }
+
+    public static void multiplyLeakyReluDerivative(float[] values, int off, float[] delta, int deltaOff, int length, float slope)
+    {
+        KERNELS.multiplyLeakyReluDerivative(values, off, delta, deltaOff, length, slope);
+    }
+
+    // int8 kernels, used by QuantizedNetwork
+
+    /**
+     * int8 matrix vector product, vOut = m * v with every product summed exactly in int
+     * @param m holds a rows by cols row-major matrix
+     * @param v is a vector whose length matches cols
+     * @param vOut receives the product, its length must match rows
+     */
+    public static void dot(byte[] m, int rows, int cols, byte[] v, int[] vOut)
+    {
+        if (cols != v.length || rows != vOut.length || m.length != rows * cols)
+        {
+            throw new IllegalArgumentException("matrix and vector dimentions do not match");
+        }
+
+        int row = 0;
+        for (; row + 3 < rows; row += 4)
+        {
+            vOut[row] = vOut[row + 1] = vOut[row + 2] = vOut[row + 3] = 0;
+            KERNELS.dot4(m, row * cols, cols, v, 0, cols, vOut, row);
+        }
+        for (; row < rows; row++) vOut[row] = KERNELS.dot(m, row * cols, v, 0, cols);
+    }
 }
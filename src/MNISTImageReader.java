@@ -1,6 +1,14 @@
 import java.io.*;
-
-public class MNISTImageReader {
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * reads images and lables from a pair of IDX files
+ * both files are memory mapped once and every read is an absolute get on the mapping,
+ * so reads never touch the file system and can happen from any number of threads
+ */
+public class MNISTImageReader implements ImageDataset {
     private final int IMAGE_HEADING_OFFSET = 16;
     private final int IMAGE_OFFSET = 784;
 
@@ -10,6 +18,9 @@ public class MNISTImageReader {
     File imageFile;
     File lableFile;
 
+    private final MappedByteBuffer imageBuffer;
+    private final MappedByteBuffer lableBuffer;
+
     private int dimentionRow;
     private int dimentionCol;
 
@@ -23,81 +34,151 @@ public class MNISTImageReader {
         imageFile = inImageFile;
         lableFile = inLableFile;
 
-        // get images
-        try (FileInputStream imageReader = new FileInputStream(imageFile))
-        {
-            imageMagicNumber = getInt(imageReader);
-            numImages = getInt(imageReader);
-            dimentionRow = getInt(imageReader);
-            dimentionCol = getInt(imageReader);
-        }
-        catch(Exception e)
-        {
-            e.printStackTrace();
-        }
+        imageBuffer = map(imageFile);
+        lableBuffer = map(lableFile);
+
+        // get images, IDX headers are big endian which is the buffer default
+        imageMagicNumber = imageBuffer.getInt(0);
+        numImages = imageBuffer.getInt(4);
+        dimentionRow = imageBuffer.getInt(8);
+        dimentionCol = imageBuffer.getInt(12);
 
         // get lables
-        try (FileInputStream lableReader = new FileInputStream(lableFile))
+        lableMagicNumber = lableBuffer.getInt(0);
+
+        if (dimentionRow * dimentionCol != IMAGE_OFFSET)
         {
-            lableMagicNumber = getInt(lableReader);
+            throw new IllegalArgumentException("images must be " + IMAGE_OFFSET + " pixels");
         }
-        catch(Exception e)
+
+        if (imageBuffer.capacity() < IMAGE_HEADING_OFFSET + (long) IMAGE_OFFSET * numImages
+            || lableBuffer.capacity() < LABLE_HEADING_OFFSET + (long) LABLE_OFFSET * numImages)
         {
-            e.printStackTrace();
+            throw new IllegalArgumentException("image or lable file is shorter than its header says");
         }
     }
 
-    private static int getInt(FileInputStream reader) throws IOException
+    private static MappedByteBuffer map(File file)
     {
-        int num = 0;
-        for (int i = 0; i < 4; i++) num |= (reader.read() & 0xFF) << (i * 8);
-        return Integer.reverseBytes(num);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("could not map " + file, e);
+        }
     }
 
     public int[][] getImage(int num)
     {
-        long offset = IMAGE_HEADING_OFFSET + (long) IMAGE_OFFSET * num;
+        int offset = getImageOffset(num);
 
         int[][] image = new int[dimentionRow][dimentionCol];
 
-        try (FileInputStream imageReader = new FileInputStream(imageFile))
+        for (int row = 0; row < dimentionRow; row++)
         {
-            imageReader.skip(offset);
-
-            for (int row = 0; row < dimentionRow; row++)
+            for (int col = 0; col < dimentionCol; col++)
             {
-                for (int col = 0; col < dimentionCol; col++)
-                {
-                    image[row][col] = imageReader.read();
-                }
+                image[row][col] = imageBuffer.get(offset++) & 0xFF;
             }
         }
-        catch (Exception e)
+
+        return image;
+    }
+
+    /**
+     * copies the raw pixels of an image, row by row
+     * @param num is the index of the image
+     * @param out receives the 784 unsigned pixel values, read them with & 0xFF
+     */
+    public void getImage(int num, byte[] out)
+    {
+        imageBuffer.get(getImageOffset(num), out, 0, IMAGE_OFFSET);
+    }
+
+    /**
+     * copies an image row by row with every pixel scaled from 0-255 to 0-1
+     * @param num is the index of the image
+     * @param out receives the 784 pixels
+     * @param outOffset is where in out the image starts, so an image can be put straight into a batch row
+     */
+    @Override
+    public void getImage(int num, float[] out, int outOffset)
+    {
+        int offset = getImageOffset(num);
+
+        for (int i = 0; i < IMAGE_OFFSET; i++)
         {
-            e.printStackTrace();
+            out[outOffset + i] = (imageBuffer.get(offset + i) & 0xFF) / 255.0f;
         }
+    }
 
-        return image;
+    /**
+     * copies an image row by row with every pixel scaled from 0-255 to 0-1
+     * @param num is the index of the image
+     * @param out receives the 784 pixels
+     * @param outOffset is where in out the image starts, so an image can be put straight into a batch row
+     */
+    @Override
+    public void getImage(int num, double[] out, int outOffset)
+    {
+        int offset = getImageOffset(num);
+
+        for (int i = 0; i < IMAGE_OFFSET; i++)
+        {
+            out[outOffset + i] = (imageBuffer.get(offset + i) & 0xFF) / 255.0;
+        }
     }
 
-    public int getLable(int num)
+    /**
+     * adds an image as a new row of a sparse matrix with every pixel scaled from 0-255 to 0-1, blank pixels are left out
+     * @param num is the index of the image
+     * @param out receives the row, its cols must be 784
+     */
+    @Override
+    public void getImage(int num, SparseMatrix out)
     {
-        long offset = LABLE_HEADING_OFFSET + (long) LABLE_OFFSET * num;
+        if (out.getCols() != IMAGE_OFFSET)
+        {
+            throw new IllegalArgumentException("sparse matrix must have " + IMAGE_OFFSET + " cols");
+        }
 
-        int lable = -1;
+        int offset = getImageOffset(num);
 
-        try (FileInputStream lableReader = new FileInputStream(lableFile))
+        for (int i = 0; i < IMAGE_OFFSET; i++)
         {
-            lableReader.skip(offset);
+            int pixel = imageBuffer.get(offset + i) & 0xFF;
+
+            if (pixel != 0)
+            {
+                out.append(i, pixel / 255.0);
+            }
+        }
+
+        out.endRow();
+    }
 
-            lable = lableReader.read();
+    @Override
+    public int getLable(int num)
+    {
+        if (num < 0 || num >= numImages)
+        {
+            throw new IndexOutOfBoundsException("lable " + num + " out of " + numImages);
         }
-        catch (Exception e)
+
+        return lableBuffer.get(LABLE_HEADING_OFFSET + LABLE_OFFSET * num) & 0xFF;
+    }
+
+    private int getImageOffset(int num)
+    {
+        if (num < 0 || num >= numImages)
         {
-            e.printStackTrace();
+            throw new IndexOutOfBoundsException("image " + num + " out of " + numImages);
         }
 
-        return lable;
+        return IMAGE_HEADING_OFFSET + IMAGE_OFFSET * num;
     }
 
     public int getImageMagicNumber()
@@ -110,6 +191,7 @@ public class MNISTImageReader {
         return lableMagicNumber;
     }
 
+    @Override
     public int getNumImages()
     {
         return numImages;
@@ -0,0 +1,228 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * a read-only network that evaluates straight from a memory mapped save file
+ *
+ * only the header is parsed when loading, so startup takes the same time for any size of network,
+ * and every process that maps the same file shares one copy of the weights through the page cache
+ * the weights are never copied onto the heap, only the biases are
+ *
+ * reads every format NetworkFile does, in either dtype, evaluation is always done in double precision
+ * like NeuralNetwork, evaluate is thread safe and takes its scratch space from a pool of workspaces
+ *
+ * the mapping is of the file as it was when this was made, NetworkFile saves by renaming a new file over the old one,
+ * so after a save this keeps evaluating the old weights from the old inode, which stays on disk until this is unreachable
+ * to pick up a new save construct a new MappedNetwork on the same file and drop this one, nothing here reloads in place
+ * writing into the mapped file in place instead of renaming over it is not supported, it changes the weights mid-evaluation
+ */
+public class MappedNetwork {
+
+    // the activation is a leaky ReLU, this is its slope below 0
+    private static final double LEAK = 0.05;
+
+    private final File file;
+
+    private final byte dtype;
+    private final int numLayers;
+    private final int[] layerSizes;
+
+    // views of each layer's weights in the mapping, only the ones for the dtype of the file are set
+    private final DoubleBuffer[] doubleWeights;
+    private final FloatBuffer[] floatWeights;
+
+    private final double[][] biases;
+
+    private final WorkspacePool<InferenceWorkspace> inferenceWorkspaces = new WorkspacePool<>(this::newInferenceWorkspace);
+
+    /**
+     * maps a saved network without checking its checksum, so no weights are read until they are used
+     * @throws UncheckedIOException if the file cannot be mapped or its header is not valid
+     */
+    public MappedNetwork(File inFile)
+    {
+        this(inFile, false);
+    }
+
+    /**
+     * maps a saved network
+     * @param inFile is the saved network
+     * @param verifyChecksum reads the whole file once to check its checksum, which costs the startup time mapping saves
+     * @throws UncheckedIOException if the file cannot be mapped, its header is not valid or the checksum does not match
+     */
+    public MappedNetwork(File inFile, boolean verifyChecksum)
+    {
+        file = inFile;
+
+        ByteBuffer buffer = map(file).order(ByteOrder.LITTLE_ENDIAN);
+
+        NetworkFile header;
+        try
+        {
+            if (verifyChecksum)
+            {
+                NetworkFile.verifyChecksum(buffer, file);
+            }
+
+            header = NetworkFile.readHeader(buffer, file);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("could not load network from " + file, e);
+        }
+
+        dtype = header.getDtype();
+        numLayers = header.getNumLayers();
+        layerSizes = header.getLayerSizes().clone();
+
+        doubleWeights = dtype == NetworkFile.DTYPE_FLOAT64 ? new DoubleBuffer[numLayers] : null;
+        floatWeights = dtype == NetworkFile.DTYPE_FLOAT32 ? new FloatBuffer[numLayers] : null;
+
+        biases = new double[numLayers][];
+
+        int elementSize = dtype == NetworkFile.DTYPE_FLOAT64 ? Double.BYTES : Float.BYTES;
+        int position = header.getDataOffset();
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            int numWeights = layerSizes[layer] * layerSizes[layer + 1];
+            int numBiases = layerSizes[layer + 1];
+
+            ByteBuffer weightBytes = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(position).limit(position + numWeights * elementSize);
+            ByteBuffer biasBytes = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(position + numWeights * elementSize);
+
+            biases[layer] = new double[numBiases];
+
+            if (dtype == NetworkFile.DTYPE_FLOAT64)
+            {
+                doubleWeights[layer] = weightBytes.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                biasBytes.asDoubleBuffer().get(biases[layer]);
+            }
+            else
+            {
+                floatWeights[layer] = weightBytes.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+                FloatBuffer floatBiases = biasBytes.asFloatBuffer();
+                for (int i = 0; i < numBiases; i++) biases[layer][i] = floatBiases.get(i);
+            }
+
+            position += (numWeights + numBiases) * elementSize;
+        }
+    }
+
+    private static MappedByteBuffer map(File file)
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " is too large to map as one network");
+            }
+
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("could not map " + file, e);
+        }
+    }
+
+    /**
+     * evaluates a given input using only the given workspace for scratch space
+     * the network is only read, so any number of threads can evaluate at once as long as each has its own workspace
+     * @param in is the input
+     * @param workspace is scratch space made by newInferenceWorkspace
+     * @return the evaluation of the network, the array belongs to the workspace
+     */
+    public double[] evaluate(double[] in, InferenceWorkspace workspace)
+    {
+        if (in.length != layerSizes[0])
+        {
+            throw new IllegalArgumentException("in length must match in length of the first layer of the network");
+        }
+
+        double[] out = in;
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            double[] layerOut = workspace.outputs[layer];
+
+            if (dtype == NetworkFile.DTYPE_FLOAT64)
+            {
+                LinearAlgebra.dot(doubleWeights[layer], layerSizes[layer + 1], layerSizes[layer], out, layerOut);
+            }
+            else
+            {
+                LinearAlgebra.dot(floatWeights[layer], layerSizes[layer + 1], layerSizes[layer], out, layerOut);
+            }
+
+            LinearAlgebra.addBiasLeakyRelu(layerOut, 0, biases[layer], layerOut, 0, LEAK);
+
+            out = layerOut;
+        }
+
+        return out;
+    }
+
+    /**
+     * thread safe evaluate that takes its scratch space from a pool shared by every calling thread, so it allocates nothing
+     * once warmed up, on platform threads and on virtual threads made per call alike
+     * @param in is the input
+     * @param out receives the evaluation, its length must match the last layer
+     */
+    public void evaluate(double[] in, double[] out)
+    {
+        if (out.length != layerSizes[numLayers])
+        {
+            throw new IllegalArgumentException("out length must match out length of the last layer in the netword");
+        }
+
+        InferenceWorkspace workspace = inferenceWorkspaces.take();
+
+        try
+        {
+            double[] netOut = evaluate(in, workspace);
+
+            System.arraycopy(netOut, 0, out, 0, out.length);
+        }
+        finally
+        {
+            inferenceWorkspaces.give(workspace);
+        }
+    }
+
+    public InferenceWorkspace newInferenceWorkspace()
+    {
+        return new InferenceWorkspace(layerSizes);
+    }
+
+    /**
+     * @return the NetworkFile dtype of the mapped file
+     */
+    public byte getDtype()
+    {
+        return dtype;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public int[] getLayerSizes()
+    {
+        return layerSizes;
+    }
+
+    public int getNumLayers()
+    {
+        return numLayers;
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+/**
+ * a dense row-major matrix backed by a single contiguous array
+ * element (row, col) lives at data[row * cols + col]
+ */
+public class Matrix {
+
+    private final int rows;
+    private final int cols;
+
+    private final double[] data;
+
+    public Matrix(int inRows, int inCols)
+    {
+        if (inRows < 0 || inCols < 0)
+        {
+            throw new IllegalArgumentException("matrix dimentions must not be negative");
+        }
+
+        rows = inRows;
+        cols = inCols;
+
+        data = new double[inRows * inCols];
+    }
+
+    /**
+     * wraps an existing row-major array, the matrix uses the array directly instead of copying it
+     */
+    public Matrix(int inRows, int inCols, double[] inData)
+    {
+        if (inRows < 0 || inCols < 0 || inData.length != inRows * inCols)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match the data length");
+        }
+
+        rows = inRows;
+        cols = inCols;
+
+        data = inData;
+    }
+
+    public Matrix(double[][] values)
+    {
+        this(values.length, values.length == 0 ? 0 : values[0].length);
+
+        for (int row = 0; row < rows; row ++)
+        {
+            if (values[row].length != cols)
+            {
+                throw new IllegalArgumentException("matrix rows must all have the same length");
+            }
+
+            System.arraycopy(values[row], 0, data, row * cols, cols);
+        }
+    }
+
+    public double get(int row, int col)
+    {
+        return data[row * cols + col];
+    }
+
+    public void set(int row, int col, double value)
+    {
+        data[row * cols + col] = value;
+    }
+
+    public void fill(double value)
+    {
+        Arrays.fill(data, value);
+    }
+
+    public void copyFrom(Matrix other)
+    {
+        if (other.rows != rows || other.cols != cols)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        System.arraycopy(other.data, 0, data, 0, data.length);
+    }
+
+    /**
+     * @return a row-by-row copy of the matrix
+     */
+    public double[][] toArray()
+    {
+        double[][] values = new double[rows][cols];
+        for (int row = 0; row < rows; row ++)
+        {
+            System.arraycopy(data, row * cols, values[row], 0, cols);
+        }
+        return values;
+    }
+
+    /**
+     * the backing array is shared, not copied, so kernels can work on it directly
+     * @return the row-major backing array
+     */
+    public double[] getData()
+    {
+        return data;
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getCols()
+    {
+        return cols;
+    }
+}
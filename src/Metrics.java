@@ -0,0 +1,122 @@
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * turns the training and inference instrumentation on and reports it
+ *
+ *   -Dnn.metrics=true          records metrics for every network, off by default
+ *   -Dnn.metrics.period=10     seconds between reports
+ *   -Dnn.metrics.log=false     stops the log line, the MBeans are still updated
+ *
+ * ENABLED is a constant, so when it is false the JIT removes every timing and counting branch around it
+ * every network is registered as the MBean NeuralNetwork:type=TrainingMetrics,name=network-N
+ * and once a period each one's rates are updated and a key=value line is printed
+ * a network stays registered, and reachable from here, until its metrics are passed to unregister
+ */
+public class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("nn.metrics");
+
+    private static final long PERIOD_SECONDS = Long.getLong("nn.metrics.period", 10);
+    private static final boolean LOG = Boolean.parseBoolean(System.getProperty("nn.metrics.log", "true"));
+
+    private static final List<TrainingMetrics> registered = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private static ScheduledExecutorService reporter;
+
+    private Metrics()
+    {
+    }
+
+    /**
+     * makes and registers the metrics for a new network
+     * @param numLayers is the number of layers in the network
+     * @return the metrics, or null if metrics are disabled
+     */
+    public static TrainingMetrics newTrainingMetrics(int numLayers)
+    {
+        if (!ENABLED)
+        {
+            return null;
+        }
+
+        TrainingMetrics metrics = new TrainingMetrics("network-" + nextId.getAndIncrement(), numLayers);
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName(metrics));
+        }
+        catch (JMException e)
+        {
+            System.err.println("could not register metrics MBean " + metrics.getName() + ": " + e);
+        }
+
+        registered.add(metrics);
+        startReporter();
+
+        return metrics;
+    }
+
+    /**
+     * removes the MBean of a network that is no longer used and stops reporting it, so it can be collected
+     * @param metrics is what getMetrics of the network returned, null does nothing so it is safe when metrics are disabled
+     */
+    public static void unregister(TrainingMetrics metrics)
+    {
+        if (metrics == null || !registered.remove(metrics))
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(metrics));
+        }
+        catch (JMException e)
+        {
+            // it was never registered, newTrainingMetrics already reported why
+        }
+    }
+
+    private static ObjectName objectName(TrainingMetrics metrics) throws JMException
+    {
+        return new ObjectName("NeuralNetwork:type=TrainingMetrics,name=" + metrics.getName());
+    }
+
+    private static synchronized void startReporter()
+    {
+        if (reporter != null)
+        {
+            return;
+        }
+
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        reporter.scheduleAtFixedRate(Metrics::report, PERIOD_SECONDS, PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void report()
+    {
+        for (TrainingMetrics metrics : registered)
+        {
+            metrics.tick();
+
+            if (LOG)
+            {
+                System.out.println(metrics.toLogLine());
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * gradient descent with momentum, every parameter moves along a velocity that decays by the momentum each step
+ * and gathers the mean gradient, so steps that agree build up and steps that oscillate cancel
+ * keeps one double of state per parameter, the velocity
+ */
+public class MomentumOptimizer implements Optimizer {
+
+    private final double momentum;
+
+    public MomentumOptimizer()
+    {
+        this(0.9);
+    }
+
+    /**
+     * @param inMomentum is the fraction of the velocity kept each step, between 0 and 1
+     */
+    public MomentumOptimizer(double inMomentum)
+    {
+        if (!(inMomentum >= 0 && inMomentum < 1))
+        {
+            throw new IllegalArgumentException("momentum must be at least 0 and less than 1");
+        }
+
+        momentum = inMomentum;
+    }
+
+    @Override
+    public byte getId()
+    {
+        return MOMENTUM;
+    }
+
+    @Override
+    public int getStateSize()
+    {
+        return 1;
+    }
+
+    @Override
+    public double[] getHyperparameters()
+    {
+        return new double[] {momentum};
+    }
+
+    @Override
+    public void update(double[] params, double[] gradSums, int count, double[] state, double stepSize, long step, int start, int end)
+    {
+        double scale = 1.0 / count;
+
+        for (int i = start; i < end; i ++)
+        {
+            double velocity = momentum * state[i] + gradSums[i] * scale;
+
+            state[i] = velocity;
+            params[i] -= stepSize * velocity;
+        }
+    }
+}
@@ -0,0 +1,663 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * reads and writes saved networks
+ *
+ * the current format is little endian:
+ *   int     magic, the bytes "NNET"
+ *   short   version
+ *   byte    dtype, DTYPE_FLOAT64 or DTYPE_FLOAT32
+ *   byte    flags, FLAG_OPTIMIZER_STATE or 0, always 0 in version 1
+ *   int     number of layers
+ *   int     data offset, where the first weight starts, always a multiple of DATA_ALIGNMENT
+ *   int[]   layer sizes, number of layers + 1 of them
+ *   padding up to the data offset
+ *   for every layer its weights row by row, then its biases
+ *   only if FLAG_OPTIMIZER_STATE is set, the optimizer state so training can resume from a checkpoint:
+ *     int      optimizer id, see Optimizer
+ *     int      state size, doubles of state per parameter
+ *     long     number of steps taken
+ *     int      number of hyperparameters
+ *     int      reserved, 0
+ *     double[] hyperparameters
+ *     for every layer the state of its weights, then of its biases, as doubles whatever the dtype
+ *   int     CRC32 of everything before it
+ *
+ * every write goes through a temp file renamed over the target, so a crash never leaves a half written network
+ *
+ * the original double format, which starts with a one byte layer count and has no checksum, is still read
+ * float networks have only ever been saved in the current format with DTYPE_FLOAT32
+ */
+public class NetworkFile {
+
+    public static final int MAGIC = 0x54454E4E; // "NNET" when written little endian
+    public static final short VERSION = 2;
+
+    public static final byte FLAG_OPTIMIZER_STATE = 1;
+
+    public static final byte DTYPE_FLOAT64 = 1;
+    public static final byte DTYPE_FLOAT32 = 2;
+
+    // the data starts on a boundary this size so it can be mapped and read as doubles or floats directly
+    public static final int DATA_ALIGNMENT = 64;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_LAYERS = 1 << 16;
+
+    private static final int OPTIMIZER_HEADER_SIZE = 24;
+    private static final int MAX_STATE_SIZE = 16;
+    private static final int MAX_HYPERPARAMETERS = 16;
+
+    private final byte dtype;
+    private final int[] layerSizes;
+
+    // where the weights of the first layer start in the file
+    private final int dataOffset;
+
+    // one flat row-major array per layer, only the arrays for the dtype of the file are set
+    private final double[][] doubleWeights;
+    private final double[][] doubleBiases;
+    private final float[][] floatWeights;
+    private final float[][] floatBiases;
+
+    // the optimizer section, optimizerId is 0 when the file has none
+    private byte optimizerId;
+    private int optimizerStateSize;
+    private long optimizerStep;
+    private double[] optimizerHyperparameters;
+    private double[][] weightStates;
+    private double[][] biasStates;
+
+    private NetworkFile(byte inDtype, int[] inLayerSizes, int inDataOffset)
+    {
+        dtype = inDtype;
+        layerSizes = inLayerSizes;
+        dataOffset = inDataOffset;
+
+        int numLayers = layerSizes.length - 1;
+
+        if (dtype == DTYPE_FLOAT64)
+        {
+            doubleWeights = new double[numLayers][];
+            doubleBiases = new double[numLayers][];
+            floatWeights = null;
+            floatBiases = null;
+        }
+        else
+        {
+            doubleWeights = null;
+            doubleBiases = null;
+            floatWeights = new float[numLayers][];
+            floatBiases = new float[numLayers][];
+        }
+    }
+
+    /**
+     * reads a saved network in any of the supported formats
+     * @param file is the saved network
+     * @return the contents of the file
+     * @throws IOException if the file cannot be read or is not a valid network file
+     */
+    public static NetworkFile read(File file) throws IOException
+    {
+        ByteBuffer buffer = readFully(file);
+
+        // check the checksum before trusting anything else in the file
+        verifyChecksum(buffer, file);
+
+        NetworkFile contents = readHeader(buffer, file);
+
+        buffer.position(contents.dataOffset);
+
+        for (int layer = 0; layer < contents.getNumLayers(); layer ++)
+        {
+            int numWeights = contents.layerSizes[layer] * contents.layerSizes[layer + 1];
+            int numBiases = contents.layerSizes[layer + 1];
+
+            if (contents.dtype == DTYPE_FLOAT64)
+            {
+                contents.doubleWeights[layer] = new double[numWeights];
+                contents.doubleBiases[layer] = new double[numBiases];
+
+                buffer.asDoubleBuffer().get(contents.doubleWeights[layer]).get(contents.doubleBiases[layer]);
+                buffer.position(buffer.position() + (numWeights + numBiases) * Double.BYTES);
+            }
+            else
+            {
+                contents.floatWeights[layer] = new float[numWeights];
+                contents.floatBiases[layer] = new float[numBiases];
+
+                buffer.asFloatBuffer().get(contents.floatWeights[layer]).get(contents.floatBiases[layer]);
+                buffer.position(buffer.position() + (numWeights + numBiases) * Float.BYTES);
+            }
+        }
+
+        if (contents.hasOptimizerState())
+        {
+            readOptimizerState(buffer, contents);
+        }
+
+        return contents;
+    }
+
+    // the section header was already read by readHeader, this reads the states after it
+    private static void readOptimizerState(ByteBuffer buffer, NetworkFile contents)
+    {
+        buffer.position(buffer.position() + OPTIMIZER_HEADER_SIZE + contents.optimizerHyperparameters.length * Double.BYTES);
+
+        int numLayers = contents.getNumLayers();
+
+        contents.weightStates = new double[numLayers][];
+        contents.biasStates = new double[numLayers][];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            contents.weightStates[layer] = new double[contents.optimizerStateSize * contents.layerSizes[layer] * contents.layerSizes[layer + 1]];
+            contents.biasStates[layer] = new double[contents.optimizerStateSize * contents.layerSizes[layer + 1]];
+
+            buffer.asDoubleBuffer().get(contents.weightStates[layer]).get(contents.biasStates[layer]);
+            buffer.position(buffer.position() + (contents.weightStates[layer].length + contents.biasStates[layer].length) * Double.BYTES);
+        }
+    }
+
+    private static ByteBuffer readFully(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " is too large to be a network file");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    throw new EOFException("unexpected end of " + file);
+                }
+            }
+
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * checks the CRC32 at the end of a current format file, older formats have no checksum so are not checked
+     * @param buffer is the whole file, little endian
+     * @param file is only used in error messages
+     * @throws IOException if the checksum does not match
+     */
+    static void verifyChecksum(ByteBuffer buffer, File file) throws IOException
+    {
+        if (buffer.limit() < HEADER_SIZE + 4 || buffer.getInt(0) != MAGIC)
+        {
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(buffer.limit() - 4));
+
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4))
+        {
+            throw new IOException(file + " is corrupt, checksum does not match");
+        }
+    }
+
+    /**
+     * reads only the header of a saved network in any of the supported formats and checks the file is the right length
+     * none of the weights are read, so this takes the same time for any size of network
+     * @param buffer is the whole file, little endian, its position is not changed
+     * @param file is only used in error messages
+     * @return the dtype, layer sizes and data offset, the weights and biases are not filled in
+     * @throws IOException if the header is not valid or does not match the length of the file
+     */
+    static NetworkFile readHeader(ByteBuffer buffer, File file) throws IOException
+    {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(0);
+
+        if (buffer.remaining() >= 4 && buffer.getInt(0) == MAGIC)
+        {
+            return readCurrentHeader(buffer, file);
+        }
+
+        return readLegacyHeader(buffer, file);
+    }
+
+    private static NetworkFile readCurrentHeader(ByteBuffer buffer, File file) throws IOException
+    {
+        if (buffer.remaining() < HEADER_SIZE + 4)
+        {
+            throw new IOException(file + " is too short for its header");
+        }
+
+        buffer.position(4);
+
+        short version = buffer.getShort();
+        byte dtype = buffer.get();
+        byte flags = buffer.get();
+
+        if (version != 1 && version != VERSION)
+        {
+            throw new IOException(file + " has unsupported version " + version);
+        }
+
+        if (dtype != DTYPE_FLOAT64 && dtype != DTYPE_FLOAT32)
+        {
+            throw new IOException(file + " has unknown dtype " + dtype);
+        }
+
+        int numLayers = buffer.getInt();
+        int dataOffset = buffer.getInt();
+
+        int[] layerSizes = readLayerSizes(buffer, numLayers, file);
+
+        if (dataOffset != dataOffset(numLayers))
+        {
+            throw new IOException(file + " has a bad data offset");
+        }
+
+        NetworkFile contents = new NetworkFile(dtype, layerSizes, dataOffset);
+
+        long optimizerOffset = dataOffset + dataSize(layerSizes, dtype);
+        long optimizerSize = 0;
+
+        if ((flags & FLAG_OPTIMIZER_STATE) != 0)
+        {
+            optimizerSize = readOptimizerHeader(buffer, optimizerOffset, contents, file);
+        }
+
+        checkSize(buffer.limit(), optimizerOffset + optimizerSize + 4, file);
+
+        return contents;
+    }
+
+    /**
+     * reads the start of the optimizer section into contents
+     * @return the size of the whole section
+     */
+    private static long readOptimizerHeader(ByteBuffer buffer, long offset, NetworkFile contents, File file) throws IOException
+    {
+        if (offset + OPTIMIZER_HEADER_SIZE > buffer.limit())
+        {
+            throw new IOException(file + " is too short for its optimizer state");
+        }
+
+        buffer.position((int) offset);
+
+        int id = buffer.getInt();
+        int stateSize = buffer.getInt();
+        long step = buffer.getLong();
+        int numHyperparameters = buffer.getInt();
+        buffer.getInt();
+
+        if (id < 1 || id > Byte.MAX_VALUE || stateSize < 0 || stateSize > MAX_STATE_SIZE || step < 0
+            || numHyperparameters < 0 || numHyperparameters > MAX_HYPERPARAMETERS || buffer.remaining() < numHyperparameters * Double.BYTES)
+        {
+            throw new IOException(file + " has a bad optimizer state header");
+        }
+
+        contents.optimizerId = (byte) id;
+        contents.optimizerStateSize = stateSize;
+        contents.optimizerStep = step;
+        contents.optimizerHyperparameters = new double[numHyperparameters];
+        buffer.asDoubleBuffer().get(contents.optimizerHyperparameters);
+
+        return OPTIMIZER_HEADER_SIZE + numHyperparameters * Double.BYTES + stateSize * numParameters(contents.layerSizes) * Double.BYTES;
+    }
+
+    // original double format: one byte layer count, sizes, doubles
+    private static NetworkFile readLegacyHeader(ByteBuffer buffer, File file) throws IOException
+    {
+        int numLayers = buffer.get() & 0xFF;
+
+        int[] layerSizes = readLayerSizes(buffer, numLayers, file);
+
+        checkSize(buffer.limit(), buffer.position() + dataSize(layerSizes, DTYPE_FLOAT64), file);
+
+        return new NetworkFile(DTYPE_FLOAT64, layerSizes, buffer.position());
+    }
+
+    private static int[] readLayerSizes(ByteBuffer buffer, int numLayers, File file) throws IOException
+    {
+        if (numLayers < 1 || numLayers > MAX_LAYERS || buffer.remaining() < 4L * (numLayers + 1))
+        {
+            throw new IOException(file + " has a bad layer count " + numLayers);
+        }
+
+        int[] layerSizes = new int[numLayers + 1];
+
+        for (int layer = 0; layer < numLayers + 1; layer ++)
+        {
+            layerSizes[layer] = buffer.getInt();
+
+            if (layerSizes[layer] < 1)
+            {
+                throw new IOException(file + " has a bad layer size " + layerSizes[layer]);
+            }
+        }
+
+        return layerSizes;
+    }
+
+    private static void checkSize(long actual, long expected, File file) throws IOException
+    {
+        if (actual != expected)
+        {
+            throw new IOException(file + " is " + actual + " bytes but its header says " + expected);
+        }
+    }
+
+    /**
+     * saves a double precision network
+     * @param file is where to save
+     * @param layerSizes is the size of every layer including the input
+     * @param weights is the weight matrix of each layer
+     * @param biases is the biases of each layer
+     */
+    public static void write(File file, int[] layerSizes, Matrix[] weights, double[][] biases) throws IOException
+    {
+        write(file, layerSizes, weights, biases, null, 0, null, null);
+    }
+
+    /**
+     * saves a double precision network along with the state of its optimizer, so training can resume from it
+     * @param file is where to save
+     * @param layerSizes is the size of every layer including the input
+     * @param weights is the weight matrix of each layer
+     * @param biases is the biases of each layer
+     * @param optimizer is the optimizer training the network, null to save no optimizer state
+     * @param step is the number of steps the optimizer has taken
+     * @param weightStates is the optimizer state of the weights of each layer, a null layer is saved as zeros
+     * @param biasStates is the optimizer state of the biases of each layer, a null layer is saved as zeros
+     */
+    public static void write(File file, int[] layerSizes, Matrix[] weights, double[][] biases,
+        Optimizer optimizer, long step, double[][] weightStates, double[][] biasStates) throws IOException
+    {
+        ByteBuffer buffer = startWrite(layerSizes, DTYPE_FLOAT64, optimizer);
+
+        for (int layer = 0; layer < weights.length; layer ++)
+        {
+            buffer.asDoubleBuffer().put(weights[layer].getData(), 0, layerSizes[layer] * layerSizes[layer + 1]).put(biases[layer]);
+            buffer.position(buffer.position() + (layerSizes[layer] + 1) * layerSizes[layer + 1] * Double.BYTES);
+        }
+
+        if (optimizer != null)
+        {
+            writeOptimizerState(buffer, layerSizes, optimizer, step, weightStates, biasStates);
+        }
+
+        finishWrite(buffer, file);
+    }
+
+    private static void writeOptimizerState(ByteBuffer buffer, int[] layerSizes, Optimizer optimizer, long step,
+        double[][] weightStates, double[][] biasStates)
+    {
+        int stateSize = optimizer.getStateSize();
+        double[] hyperparameters = optimizer.getHyperparameters();
+
+        buffer.putInt(optimizer.getId());
+        buffer.putInt(stateSize);
+        buffer.putLong(step);
+        buffer.putInt(hyperparameters.length);
+        buffer.putInt(0);
+
+        buffer.asDoubleBuffer().put(hyperparameters);
+        buffer.position(buffer.position() + hyperparameters.length * Double.BYTES);
+
+        for (int layer = 0; layer < layerSizes.length - 1; layer ++)
+        {
+            int weightStateLength = stateSize * layerSizes[layer] * layerSizes[layer + 1];
+            int biasStateLength = stateSize * layerSizes[layer + 1];
+
+            // the buffer starts zeroed, so a layer with no state yet is skipped over
+            if (weightStates[layer] != null && biasStates[layer] != null)
+            {
+                if (weightStates[layer].length != weightStateLength || biasStates[layer].length != biasStateLength)
+                {
+                    throw new IllegalArgumentException("optimizer state dimentions must match the network");
+                }
+
+                buffer.asDoubleBuffer().put(weightStates[layer]).put(biasStates[layer]);
+            }
+
+            buffer.position(buffer.position() + (weightStateLength + biasStateLength) * Double.BYTES);
+        }
+    }
+
+    /**
+     * saves a single precision network
+     * @param file is where to save
+     * @param layerSizes is the size of every layer including the input
+     * @param weights is the weight matrix of each layer
+     * @param biases is the biases of each layer
+     */
+    public static void write(File file, int[] layerSizes, FloatMatrix[] weights, float[][] biases) throws IOException
+    {
+        ByteBuffer buffer = startWrite(layerSizes, DTYPE_FLOAT32, null);
+
+        for (int layer = 0; layer < weights.length; layer ++)
+        {
+            buffer.asFloatBuffer().put(weights[layer].getData(), 0, layerSizes[layer] * layerSizes[layer + 1]).put(biases[layer]);
+            buffer.position(buffer.position() + (layerSizes[layer] + 1) * layerSizes[layer + 1] * Float.BYTES);
+        }
+
+        finishWrite(buffer, file);
+    }
+
+    private static ByteBuffer startWrite(int[] layerSizes, byte dtype, Optimizer optimizer)
+    {
+        int numLayers = layerSizes.length - 1;
+        int dataOffset = dataOffset(numLayers);
+
+        long size = dataOffset + dataSize(layerSizes, dtype) + 4;
+
+        if (optimizer != null)
+        {
+            size += OPTIMIZER_HEADER_SIZE + optimizer.getHyperparameters().length * Double.BYTES
+                + (long) optimizer.getStateSize() * numParameters(layerSizes) * Double.BYTES;
+        }
+
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("network is too large to save in one file");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.put(dtype);
+        buffer.put(optimizer != null ? FLAG_OPTIMIZER_STATE : 0);
+        buffer.putInt(numLayers);
+        buffer.putInt(dataOffset);
+
+        for (int layerSize : layerSizes)
+        {
+            buffer.putInt(layerSize);
+        }
+
+        buffer.position(dataOffset);
+        return buffer;
+    }
+
+    private static void finishWrite(ByteBuffer buffer, File file) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().flip());
+        buffer.putInt((int) crc.getValue());
+
+        buffer.flip();
+
+        writeAtomically(buffer, file);
+    }
+
+    /**
+     * writes a buffer to a new temp file next to file, forces it to disk and renames it over the file
+     * the file always holds either its old contents or the whole new ones, even if the process dies mid-write,
+     * and a reader that has the old file open or mapped keeps seeing the old contents
+     * every call has its own temp file, so saves of the same file at once never touch each other's, the last rename wins
+     */
+    static void writeAtomically(ByteBuffer buffer, File file) throws IOException
+    {
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+
+        try
+        {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE))
+            {
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+
+                channel.force(true);
+            }
+
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+
+        // makes the rename durable, not every platform can open a directory so this is best effort
+        try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ))
+        {
+            directory.force(true);
+        }
+        catch (IOException e)
+        {
+            // the rename is still atomic, it may just not survive a power cut
+        }
+    }
+
+    /**
+     * @return where the weights start in a current format file with this many layers
+     */
+    public static int dataOffset(int numLayers)
+    {
+        int headerEnd = HEADER_SIZE + 4 * (numLayers + 1);
+        return (headerEnd + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+    }
+
+    private static long dataSize(int[] layerSizes, byte dtype)
+    {
+        return numParameters(layerSizes) * (dtype == DTYPE_FLOAT64 ? Double.BYTES : Float.BYTES);
+    }
+
+    // the number of weights and biases in every layer
+    private static long numParameters(int[] layerSizes)
+    {
+        long count = 0;
+        for (int layer = 0; layer < layerSizes.length - 1; layer ++)
+        {
+            count += (long) (layerSizes[layer] + 1) * layerSizes[layer + 1];
+        }
+        return count;
+    }
+
+    public byte getDtype()
+    {
+        return dtype;
+    }
+
+    public int[] getLayerSizes()
+    {
+        return layerSizes;
+    }
+
+    public int getNumLayers()
+    {
+        return layerSizes.length - 1;
+    }
+
+    public int getDataOffset()
+    {
+        return dataOffset;
+    }
+
+    /**
+     * @return the row-major weights of a layer, widened if the file is single precision
+     */
+    public double[] getWeightsAsDoubles(int layer)
+    {
+        return doubleWeights != null ? doubleWeights[layer] : widen(floatWeights[layer]);
+    }
+
+    public double[] getBiasesAsDoubles(int layer)
+    {
+        return doubleBiases != null ? doubleBiases[layer] : widen(floatBiases[layer]);
+    }
+
+    /**
+     * @return the row-major weights of a layer, rounded if the file is double precision
+     */
+    public float[] getWeightsAsFloats(int layer)
+    {
+        return floatWeights != null ? floatWeights[layer] : round(doubleWeights[layer]);
+    }
+
+    public float[] getBiasesAsFloats(int layer)
+    {
+        return floatBiases != null ? floatBiases[layer] : round(doubleBiases[layer]);
+    }
+
+    /**
+     * @return true if the file was saved with the state of an optimizer
+     */
+    public boolean hasOptimizerState()
+    {
+        return optimizerId != 0;
+    }
+
+    /**
+     * @return the optimizer the file was saved with, with fresh state, or null if it has no optimizer state
+     */
+    public Optimizer getOptimizer()
+    {
+        return hasOptimizerState() ? Optimizer.fromSaved(optimizerId, optimizerHyperparameters) : null;
+    }
+
+    public long getOptimizerStep()
+    {
+        return optimizerStep;
+    }
+
+    /**
+     * @return the optimizer state of the weights of a layer, only set by read
+     */
+    public double[] getWeightState(int layer)
+    {
+        return weightStates[layer];
+    }
+
+    public double[] getBiasState(int layer)
+    {
+        return biasStates[layer];
+    }
+
+    private static double[] widen(float[] values)
+    {
+        double[] out = new double[values.length];
+        for (int i = 0; i < values.length; i++) out[i] = values[i];
+        return out;
+    }
+
+    private static float[] round(double[] values)
+    {
+        float[] out = new float[values.length];
+        for (int i = 0; i < values.length; i++) out[i] = (float) values[i];
+        return out;
+    }
+}
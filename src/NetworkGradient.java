@@ -0,0 +1,86 @@
+/**
+ * a summed gradient for every layer of a network, kept apart from the layers so each worker thread can have its own
+ */
+public class NetworkGradient {
+
+    final Matrix[] dWeights;
+    final double[][] dBiases;
+
+    // number of examples summed into the gradient
+    int count;
+
+    public NetworkGradient(int[] layerSizes)
+    {
+        int numLayers = layerSizes.length - 1;
+
+        dWeights = new Matrix[numLayers];
+        dBiases = new double[numLayers][];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            dWeights[layer] = new Matrix(layerSizes[layer + 1], layerSizes[layer]);
+            dBiases[layer] = new double[layerSizes[layer + 1]];
+        }
+
+        count = 0;
+    }
+
+    /**
+     * adds another gradient of the same shape into this one
+     * @param other is the gradient to add
+     */
+    public void add(NetworkGradient other)
+    {
+        for (int layer = 0; layer < dWeights.length; layer ++)
+        {
+            double[] sum = dWeights[layer].getData();
+            double[] otherSum = other.dWeights[layer].getData();
+
+            for (int i = 0; i < sum.length; i++) sum[i] += otherSum[i];
+            for (int i = 0; i < dBiases[layer].length; i++) dBiases[layer][i] += other.dBiases[layer][i];
+        }
+
+        count += other.count;
+    }
+
+    public void clear()
+    {
+        for (int layer = 0; layer < dWeights.length; layer ++)
+        {
+            dWeights[layer].fill(0);
+            for (int i = 0; i < dBiases[layer].length; i++) dBiases[layer][i] = 0;
+        }
+
+        count = 0;
+    }
+
+    /**
+     * clears a gradient whose first layer is only nonzero inside some ranges of its weights, without going over the rest
+     * @param firstLayerRanges is pairs of start and end indices into the first layer's row-major weights
+     * @param numFirstLayerRanges is the number of pairs
+     */
+    public void clear(int[] firstLayerRanges, int numFirstLayerRanges)
+    {
+        double[] first = dWeights[0].getData();
+
+        for (int range = 0; range < numFirstLayerRanges; range++)
+        {
+            for (int i = firstLayerRanges[2 * range]; i < firstLayerRanges[2 * range + 1]; i++) first[i] = 0;
+        }
+
+        for (int i = 0; i < dBiases[0].length; i++) dBiases[0][i] = 0;
+
+        for (int layer = 1; layer < dWeights.length; layer ++)
+        {
+            dWeights[layer].fill(0);
+            for (int i = 0; i < dBiases[layer].length; i++) dBiases[layer][i] = 0;
+        }
+
+        count = 0;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+}
@@ -1,4 +1,5 @@
 import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NeuralNetwork {
     
@@ -13,10 +14,32 @@ public class NeuralNetwork {
 
     private int numInBatch;
 
+    // how the layers step along their gradients, a file saved with optimizer state replaces it when loaded
+    private Optimizer optimizer = new SGDOptimizer();
+
+    // null to use stepSize for every step
+    private LearningRateSchedule schedule;
+
+    // number of steps taken by the optimizer, saved in checkpoints, atomic so Hogwild threads can each take a step number
+    private final AtomicLong numSteps = new AtomicLong();
+
+    // derivative of the cost for train, reused between calls
+    private double[] dCost;
+
+    private BatchWorkspace batchWorkspace;
+
+    // taken by evaluate(double[], double[]) for one call and given back after, more are made while calls overlap
+    private final WorkspacePool<InferenceWorkspace> inferenceWorkspaces = new WorkspacePool<>(this::newInferenceWorkspace);
+
+    // null unless -Dnn.metrics=true, see Metrics
+    private final TrainingMetrics metrics;
+
     public NeuralNetwork(File inFile)
     {
         setUpFromFile(inFile);
 
+        metrics = Metrics.newTrainingMetrics(numLayers);
+
         // setup training vars
         batchSize = 1;
         stepSize = 0.02;
@@ -43,138 +66,165 @@ public class NeuralNetwork {
 
         saveToFile(inFile);
 
+        metrics = Metrics.newTrainingMetrics(numLayers);
+
         // setup training vars
         batchSize = 1;
         stepSize = 0.02;
         numInBatch = 0;
     }
 
+    /**
+     * loads a network saved in any format NetworkFile reads, single precision files are widened
+     * @throws UncheckedIOException if the file cannot be read or is corrupt
+     */
     private void setUpFromFile(File saveFile)
     {
-        try (FileInputStream fileReader = new FileInputStream(saveFile))
+        NetworkFile file;
+        try
         {
-            // get num layers
-            numLayers = fileReader.read();
-
-            layerSizes = new int[numLayers + 1];
-            
-            // get layer sizes
-            for (int layer = 0; layer < numLayers + 1; layer ++)
-            {
-                int layerSize = 0;
-                for (int i = 0; i < 4; i++) layerSize |= ((int) fileReader.read() & 0xFF) << (i * 8);
-                layerSizes[layer] = layerSize;
-            }
+            file = NetworkFile.read(saveFile);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("could not load network from " + saveFile, e);
+        }
 
-            layers = new Layer[numLayers];
+        numLayers = file.getNumLayers();
+        layerSizes = file.getLayerSizes().clone();
 
-            for (int layer = 0; layer < numLayers; layer++)
-            {
-                double[][] weights = new double[layerSizes[layer + 1]][layerSizes[layer]];
+        layers = new Layer[numLayers];
 
-                // get weights from file
-                for (int row = 0; row < layerSizes[layer + 1]; row++)
-                {
-                    for (int col = 0; col < layerSizes[layer]; col++)
-                    {
-                        long rawWeight = 0;
-                        for (int i = 0; i < 8; i++) rawWeight |= ((long) fileReader.read() & 0xFF) << (i * 8);
-                        weights[row][col] = Double.longBitsToDouble(rawWeight);
+        for (int layer = 0; layer < numLayers; layer++)
+        {
+            Matrix weights = new Matrix(layerSizes[layer + 1], layerSizes[layer], file.getWeightsAsDoubles(layer));
 
-                    }
-                }
+            layers[layer] = new Layer(weights, file.getBiasesAsDoubles(layer));
+        }
 
-                double[] biases = new double[layerSizes[layer + 1]];
+        // resume the optimizer of a checkpoint
+        if (file.hasOptimizerState())
+        {
+            optimizer = file.getOptimizer();
+            numSteps.set(file.getOptimizerStep());
 
-                // get biases from file
-                for (int row = 0; row < layerSizes[layer + 1]; row++)
+            if (optimizer.getStateSize() > 0)
+            {
+                for (int layer = 0; layer < numLayers; layer++)
                 {
-                    long rawBias = 0;
-                    for (int i = 0; i < 8; i++) rawBias |= ((long) fileReader.read() & 0xFF) << (i * 8);
-                    biases[row] = Double.longBitsToDouble(rawBias);
+                    layers[layer].setOptimizerState(file.getWeightState(layer), file.getBiasState(layer));
                 }
-
-                layers[layer] = new Layer(weights, biases);
             }
         }
-        catch (Exception e)
-        {
-            e.printStackTrace();
-        }
     }
 
+    /**
+     * saves the network in the current NetworkFile format with double precision
+     * @throws UncheckedIOException if the file cannot be written
+     */
     public void saveToFile(File saveFile)
     {
-        try (FileOutputStream fileWriter = new FileOutputStream(saveFile))
-        {
-            fileWriter.write(numLayers);
-            
-            for  (int layerSize : layerSizes)
-            {
-                for (int i = 0; i < 4; i ++)
-                {
-                    fileWriter.write((byte) layerSize);
-
-                    layerSize >>>= 8;
-                }
-            }
-
-            for  (Layer layer : layers)
-            {
-                double[][] weights = layer.getWeights();
+        Matrix[] weights = new Matrix[numLayers];
+        double[][] biases = new double[numLayers][];
 
-                for (double[] row : weights)
-                {
-                    for (double weight : row)
-                    {
-                        long rawWeight = Double.doubleToLongBits(weight);
-                        for (int i = 0; i < 8; i ++)
-                        {
-                            fileWriter.write((byte) rawWeight);
-
-                            rawWeight >>>= 8;
-                        }
-                    }
-                }
-
-                double[] biases = layer.getBiases();
-
-                for (double bias : biases)
-                {
-                    long rawBias = Double.doubleToLongBits(bias);
-                    for (int i = 0; i < 8; i ++)
-                    {
-                        fileWriter.write((byte) rawBias);
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            weights[layer] = layers[layer].getWeightMatrix();
+            biases[layer] = layers[layer].getBiases();
+        }
 
-                        rawBias >>>= 8;
-                    }
-                }
-            }
+        try
+        {
+            NetworkFile.write(saveFile, layerSizes, weights, biases);
         }
-        catch (Exception e)
+        catch (IOException e)
         {
-            e.printStackTrace();
+            throw new UncheckedIOException("could not save network to " + saveFile, e);
         }
     }
 
     /**
      * evaluates a given input to the neural network
-     * 
+     *
      * @param in
-     * @return the evaluation of the network
+     * @return the evaluation of the network, the array is reused by the next evaluate
      */
     public double[] evaluate(double[] in)
     {
         double[] out = in;
         
-        for (Layer layer : layers)
+        for (int layer = 0; layer < numLayers; layer ++)
         {
-            out = layer.evaluate(out);
+            long start = Metrics.ENABLED ? System.nanoTime() : 0;
+
+            out = layers[layer].evaluate(out);
+
+            if (Metrics.ENABLED) metrics.recordForward(layer, System.nanoTime() - start);
         }
 
         return out;
     }
 
+    /**
+     * evaluates a given input using only the given workspace for scratch space
+     * the network is only read, so any number of threads can evaluate at once as long as each has its own workspace
+     * and nothing is training the network at the same time
+     *
+     * @param in is the input to the network
+     * @param workspace holds the outputs of each layer
+     * @return the evaluation of the network, it is part of the workspace and is overwritten by the next call with it
+     */
+    public double[] evaluate(double[] in, InferenceWorkspace workspace)
+    {
+        double[] out = in;
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            long start = Metrics.ENABLED ? System.nanoTime() : 0;
+
+            layers[layer].evaluate(out, workspace.outputs[layer]);
+            out = workspace.outputs[layer];
+
+            if (Metrics.ENABLED) metrics.recordForward(layer, System.nanoTime() - start);
+        }
+
+        return out;
+    }
+
+    /**
+     * thread safe evaluate that takes its scratch space from a pool shared by every calling thread
+     * once warmed up nothing is allocated, on platform threads and on virtual threads made per call alike
+     * callers that want to own their workspace, say one per request, can use evaluate(in, InferenceWorkspace)
+     *
+     * @param in is the input to the network
+     * @param out receives the evaluation of the network
+     */
+    public void evaluate(double[] in, double[] out)
+    {
+        if (out.length != layerSizes[numLayers])
+        {
+            throw new IllegalArgumentException("out length must match out length of the last layer in the netword");
+        }
+
+        InferenceWorkspace workspace = inferenceWorkspaces.take();
+
+        try
+        {
+            double[] netOut = evaluate(in, workspace);
+
+            System.arraycopy(netOut, 0, out, 0, out.length);
+        }
+        finally
+        {
+            inferenceWorkspaces.give(workspace);
+        }
+    }
+
+    public InferenceWorkspace newInferenceWorkspace()
+    {
+        return new InferenceWorkspace(layerSizes);
+    }
+
     /**
      * train uses a general cost fuction to update the network to match a given input to a given output
      * 
@@ -196,13 +246,18 @@ public class NeuralNetwork {
 
         double[] netOut = evaluate(in);
 
-        double[] dCost = new double[netOut.length];
+        if (dCost == null)
+        {
+            dCost = new double[layerSizes[numLayers]];
+        }
 
         for (int i = 0; i < netOut.length; i ++)
         {
             dCost[i] = 2 * (netOut[i] - target[i]);
         }
 
+        if (Metrics.ENABLED) metrics.recordSamples(netOut, target, 1, netOut.length);
+
         return dTrain(dCost);
     }
 
@@ -215,15 +270,16 @@ public class NeuralNetwork {
     {
         for (int layer = numLayers - 1; layer >= 0; layer --)
         {
+            long start = Metrics.ENABLED ? System.nanoTime() : 0;
+
             dOut = layers[layer].dTrain(dOut);
+
+            if (Metrics.ENABLED) metrics.recordBackward(layer, System.nanoTime() - start);
         }
 
         if (++numInBatch >= batchSize)
         {
-            for (Layer layer : layers)
-            {
-                layer.applyGradient(stepSize);
-            }
+            applyLayerGradients();
 
             numInBatch = 0;
         }
@@ -231,6 +287,346 @@ public class NeuralNetwork {
         return dOut;
     }
 
+    /**
+     * trainBatch trains on a whole mini-batch at once using matrix-matrix products and then applies the gradient
+     * gives the same gradient as calling train on every example of the batch
+     *
+     * @param inputs is one input to the network per row
+     * @param targets is the target output for each input
+     */
+    public void trainBatch(double[][] inputs, double[][] targets)
+    {
+        if (inputs.length != targets.length)
+        {
+            throw new IllegalArgumentException("there must be one target per input");
+        }
+
+        BatchWorkspace workspace = getBatchWorkspace(inputs.length);
+
+        for (int row = 0; row < inputs.length; row ++)
+        {
+            if (inputs[row].length != layerSizes[0])
+            {
+                throw new IllegalArgumentException("in length must match in length of the first layer of the network");
+            }
+
+            if (targets[row].length != layerSizes[numLayers])
+            {
+                throw new IllegalArgumentException("out length must match out length of the last layer in the netword");
+            }
+
+            System.arraycopy(inputs[row], 0, workspace.inputs.getData(), row * layerSizes[0], layerSizes[0]);
+            System.arraycopy(targets[row], 0, workspace.targets.getData(), row * layerSizes[numLayers], layerSizes[numLayers]);
+        }
+
+        trainBatch(workspace.inputs, workspace.targets);
+    }
+
+    /**
+     * same as trainBatch(double[][], double[][]) but takes the batch as matrices, one example per row
+     */
+    public void trainBatch(Matrix inputs, Matrix targets)
+    {
+        BatchWorkspace workspace = getBatchWorkspace(inputs.getRows());
+
+        backpropagateBatch(inputs, null, targets, workspace, null);
+
+        applyLayerGradients();
+
+        numInBatch = 0;
+    }
+
+    /**
+     * same as trainBatch(Matrix, Matrix) for a sparse batch, the first layer only works on the nonzero inputs
+     * for image-like data, where most inputs are 0
+     */
+    public void trainBatch(SparseMatrix inputs, Matrix targets)
+    {
+        BatchWorkspace workspace = getBatchWorkspace(inputs.getRows());
+
+        backpropagateBatch(null, inputs, targets, workspace, null);
+
+        applyLayerGradients();
+
+        numInBatch = 0;
+    }
+
+    // steps every layer along its own accumulated gradient
+    private void applyLayerGradients()
+    {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+
+        long step = numSteps.incrementAndGet();
+        double currentStepSize = schedule != null ? schedule.getStepSize(step - 1) : stepSize;
+
+        for (Layer layer : layers)
+        {
+            layer.applyGradient(optimizer, currentStepSize, step);
+        }
+
+        if (Metrics.ENABLED) metrics.recordApplyGradient(System.nanoTime() - start);
+    }
+
+    /**
+     * computeGradient runs a batch forward and backward and sums its gradient into the given accumulators instead of the layers
+     * only reads the weights of the network, so several threads can call it at once as long as each has its own workspace and gradient
+     *
+     * @param inputs is one input to the network per row
+     * @param targets is the target output for each input
+     * @param workspace holds the activations of the batch, its batch size must match the number of inputs
+     * @param gradient is added to with the gradient of the batch
+     */
+    public void computeGradient(Matrix inputs, Matrix targets, BatchWorkspace workspace, NetworkGradient gradient)
+    {
+        backpropagateBatch(inputs, null, targets, workspace, gradient);
+
+        gradient.count += inputs.getRows();
+    }
+
+    /**
+     * same as computeGradient(Matrix, Matrix, BatchWorkspace, NetworkGradient) for a sparse batch
+     */
+    public void computeGradient(SparseMatrix inputs, Matrix targets, BatchWorkspace workspace, NetworkGradient gradient)
+    {
+        backpropagateBatch(null, inputs, targets, workspace, gradient);
+
+        gradient.count += inputs.getRows();
+    }
+
+    /**
+     * adds a gradient from computeGradient to the network and takes a step along everything summed so far
+     * @param gradient is the gradient to apply, it is not cleared
+     */
+    public void applyGradient(NetworkGradient gradient)
+    {
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            layers[layer].addGradient(gradient.dWeights[layer], gradient.dBiases[layer], gradient.count);
+        }
+
+        applyLayerGradients();
+
+        numInBatch = 0;
+    }
+
+    // forward and backward for a batch, the gradient goes to the layers when gradient is null
+    // the batch is either dense inputs or sparseInputs, the other is null
+    private void backpropagateBatch(Matrix inputs, SparseMatrix sparseInputs, Matrix targets, BatchWorkspace workspace, NetworkGradient gradient)
+    {
+        int rows = checkBatch(inputs, sparseInputs, workspace);
+
+        if (targets.getCols() != layerSizes[numLayers] || targets.getRows() != rows)
+        {
+            throw new IllegalArgumentException("out length must match out length of the last layer in the netword");
+        }
+
+        Matrix out = forwardBatch(inputs, sparseInputs, workspace);
+
+        // derivative of the cost
+        double[] netOut = out.getData();
+        double[] target = targets.getData();
+        double[] dCost = workspace.derivatives[numLayers].getData();
+
+        for (int i = 0; i < dCost.length; i ++)
+        {
+            dCost[i] = 2 * (netOut[i] - target[i]);
+        }
+
+        if (Metrics.ENABLED) metrics.recordSamples(netOut, target, rows, layerSizes[numLayers]);
+
+        // backward
+        for (int layer = numLayers - 1; layer >= 0; layer --)
+        {
+            long start = Metrics.ENABLED ? System.nanoTime() : 0;
+
+            if (layer == 0 && sparseInputs != null)
+            {
+                // the derivative of the network input is never needed, so the sparse path does not make one
+                if (workspace.sparseScratch == null)
+                {
+                    workspace.sparseScratch = new Matrix(layerSizes[0], layerSizes[1]);
+                    workspace.sparseTouched = new boolean[layerSizes[0]];
+                }
+
+                if (gradient == null)
+                {
+                    layers[0].dTrainBatch(sparseInputs, workspace.valuesAfterBiases[1], workspace.derivatives[1],
+                        workspace.sparseScratch, workspace.sparseTouched);
+                }
+                else
+                {
+                    layers[0].dTrainBatch(sparseInputs, workspace.valuesAfterBiases[1], workspace.derivatives[1], gradient.dWeights[0], gradient.dBiases[0],
+                        workspace.sparseScratch, workspace.sparseTouched);
+                }
+            }
+            else
+            {
+                Matrix in = layer == 0 ? inputs : workspace.activations[layer];
+
+                if (gradient == null)
+                {
+                    layers[layer].dTrainBatch(in, workspace.valuesAfterBiases[layer + 1], workspace.derivatives[layer + 1], workspace.derivatives[layer]);
+                }
+                else
+                {
+                    layers[layer].dTrainBatch(in, workspace.valuesAfterBiases[layer + 1], workspace.derivatives[layer + 1], workspace.derivatives[layer],
+                        gradient.dWeights[layer], gradient.dBiases[layer]);
+                }
+            }
+
+            if (Metrics.ENABLED) metrics.recordBackward(layer, System.nanoTime() - start);
+        }
+    }
+
+    // checks a dense or sparse batch against the network and the workspace, returns its number of rows
+    private int checkBatch(Matrix inputs, SparseMatrix sparseInputs, BatchWorkspace workspace)
+    {
+        int cols = sparseInputs != null ? sparseInputs.getCols() : inputs.getCols();
+        int rows = sparseInputs != null ? sparseInputs.getRows() : inputs.getRows();
+
+        if (cols != layerSizes[0])
+        {
+            throw new IllegalArgumentException("in length must match in length of the first layer of the network");
+        }
+
+        if (workspace.getBatchSize() != rows)
+        {
+            throw new IllegalArgumentException("workspace batch size must match the number of inputs");
+        }
+
+        return rows;
+    }
+
+    /**
+     * evaluates a batch of inputs at once, one input per row
+     * only reads the weights of the network, so several threads can call it at once as long as each has its own workspace
+     * @param inputs is one input to the network per row
+     * @param workspace holds the activations of the batch, its batch size must match the number of inputs
+     * @return the evaluation of each input, one per row, the matrix belongs to the workspace and is overwritten by its next use
+     */
+    public Matrix evaluateBatch(Matrix inputs, BatchWorkspace workspace)
+    {
+        checkBatch(inputs, null, workspace);
+
+        return forwardBatch(inputs, null, workspace);
+    }
+
+    /**
+     * same as evaluateBatch(Matrix, BatchWorkspace) for a sparse batch, the first layer only multiplies the nonzero inputs
+     */
+    public Matrix evaluateBatch(SparseMatrix inputs, BatchWorkspace workspace)
+    {
+        checkBatch(null, inputs, workspace);
+
+        return forwardBatch(null, inputs, workspace);
+    }
+
+    // runs a dense or sparse batch through every layer, leaving the activations of each in the workspace
+    private Matrix forwardBatch(Matrix inputs, SparseMatrix sparseInputs, BatchWorkspace workspace)
+    {
+        Matrix out = inputs;
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            long start = Metrics.ENABLED ? System.nanoTime() : 0;
+
+            if (layer == 0 && sparseInputs != null)
+            {
+                layers[0].evaluateBatch(sparseInputs, workspace.valuesAfterBiases[1], workspace.activations[1]);
+            }
+            else
+            {
+                layers[layer].evaluateBatch(out, workspace.valuesAfterBiases[layer + 1], workspace.activations[layer + 1]);
+            }
+            out = workspace.activations[layer + 1];
+
+            if (Metrics.ENABLED) metrics.recordForward(layer, System.nanoTime() - start);
+        }
+
+        return out;
+    }
+
+    /**
+     * steps every layer straight from a gradient with no lock, for Hogwild training, see HogwildTrainer
+     * several threads can call this at once, each takes its own step number so schedules and Adam's bias correction
+     * still count every step, but updates to the weights and optimizer state can be lost when the threads collide
+     * prepareUnlockedTraining must be called before the threads start
+     * @param gradient is a gradient from computeGradient
+     * @param firstLayerRanges is the ranges of the first layer's weights that have a gradient, see Layer.applyGradientUnlocked,
+     * or null to step them all
+     * @param numFirstLayerRanges is the number of ranges
+     */
+    public void applyGradientUnlocked(NetworkGradient gradient, int[] firstLayerRanges, int numFirstLayerRanges)
+    {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+
+        long step = numSteps.incrementAndGet();
+        double currentStepSize = schedule != null ? schedule.getStepSize(step - 1) : stepSize;
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            layers[layer].applyGradientUnlocked(optimizer, gradient.dWeights[layer], gradient.dBiases[layer], gradient.count, currentStepSize, step,
+                layer == 0 ? firstLayerRanges : null, numFirstLayerRanges);
+        }
+
+        if (Metrics.ENABLED) metrics.recordApplyGradient(System.nanoTime() - start);
+    }
+
+    /**
+     * makes the optimizer state of every layer up front, so applyGradientUnlocked never has to
+     */
+    public void prepareUnlockedTraining()
+    {
+        for (Layer layer : layers)
+        {
+            layer.makeOptimizerState(optimizer);
+        }
+    }
+
+    /**
+     * sets the given fraction of the weights of every layer to 0, the smallest in magnitude first,
+     * and keeps them at 0 through any later training so the network can be fine tuned around them
+     * pruning a little at a time with training in between loses less accuracy than pruning all at once
+     * the pruned weights are only remembered until the network is reloaded, see PrunedNetwork to make use of them
+     * @param sparsity is the fraction of each layer's weights to prune, from 0 to 1
+     */
+    public void prune(double sparsity)
+    {
+        for (Layer layer : layers)
+        {
+            layer.prune(sparsity);
+        }
+    }
+
+    /**
+     * @return the fraction of all the weights of the network that are 0
+     */
+    public double getSparsity()
+    {
+        double zeros = 0;
+        long numWeights = 0;
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            long layerWeights = (long) layerSizes[layer] * layerSizes[layer + 1];
+
+            zeros += layers[layer].getSparsity() * layerWeights;
+            numWeights += layerWeights;
+        }
+
+        return zeros / numWeights;
+    }
+
+    // reuses the batch workspace as long as the batch size does not change
+    private BatchWorkspace getBatchWorkspace(int size)
+    {
+        if (batchWorkspace == null || batchWorkspace.getBatchSize() != size)
+        {
+            batchWorkspace = new BatchWorkspace(layerSizes, size);
+        }
+
+        return batchWorkspace;
+    }
+
     public void setBatchSize(int inBatchSize)
     {
         batchSize = inBatchSize;
@@ -241,6 +637,58 @@ public class NeuralNetwork {
         stepSize = inStepSize;
     }
 
+    /**
+     * changes how the layers step along their gradients, the default is plain gradient descent
+     * the state of the old optimizer is dropped and the step count starts again from 0, so set it before training
+     * @param inOptimizer is the new optimizer
+     */
+    public void setOptimizer(Optimizer inOptimizer)
+    {
+        optimizer = inOptimizer;
+        numSteps.set(0);
+
+        for (Layer layer : layers)
+        {
+            layer.resetOptimizerState();
+        }
+    }
+
+    /**
+     * @param inSchedule gives the step size of every step, null to use the fixed step size
+     */
+    public void setLearningRateSchedule(LearningRateSchedule inSchedule)
+    {
+        schedule = inSchedule;
+    }
+
+    public Optimizer getOptimizer()
+    {
+        return optimizer;
+    }
+
+    public LearningRateSchedule getLearningRateSchedule()
+    {
+        return schedule;
+    }
+
+    /**
+     * @return the number of steps the optimizer has taken
+     */
+    public long getNumSteps()
+    {
+        return numSteps.get();
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public double getStepSize()
+    {
+        return stepSize;
+    }
+
     public Layer[] getLayers()
     {
         return layers;
@@ -255,4 +703,12 @@ public class NeuralNetwork {
     {
         return numLayers;
     }
+
+    /**
+     * @return the metrics of this network, null unless metrics are enabled
+     */
+    public TrainingMetrics getMetrics()
+    {
+        return metrics;
+    }
 }
@@ -0,0 +1,82 @@
+/**
+ * how a layer steps its parameters along the gradient summed over a batch
+ *
+ * an optimizer keeps getStateSize() doubles per parameter, owned by the layer next to its gradient accumulators
+ * the state of a parameter array of length n is getStateSize() blocks of n, so each block is read in order
+ * optimizers hold only their hyperparameters, so one can be shared by every layer of a network
+ */
+public interface Optimizer {
+
+    byte SGD = 1;
+    byte MOMENTUM = 2;
+    byte RMSPROP = 3;
+    byte ADAM = 4;
+
+    /**
+     * @return one of SGD, MOMENTUM, RMSPROP or ADAM, saved in checkpoints
+     */
+    byte getId();
+
+    /**
+     * @return the number of doubles of state kept per parameter
+     */
+    int getStateSize();
+
+    /**
+     * @return the hyperparameters, in the order the constructor takes them, saved in checkpoints
+     */
+    double[] getHyperparameters();
+
+    /**
+     * steps every parameter along its gradient
+     * @param params is stepped in place
+     * @param gradSums is the gradient of every parameter summed over the batch
+     * @param count is the number of examples in the sums, the gradient is gradSums / count
+     * @param state is this optimizer's state for params, getStateSize() * params.length long
+     * @param stepSize is the learning rate for this step
+     * @param step is the number of this step, starting at 1
+     */
+    default void update(double[] params, double[] gradSums, int count, double[] state, double stepSize, long step)
+    {
+        update(params, gradSums, count, state, stepSize, step, 0, params.length);
+    }
+
+    /**
+     * steps only the parameters from start up to end, the same as update for every parameter but leaving the rest alone
+     * used to step just the weights a sparse batch has a gradient for, the state blocks are still params.length long
+     */
+    void update(double[] params, double[] gradSums, int count, double[] state, double stepSize, long step, int start, int end);
+
+    /**
+     * makes the optimizer a checkpoint was saved with
+     * @param id is from getId
+     * @param hyperparameters is from getHyperparameters
+     */
+    static Optimizer fromSaved(byte id, double[] hyperparameters)
+    {
+        switch (id)
+        {
+            case SGD:
+                return new SGDOptimizer();
+            case MOMENTUM:
+                checkCount(hyperparameters, 1);
+                return new MomentumOptimizer(hyperparameters[0]);
+            case RMSPROP:
+                checkCount(hyperparameters, 2);
+                return new RMSPropOptimizer(hyperparameters[0], hyperparameters[1]);
+            case ADAM:
+                checkCount(hyperparameters, 3);
+                return new AdamOptimizer(hyperparameters[0], hyperparameters[1], hyperparameters[2]);
+            default:
+                throw new IllegalArgumentException("unknown optimizer " + id);
+        }
+    }
+
+    private static void checkCount(double[] hyperparameters, int count)
+    {
+        if (hyperparameters.length != count)
+        {
+            throw new IllegalArgumentException("optimizer needs " + count + " hyperparameters");
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * trains a network on mini-batches split across a pool of worker threads
+ * every worker has its own activations and gradient, the gradients are summed in worker order before the step
+ * so the result only depends on the batch and the number of threads, never on scheduling
+ */
+public class ParallelTrainer implements AutoCloseable {
+
+    private final NeuralNetwork net;
+    private final int numThreads;
+
+    private final ExecutorService pool;
+
+    private final Worker[] workers;
+    private final List<Callable<Void>> tasks;
+
+    public ParallelTrainer(NeuralNetwork inNet, int inNumThreads)
+    {
+        if (inNumThreads < 1)
+        {
+            throw new IllegalArgumentException("number of threads must be positive");
+        }
+
+        net = inNet;
+        numThreads = inNumThreads;
+
+        pool = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "trainer-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        workers = new Worker[numThreads];
+        tasks = new ArrayList<>(numThreads);
+
+        for (int i = 0; i < numThreads; i++)
+        {
+            workers[i] = new Worker();
+        }
+    }
+
+    /**
+     * trains the network on one mini-batch, the same as NeuralNetwork.trainBatch but spread over the worker threads
+     * @param inputs is one input to the network per row
+     * @param targets is the target output for each input
+     */
+    public void trainBatch(Matrix inputs, Matrix targets)
+    {
+        trainBatch(inputs, null, inputs.getRows(), inputs.getCols(), targets);
+    }
+
+    /**
+     * same as trainBatch(Matrix, Matrix) for a sparse batch, see NeuralNetwork.trainBatch(SparseMatrix, Matrix)
+     */
+    public void trainBatch(SparseMatrix inputs, Matrix targets)
+    {
+        trainBatch(null, inputs, inputs.getRows(), inputs.getCols(), targets);
+    }
+
+    // the batch is either dense inputs or sparseInputs, the other is null
+    private void trainBatch(Matrix inputs, SparseMatrix sparseInputs, int rows, int cols, Matrix targets)
+    {
+        if (targets.getRows() != rows)
+        {
+            throw new IllegalArgumentException("there must be one target per input");
+        }
+
+        int[] layerSizes = net.getLayerSizes();
+
+        if (cols != layerSizes[0] || targets.getCols() != layerSizes[layerSizes.length - 1])
+        {
+            throw new IllegalArgumentException("batch dimentions must match the network");
+        }
+
+        // with no rows no worker would run and the last batch's gradient would be applied again
+        if (rows < 1)
+        {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+
+        int numWorkers = Math.min(numThreads, rows);
+
+        tasks.clear();
+        for (int i = 0; i < numWorkers; i++)
+        {
+            workers[i].setRows(inputs, sparseInputs, targets, rows * i / numWorkers, rows * (i + 1) / numWorkers);
+            tasks.add(workers[i]);
+        }
+
+        try
+        {
+            for (Future<Void> result : pool.invokeAll(tasks))
+            {
+                result.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while training", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("worker failed while training", e.getCause());
+        }
+
+        // reduce in a fixed order so the sum is deterministic
+        NetworkGradient total = workers[0].gradient;
+        for (int i = 1; i < numWorkers; i++)
+        {
+            total.add(workers[i].gradient);
+        }
+
+        net.applyGradient(total);
+    }
+
+    public NeuralNetwork getNetwork()
+    {
+        return net;
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+    }
+
+    // one slice of a batch along with the buffers used to train on it
+    private class Worker implements Callable<Void>
+    {
+        private final NetworkGradient gradient = new NetworkGradient(net.getLayerSizes());
+
+        private BatchWorkspace workspace;
+
+        // this worker's rows of a sparse batch
+        private SparseMatrix sparseSlice;
+
+        private Matrix inputs;
+        private SparseMatrix sparseInputs;
+        private Matrix targets;
+        private int start;
+        private int end;
+
+        void setRows(Matrix inInputs, SparseMatrix inSparseInputs, Matrix inTargets, int inStart, int inEnd)
+        {
+            inputs = inInputs;
+            sparseInputs = inSparseInputs;
+            targets = inTargets;
+            start = inStart;
+            end = inEnd;
+        }
+
+        @Override
+        public Void call()
+        {
+            int rows = end - start;
+
+            if (workspace == null || workspace.getBatchSize() != rows)
+            {
+                workspace = new BatchWorkspace(net.getLayerSizes(), rows);
+            }
+
+            int outCols = targets.getCols();
+
+            System.arraycopy(targets.getData(), start * outCols, workspace.targets.getData(), 0, rows * outCols);
+
+            gradient.clear();
+
+            if (sparseInputs != null)
+            {
+                if (sparseSlice == null)
+                {
+                    sparseSlice = new SparseMatrix(sparseInputs.getCols(), rows, 0);
+                }
+
+                sparseSlice.setRows(sparseInputs, start, end);
+                net.computeGradient(sparseSlice, workspace.targets, workspace, gradient);
+            }
+            else
+            {
+                int inCols = inputs.getCols();
+
+                System.arraycopy(inputs.getData(), start * inCols, workspace.inputs.getData(), 0, rows * inCols);
+                net.computeGradient(workspace.inputs, workspace.targets, workspace, gradient);
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * a trained NeuralNetwork with its zero weights dropped, for inference only
+ *
+ * every layer keeps just its nonzero weights in compressed sparse row form, so once most weights have been pruned with
+ * NeuralNetwork.prune the network is smaller in memory and on disk, and evaluating it only multiplies the weights that are left
+ * the outputs are the same as the network it was made from up to the order the products are added in
+ *
+ * it is saved in its own format, little endian:
+ *   int     magic, the bytes "NNSP"
+ *   short   version
+ *   byte    index size, 2 if every layer input is at most 65536 long so column indices fit in a char, otherwise 4
+ *   byte    reserved, 0
+ *   int     number of layers
+ *   int[]   layer sizes, number of layers + 1 of them
+ *   for every layer:
+ *     int      number of nonzero weights
+ *     int[]    row starts, one per output plus one, where each row's nonzeros start
+ *     indices  the column of every nonzero, row by row, chars or ints by the index size
+ *     double[] the value of every nonzero
+ *     double[] biases
+ *   int     CRC32 of everything before it
+ */
+public class PrunedNetwork {
+
+    public static final int MAGIC = 0x50534E4E; // "NNSP" when written little endian
+    public static final short VERSION = 1;
+
+    // the activation is a leaky ReLU, this is its slope below 0
+    private static final double LEAK = 0.05;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_LAYERS = 1 << 16;
+
+    private final int numLayers;
+    private final int[] layerSizes;
+
+    // one row per output like the weights of Layer, without the zeros
+    private final SparseMatrix[] weights;
+    private final double[][] biases;
+
+    // the output of every layer, taken by one call at a time
+    private final WorkspacePool<double[][]> workspaces = new WorkspacePool<>(this::newWorkspace);
+
+    /**
+     * copies the nonzero weights of a network, usually one that has been pruned
+     * @param net is the network to copy, it is only read
+     */
+    public PrunedNetwork(NeuralNetwork net)
+    {
+        numLayers = net.getNumLayers();
+        layerSizes = net.getLayerSizes().clone();
+
+        weights = new SparseMatrix[numLayers];
+        biases = new double[numLayers][];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            weights[layer] = SparseMatrix.fromDense(net.getLayers()[layer].getWeightMatrix());
+            biases[layer] = net.getLayers()[layer].getBiases();
+        }
+    }
+
+    private PrunedNetwork(int[] inLayerSizes, SparseMatrix[] inWeights, double[][] inBiases)
+    {
+        numLayers = inLayerSizes.length - 1;
+        layerSizes = inLayerSizes;
+        weights = inWeights;
+        biases = inBiases;
+    }
+
+    /**
+     * evaluates an input, allocating the output
+     * @param in is the input
+     * @return the evaluation
+     */
+    public double[] evaluate(double[] in)
+    {
+        double[] out = new double[layerSizes[numLayers]];
+        evaluate(in, out);
+        return out;
+    }
+
+    /**
+     * thread safe evaluate that takes its scratch space from a pool shared by every calling thread, so it allocates nothing
+     * once warmed up, on platform threads and on virtual threads made per call alike
+     * @param in is the input
+     * @param out receives the evaluation, its length must match the last layer
+     */
+    public void evaluate(double[] in, double[] out)
+    {
+        if (in.length != layerSizes[0])
+        {
+            throw new IllegalArgumentException("in length must match in length of the first layer of the network");
+        }
+
+        if (out.length != layerSizes[numLayers])
+        {
+            throw new IllegalArgumentException("out length must match out length of the last layer in the netword");
+        }
+
+        double[][] outputs = workspaces.take();
+
+        try
+        {
+            double[] activations = in;
+            for (int layer = 0; layer < numLayers; layer ++)
+            {
+                double[] next = layer == numLayers - 1 ? out : outputs[layer];
+
+                LinearAlgebra.dot(weights[layer], activations, next);
+
+                double[] bias = biases[layer];
+                for (int row = 0; row < next.length; row ++)
+                {
+                    double value = next[row] + bias[row];
+                    next[row] = value < 0 ? LEAK * value : value;
+                }
+
+                activations = next;
+            }
+        }
+        finally
+        {
+            workspaces.give(outputs);
+        }
+    }
+
+    private double[][] newWorkspace()
+    {
+        double[][] outputs = new double[numLayers][];
+        for (int layer = 0; layer < numLayers; layer ++) outputs[layer] = new double[layerSizes[layer + 1]];
+        return outputs;
+    }
+
+    /**
+     * saves the network, see the class comment for the format
+     * @param file is where to save
+     */
+    public void save(File file) throws IOException
+    {
+        int indexSize = indexSize(layerSizes);
+
+        long size = HEADER_SIZE + 4L * (numLayers + 1) + 4;
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            size += layerBytes(layerSizes[layer + 1], weights[layer].getNumNonzeros(), indexSize);
+        }
+
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("network is too large to save in one file");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.put((byte) indexSize);
+        buffer.put((byte) 0);
+        buffer.putInt(numLayers);
+
+        for (int layerSize : layerSizes)
+        {
+            buffer.putInt(layerSize);
+        }
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            SparseMatrix matrix = weights[layer];
+            int numNonzeros = matrix.getNumNonzeros();
+
+            buffer.putInt(numNonzeros);
+
+            buffer.asIntBuffer().put(matrix.getRowStarts(), 0, matrix.getRows() + 1);
+            buffer.position(buffer.position() + (matrix.getRows() + 1) * Integer.BYTES);
+
+            int[] indices = matrix.getIndices();
+            for (int p = 0; p < numNonzeros; p++)
+            {
+                if (indexSize == Character.BYTES) buffer.putChar((char) indices[p]);
+                else buffer.putInt(indices[p]);
+            }
+
+            buffer.asDoubleBuffer().put(matrix.getValues(), 0, numNonzeros).put(biases[layer]);
+            buffer.position(buffer.position() + (numNonzeros + biases[layer].length) * Double.BYTES);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().flip());
+        buffer.putInt((int) crc.getValue());
+
+        buffer.flip();
+
+        NetworkFile.writeAtomically(buffer, file);
+    }
+
+    /**
+     * reads a network saved with save
+     * @param file is the saved network
+     * @return the network
+     * @throws IOException if the file cannot be read or is not a valid pruned network file
+     */
+    public static PrunedNetwork load(File file) throws IOException
+    {
+        ByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+
+            if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " is not a pruned network file");
+            }
+
+            buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    throw new EOFException("unexpected end of " + file);
+                }
+            }
+
+            buffer.flip();
+        }
+
+        if (buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException(file + " is not a pruned network file");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(buffer.limit() - 4));
+
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4))
+        {
+            throw new IOException(file + " is corrupt, checksum does not match");
+        }
+
+        // the checksum is last, so nothing is read past it
+        buffer.limit(buffer.limit() - 4);
+        buffer.position(4);
+
+        short version = buffer.getShort();
+        int indexSize = buffer.get();
+        buffer.get();
+        int numLayers = buffer.getInt();
+
+        if (version != VERSION)
+        {
+            throw new IOException(file + " has unsupported version " + version);
+        }
+
+        if (numLayers < 1 || numLayers > MAX_LAYERS || buffer.remaining() < 4L * (numLayers + 1))
+        {
+            throw new IOException(file + " has a bad layer count " + numLayers);
+        }
+
+        int[] layerSizes = new int[numLayers + 1];
+        for (int layer = 0; layer <= numLayers; layer ++)
+        {
+            layerSizes[layer] = buffer.getInt();
+
+            if (layerSizes[layer] < 1)
+            {
+                throw new IOException(file + " has a bad layer size " + layerSizes[layer]);
+            }
+        }
+
+        if (indexSize != indexSize(layerSizes))
+        {
+            throw new IOException(file + " has a bad index size " + indexSize);
+        }
+
+        SparseMatrix[] weights = new SparseMatrix[numLayers];
+        double[][] biases = new double[numLayers][];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            int rows = layerSizes[layer + 1];
+            int cols = layerSizes[layer];
+
+            int numNonzeros = buffer.remaining() >= 4 ? buffer.getInt() : -1;
+
+            if (numNonzeros < 0 || numNonzeros > (long) rows * cols || buffer.remaining() < layerBytes(rows, numNonzeros, indexSize) - 4)
+            {
+                throw new IOException(file + " is too short for layer " + layer);
+            }
+
+            int[] rowStarts = new int[rows + 1];
+            buffer.asIntBuffer().get(rowStarts);
+            buffer.position(buffer.position() + rowStarts.length * Integer.BYTES);
+
+            int[] indices = new int[numNonzeros];
+            for (int p = 0; p < numNonzeros; p++)
+            {
+                indices[p] = indexSize == Character.BYTES ? buffer.getChar() : buffer.getInt();
+            }
+
+            double[] values = new double[numNonzeros];
+            buffer.asDoubleBuffer().get(values);
+            buffer.position(buffer.position() + numNonzeros * Double.BYTES);
+
+            biases[layer] = new double[rows];
+            buffer.asDoubleBuffer().get(biases[layer]);
+            buffer.position(buffer.position() + rows * Double.BYTES);
+
+            // rebuilt through append so a file that passes the checksum but breaks the form cannot index out of bounds
+            if (rowStarts[0] != 0 || rowStarts[rows] != numNonzeros)
+            {
+                throw new IOException(file + " has bad row starts in layer " + layer);
+            }
+
+            SparseMatrix matrix = new SparseMatrix(cols, rows, numNonzeros);
+
+            for (int row = 0; row < rows; row ++)
+            {
+                if (rowStarts[row + 1] < rowStarts[row] || rowStarts[row + 1] > numNonzeros)
+                {
+                    throw new IOException(file + " has bad row starts in layer " + layer);
+                }
+
+                for (int p = rowStarts[row]; p < rowStarts[row + 1]; p++)
+                {
+                    if (indices[p] < 0 || indices[p] >= cols || (p > rowStarts[row] && indices[p] <= indices[p - 1]))
+                    {
+                        throw new IOException(file + " has a bad column index in layer " + layer);
+                    }
+
+                    matrix.append(indices[p], values[p]);
+                }
+
+                matrix.endRow();
+            }
+
+            weights[layer] = matrix;
+        }
+
+        if (buffer.hasRemaining())
+        {
+            throw new IOException(file + " has " + buffer.remaining() + " bytes after its last layer");
+        }
+
+        return new PrunedNetwork(layerSizes, weights, biases);
+    }
+
+    // column indices are chars when every layer input fits, which is nearly always
+    private static int indexSize(int[] layerSizes)
+    {
+        for (int layer = 0; layer < layerSizes.length - 1; layer ++)
+        {
+            if (layerSizes[layer] > Character.MAX_VALUE + 1)
+            {
+                return Integer.BYTES;
+            }
+        }
+
+        return Character.BYTES;
+    }
+
+    // the bytes one layer takes in a file
+    private static long layerBytes(int rows, int numNonzeros, int indexSize)
+    {
+        return 4 + (rows + 1L) * Integer.BYTES + (long) numNonzeros * (indexSize + Double.BYTES) + (long) rows * Double.BYTES;
+    }
+
+    /**
+     * @return the number of weights that were kept
+     */
+    public long getNumNonzeros()
+    {
+        long count = 0;
+        for (SparseMatrix matrix : weights) count += matrix.getNumNonzeros();
+        return count;
+    }
+
+    /**
+     * @return the fraction of the weights of the original network that were dropped
+     */
+    public double getSparsity()
+    {
+        long numWeights = 0;
+        for (int layer = 0; layer < numLayers; layer ++) numWeights += (long) layerSizes[layer] * layerSizes[layer + 1];
+        return 1 - (double) getNumNonzeros() / numWeights;
+    }
+
+    /**
+     * @return the number of bytes the weights take in memory, a value and a column index for each one kept plus the row starts
+     */
+    public long getWeightBytes()
+    {
+        long bytes = 0;
+        for (SparseMatrix matrix : weights)
+        {
+            bytes += (long) matrix.getNumNonzeros() * (Double.BYTES + Integer.BYTES) + (matrix.getRows() + 1L) * Integer.BYTES;
+        }
+        return bytes;
+    }
+
+    public int[] getLayerSizes()
+    {
+        return layerSizes;
+    }
+
+    public int getNumLayers()
+    {
+        return numLayers;
+    }
+}
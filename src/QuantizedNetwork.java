@@ -0,0 +1,276 @@
+/**
+ * an int8 version of a trained NeuralNetwork for inference only
+ *
+ * every weight is an int8 with one scale per row, 8 times smaller than the doubles in Layer
+ * activations are int8 too, with a scale and zero point per layer found by running calibration inputs through the
+ * original network, the zero point lets the mostly positive output of the leaky ReLU use the whole int8 range
+ * each layer is an integer matrix vector product followed by one fused pass that rescales, adds the bias,
+ * applies the leaky ReLU and rounds back to int8 for the next layer
+ * only the output of the last layer is left as a double
+ */
+public class QuantizedNetwork {
+
+    // the activation is a leaky ReLU, this is its slope below 0
+    private static final double LEAK = 0.05;
+
+    // int8 values are symmetric in -127..127 so negating never overflows
+    private static final int MAX_INT8 = 127;
+
+    // with every product at most 127 * 127 an int sum cannot overflow for inputs up to this long
+    private static final int MAX_LAYER_INPUT = Integer.MAX_VALUE / (MAX_INT8 * MAX_INT8);
+
+    private final int numLayers;
+    private final int[] layerSizes;
+
+    // row-major int8 weights, one row per output
+    private final byte[][] weights;
+
+    // the real value of a layer output is its accumulator times the multiplier plus the bias, both per row,
+    // in units of the output scale of that layer, which is 1 for the last layer
+    // the bias also cancels the zero point of the layer input, which adds the zero point times the row sum to the accumulator
+    private final double[][] multipliers;
+    private final double[][] biases;
+
+    // an int8 activation q going into a layer stands for the real value scale * (q - zeroPoint)
+    private final double[] scales;
+    private final int[] zeroPoints;
+
+    // 1 / scales[0], so quantizing the network input is a multiply
+    private final double inverseInputScale;
+
+    private final WorkspacePool<Workspace> workspaces = new WorkspacePool<>(this::newWorkspace);
+
+    /**
+     * quantizes a trained network
+     * @param net is the network to quantize, it is only read
+     * @param calibrationInputs is one typical input per row, used to pick the scale of every layer's activations
+     */
+    public QuantizedNetwork(NeuralNetwork net, Matrix calibrationInputs)
+    {
+        numLayers = net.getNumLayers();
+        layerSizes = net.getLayerSizes().clone();
+
+        if (calibrationInputs.getCols() != layerSizes[0] || calibrationInputs.getRows() == 0)
+        {
+            throw new IllegalArgumentException("calibration inputs must be at least one row the length of the network input");
+        }
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            if (layerSizes[layer] > MAX_LAYER_INPUT)
+            {
+                throw new IllegalArgumentException("layer inputs longer than " + MAX_LAYER_INPUT + " could overflow an int sum");
+            }
+        }
+
+        // the range of the input to every layer, index numLayers is the network output which stays a double
+        scales = new double[numLayers + 1];
+        zeroPoints = new int[numLayers + 1];
+
+        calibrate(net, calibrationInputs);
+        scales[numLayers] = 1;
+        zeroPoints[numLayers] = 0;
+
+        inverseInputScale = 1 / scales[0];
+
+        weights = new byte[numLayers][];
+        multipliers = new double[numLayers][];
+        biases = new double[numLayers][];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            Layer original = net.getLayers()[layer];
+
+            double[] weightData = original.getWeightMatrix().getData();
+            double[] originalBiases = original.getBiases();
+
+            int rows = layerSizes[layer + 1];
+            int cols = layerSizes[layer];
+
+            weights[layer] = new byte[rows * cols];
+            multipliers[layer] = new double[rows];
+            biases[layer] = new double[rows];
+
+            for (int row = 0; row < rows; row ++)
+            {
+                double rowScale = maxAbs(weightData, row * cols, cols) / MAX_INT8;
+                double inverseRowScale = rowScale > 0 ? 1 / rowScale : 0;
+
+                long rowSum = 0;
+                for (int col = 0; col < cols; col ++)
+                {
+                    byte weight = quantize(weightData[row * cols + col] * inverseRowScale, 0);
+                    weights[layer][row * cols + col] = weight;
+                    rowSum += weight;
+                }
+
+                multipliers[layer][row] = rowScale * scales[layer] / scales[layer + 1];
+                biases[layer][row] = originalBiases[row] / scales[layer + 1] - multipliers[layer][row] * zeroPoints[layer] * rowSum;
+            }
+        }
+    }
+
+    // the int8 range of each layer's input covers the smallest and largest values it reaches over the calibration inputs
+    private void calibrate(NeuralNetwork net, Matrix inputs)
+    {
+        // starting at 0 keeps 0 in range, and 0 is always exactly the zero point
+        double[] minValues = new double[numLayers + 1];
+        double[] maxValues = new double[numLayers + 1];
+
+        InferenceWorkspace workspace = net.newInferenceWorkspace();
+        double[] in = new double[inputs.getCols()];
+
+        for (int row = 0; row < inputs.getRows(); row ++)
+        {
+            System.arraycopy(inputs.getData(), row * in.length, in, 0, in.length);
+
+            net.evaluate(in, workspace);
+
+            for (int layer = 0; layer <= numLayers; layer ++)
+            {
+                double[] values = layer == 0 ? in : workspace.outputs[layer - 1];
+
+                for (double value : values)
+                {
+                    minValues[layer] = Math.min(minValues[layer], value);
+                    maxValues[layer] = Math.max(maxValues[layer], value);
+                }
+            }
+        }
+
+        for (int layer = 0; layer <= numLayers; layer ++)
+        {
+            double range = maxValues[layer] - minValues[layer];
+
+            scales[layer] = range > 0 ? range / (2 * MAX_INT8) : 1;
+            zeroPoints[layer] = (int) Math.round(-MAX_INT8 - minValues[layer] / scales[layer]);
+        }
+    }
+
+    private static double maxAbs(double[] values, int off, int length)
+    {
+        double max = 0;
+        for (int i = 0; i < length; i++) max = Math.max(max, Math.abs(values[off + i]));
+        return max;
+    }
+
+    /**
+     * @param value is already divided by the scale
+     * @return value rounded to the nearest int8 after adding the zero point, clamped to -127..127
+     */
+    private static byte quantize(double value, int zeroPoint)
+    {
+        double rounded = Math.rint(value) + zeroPoint;
+        return (byte) Math.max(-MAX_INT8, Math.min(MAX_INT8, rounded));
+    }
+
+    /**
+     * thread safe evaluate that takes its scratch space from a pool shared by every calling thread, so it allocates nothing
+     * once warmed up, on platform threads and on virtual threads made per call alike
+     * @param in is the input
+     * @param out receives the evaluation, its length must match the last layer
+     */
+    public void evaluate(double[] in, double[] out)
+    {
+        if (in.length != layerSizes[0])
+        {
+            throw new IllegalArgumentException("in length must match in length of the first layer of the network");
+        }
+
+        if (out.length != layerSizes[numLayers])
+        {
+            throw new IllegalArgumentException("out length must match out length of the last layer in the netword");
+        }
+
+        Workspace workspace = workspaces.take();
+
+        try
+        {
+            byte[] activations = workspace.activations[0];
+            for (int i = 0; i < in.length; i++) activations[i] = quantize(in[i] * inverseInputScale, zeroPoints[0]);
+
+            for (int layer = 0; layer < numLayers; layer ++)
+            {
+                int[] sums = workspace.sums[layer];
+
+                LinearAlgebra.dot(weights[layer], layerSizes[layer + 1], layerSizes[layer], activations, sums);
+
+                double[] multiplier = multipliers[layer];
+                double[] bias = biases[layer];
+
+                if (layer == numLayers - 1)
+                {
+                    for (int row = 0; row < sums.length; row ++)
+                    {
+                        double value = sums[row] * multiplier[row] + bias[row];
+                        out[row] = value < 0 ? LEAK * value : value;
+                    }
+                }
+                else
+                {
+                    // rescale, bias, leaky ReLU and requantize in one pass
+                    byte[] next = workspace.activations[layer + 1];
+                    int zeroPoint = zeroPoints[layer + 1];
+
+                    for (int row = 0; row < sums.length; row ++)
+                    {
+                        double value = sums[row] * multiplier[row] + bias[row];
+                        next[row] = quantize(value < 0 ? LEAK * value : value, zeroPoint);
+                    }
+
+                    activations = next;
+                }
+            }
+        }
+        finally
+        {
+            workspaces.give(workspace);
+        }
+    }
+
+    private Workspace newWorkspace()
+    {
+        return new Workspace(layerSizes);
+    }
+
+    /**
+     * @return the number of bytes the int8 weights take
+     */
+    public long getWeightBytes()
+    {
+        long bytes = 0;
+        for (byte[] layerWeights : weights) bytes += layerWeights.length;
+        return bytes;
+    }
+
+    public int[] getLayerSizes()
+    {
+        return layerSizes;
+    }
+
+    public int getNumLayers()
+    {
+        return numLayers;
+    }
+
+    // the int8 input of every layer and the int sums of every layer, owned by one thread
+    private static class Workspace
+    {
+        final byte[][] activations;
+        final int[][] sums;
+
+        Workspace(int[] layerSizes)
+        {
+            int numLayers = layerSizes.length - 1;
+
+            activations = new byte[numLayers][];
+            sums = new int[numLayers][];
+
+            for (int layer = 0; layer < numLayers; layer ++)
+            {
+                activations[layer] = new byte[layerSizes[layer]];
+                sums[layer] = new int[layerSizes[layer + 1]];
+            }
+        }
+    }
+}
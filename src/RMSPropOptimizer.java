@@ -0,0 +1,63 @@
+/**
+ * RMSProp, every parameter's step is divided by a decaying average of its squared gradient,
+ * so parameters with small gradients, like the weights of mostly blank pixels, still move
+ * keeps one double of state per parameter, the mean square
+ */
+public class RMSPropOptimizer implements Optimizer {
+
+    private final double decay;
+    private final double epsilon;
+
+    public RMSPropOptimizer()
+    {
+        this(0.9, 1e-8);
+    }
+
+    /**
+     * @param inDecay is the fraction of the mean square kept each step, between 0 and 1
+     * @param inEpsilon is added to the root mean square so a parameter that never had a gradient does not divide by 0
+     */
+    public RMSPropOptimizer(double inDecay, double inEpsilon)
+    {
+        if (!(inDecay >= 0 && inDecay < 1) || !(inEpsilon > 0))
+        {
+            throw new IllegalArgumentException("decay must be at least 0 and less than 1 and epsilon must be positive");
+        }
+
+        decay = inDecay;
+        epsilon = inEpsilon;
+    }
+
+    @Override
+    public byte getId()
+    {
+        return RMSPROP;
+    }
+
+    @Override
+    public int getStateSize()
+    {
+        return 1;
+    }
+
+    @Override
+    public double[] getHyperparameters()
+    {
+        return new double[] {decay, epsilon};
+    }
+
+    @Override
+    public void update(double[] params, double[] gradSums, int count, double[] state, double stepSize, long step, int start, int end)
+    {
+        double scale = 1.0 / count;
+
+        for (int i = start; i < end; i ++)
+        {
+            double grad = gradSums[i] * scale;
+            double meanSquare = decay * state[i] + (1 - decay) * grad * grad;
+
+            state[i] = meanSquare;
+            params[i] -= stepSize * grad / (Math.sqrt(meanSquare) + epsilon);
+        }
+    }
+}
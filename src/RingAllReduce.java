@@ -0,0 +1,507 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.*;
+
+/**
+ * sums an array across a group of processes over TCP with a ring all-reduce, so each process sends and receives
+ * about twice the array whatever the number of processes, instead of the whole array to and from every other one
+ *
+ * process r of n listens on its own address, connects to process r + 1 and is connected to by process r - 1, wrapping around
+ * the array is cut into n chunks, in n - 1 steps each process passes a chunk to the next and adds the one it is passed,
+ * after which process r holds the whole sum of chunk r + 1, then in n - 1 more steps the sums are passed around the ring
+ *
+ * values travel as little endian floats, half the bytes of doubles, the process that finishes a chunk rounds it to float
+ * too so every process ends with exactly the same array
+ * every message is a frame of an int sequence number, an int number of values and the values,
+ * the sequence number catches processes that have fallen out of step
+ *
+ * a connection starts with a handshake of the magic number, the version, the sender's rank and the number of processes
+ *
+ * no wait is unbounded: joining, each receive and each send give up after the timeout, so a process that dies or hangs
+ * makes its neighbours fail instead of blocking them forever
+ */
+public class RingAllReduce implements AutoCloseable {
+
+    public static final int MAGIC = 0x52524E4E; // "NNRR" when written little endian
+    public static final short VERSION = 1;
+
+    private static final int HANDSHAKE_SIZE = 14;
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    private final int rank;
+    private final int numProcesses;
+
+    private final ServerSocketChannel server;
+    private final SocketChannel next;
+    private final SocketChannel previous;
+
+    // previous is non-blocking and registered here, so a receive can wait for data with a timeout
+    private final Selector readable;
+
+    private final long timeoutMillis;
+
+    // sends run here while the calling thread receives, so neither end of the ring blocks on a full socket buffer
+    private final ExecutorService sender;
+
+    private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(0);
+    private ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(0);
+
+    private int sequence;
+
+    private long numAllReduces;
+    private long bytesSent;
+    private long bytesReceived;
+    private long nanos;
+
+    /**
+     * joins the ring, waiting until the neighbours on both sides have connected
+     * @param inRank is the position of this process in the ring, from 0
+     * @param addresses is the address every process listens on, in rank order, the same list in every process
+     * @param inTimeoutMillis is how long to wait for the neighbours to join, which may not have started yet,
+     * and then the longest wait for any one message to arrive or be sent
+     * @throws UncheckedIOException if the ring cannot be formed in time or a handshake does not match
+     */
+    public RingAllReduce(int inRank, InetSocketAddress[] addresses, long inTimeoutMillis)
+    {
+        if (inRank < 0 || inRank >= addresses.length)
+        {
+            throw new IllegalArgumentException("rank must be between 0 and the number of processes");
+        }
+
+        if (inTimeoutMillis < 1)
+        {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+
+        rank = inRank;
+        numProcesses = addresses.length;
+        timeoutMillis = inTimeoutMillis;
+
+        if (numProcesses == 1)
+        {
+            server = null;
+            next = null;
+            previous = null;
+            readable = null;
+            sender = null;
+            return;
+        }
+
+        long deadline = System.nanoTime() + timeoutMillis * 1000000;
+
+        ServerSocketChannel listening = null;
+        SocketChannel connected = null;
+        SocketChannel accepted = null;
+        Selector selector = null;
+
+        try
+        {
+            listening = ServerSocketChannel.open();
+            listening.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            listening.bind(addresses[rank]);
+
+            connected = connect(addresses[(rank + 1) % numProcesses], deadline);
+            writeHandshake(connected);
+
+            // the previous process may still be waiting for its own next, so its connection is taken whenever it comes
+            accepted = accept(listening, deadline);
+            accepted.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            selector = Selector.open();
+            accepted.configureBlocking(false);
+            accepted.register(selector, SelectionKey.OP_READ);
+
+            readHandshake(accepted, selector);
+        }
+        catch (IOException e)
+        {
+            closeQuietly(selector);
+            closeQuietly(accepted);
+            closeQuietly(connected);
+            closeQuietly(listening);
+            throw new UncheckedIOException("process " + rank + " could not join the ring of " + numProcesses, e);
+        }
+
+        server = listening;
+        next = connected;
+        previous = accepted;
+        readable = selector;
+
+        sender = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ring-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return addresses for n processes on the loopback address, on ports from basePort up
+     */
+    public static InetSocketAddress[] localAddresses(int numProcesses, int basePort)
+    {
+        InetSocketAddress[] addresses = new InetSocketAddress[numProcesses];
+
+        for (int i = 0; i < numProcesses; i++)
+        {
+            addresses[i] = new InetSocketAddress("127.0.0.1", basePort + i);
+        }
+
+        return addresses;
+    }
+
+    // keeps retrying until the other process is listening
+    private static SocketChannel connect(InetSocketAddress address, long deadline) throws IOException
+    {
+        while (true)
+        {
+            SocketChannel channel = SocketChannel.open();
+
+            try
+            {
+                channel.connect(address);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                return channel;
+            }
+            catch (IOException e)
+            {
+                channel.close();
+
+                if (System.nanoTime() - deadline > 0)
+                {
+                    throw e;
+                }
+            }
+
+            try
+            {
+                Thread.sleep(50);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while connecting to " + address);
+            }
+        }
+    }
+
+    // waits for the previous process to connect, at most until the deadline
+    private static SocketChannel accept(ServerSocketChannel listening, long deadline) throws IOException
+    {
+        listening.configureBlocking(false);
+
+        try (Selector selector = Selector.open())
+        {
+            listening.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (true)
+            {
+                SocketChannel accepted = listening.accept();
+
+                if (accepted != null)
+                {
+                    accepted.configureBlocking(true);
+                    return accepted;
+                }
+
+                long remaining = (deadline - System.nanoTime()) / 1000000;
+
+                if (remaining <= 0)
+                {
+                    throw new SocketTimeoutException("the previous process did not connect in time");
+                }
+
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+            }
+        }
+    }
+
+    private void writeHandshake(SocketChannel channel) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(HANDSHAKE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putInt(rank);
+        buffer.putInt(numProcesses);
+        buffer.flip();
+
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private void readHandshake(SocketChannel channel, Selector selector) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(HANDSHAKE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, selector, buffer, timeoutMillis);
+        buffer.flip();
+
+        if (buffer.getInt() != MAGIC)
+        {
+            throw new IOException("connection is not from a ring process");
+        }
+
+        short version = buffer.getShort();
+        if (version != VERSION)
+        {
+            throw new IOException("unsupported ring version " + version);
+        }
+
+        int otherRank = buffer.getInt();
+        int otherNumProcesses = buffer.getInt();
+
+        if (otherNumProcesses != numProcesses || otherRank != (rank + numProcesses - 1) % numProcesses)
+        {
+            throw new IOException("expected process " + (rank + numProcesses - 1) % numProcesses + " of " + numProcesses
+                + " but process " + otherRank + " of " + otherNumProcesses + " connected");
+        }
+    }
+
+    /**
+     * replaces part of an array with its sum over every process, every process must call this with the same length
+     * @param data is the array to sum, the result is written over it
+     * @param length is the number of values from the start of data to sum
+     * @throws UncheckedIOException if a neighbour fails or falls out of step
+     */
+    public void allReduce(double[] data, int length)
+    {
+        if (length < 0 || length > data.length)
+        {
+            throw new IllegalArgumentException("length must be between 0 and the length of the array");
+        }
+
+        long start = System.nanoTime();
+
+        if (numProcesses > 1)
+        {
+            int chunkSize = (length + numProcesses - 1) / numProcesses;
+
+            ensureCapacity(chunkSize);
+
+            try
+            {
+                // reduce-scatter, the chunk passed on is the one just added to
+                for (int step = 0; step < numProcesses - 1; step++)
+                {
+                    int sendChunk = (rank - step + numProcesses) % numProcesses;
+                    int receiveChunk = (rank - step - 1 + numProcesses) % numProcesses;
+
+                    exchange(data, length, chunkSize, sendChunk, receiveChunk, true);
+                }
+
+                // this process now holds the whole sum of the chunk after its own, rounded like the copies that go around
+                int ownChunk = (rank + 1) % numProcesses;
+                for (int i = chunkStart(ownChunk, chunkSize, length); i < chunkStart(ownChunk + 1, chunkSize, length); i++)
+                {
+                    data[i] = (float) data[i];
+                }
+
+                // all-gather, each finished chunk goes all the way around
+                for (int step = 0; step < numProcesses - 1; step++)
+                {
+                    int sendChunk = (rank + 1 - step + numProcesses) % numProcesses;
+                    int receiveChunk = (rank - step + numProcesses) % numProcesses;
+
+                    exchange(data, length, chunkSize, sendChunk, receiveChunk, false);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException("process " + rank + " lost the ring", e);
+            }
+        }
+
+        numAllReduces++;
+        nanos += System.nanoTime() - start;
+    }
+
+    // sends one chunk to the next process while receiving one from the previous, adding it to data or copying it over data
+    private void exchange(double[] data, int length, int chunkSize, int sendChunk, int receiveChunk, boolean add) throws IOException
+    {
+        int sendStart = chunkStart(sendChunk, chunkSize, length);
+        int sendCount = chunkStart(sendChunk + 1, chunkSize, length) - sendStart;
+
+        sendBuffer.clear();
+        sendBuffer.putInt(sequence);
+        sendBuffer.putInt(sendCount);
+        for (int i = 0; i < sendCount; i++) sendBuffer.putFloat((float) data[sendStart + i]);
+        sendBuffer.flip();
+
+        Future<?> send = sender.submit(() -> {
+            while (sendBuffer.hasRemaining()) next.write(sendBuffer);
+            return null;
+        });
+
+        int receiveStart = chunkStart(receiveChunk, chunkSize, length);
+        int receiveCount = chunkStart(receiveChunk + 1, chunkSize, length) - receiveStart;
+
+        receiveBuffer.clear().limit(FRAME_HEADER_SIZE + receiveCount * Float.BYTES);
+        readFully(previous, readable, receiveBuffer, timeoutMillis);
+        receiveBuffer.flip();
+
+        int otherSequence = receiveBuffer.getInt();
+        int otherCount = receiveBuffer.getInt();
+
+        if (otherSequence != sequence || otherCount != receiveCount)
+        {
+            throw new IOException("expected message " + sequence + " of " + receiveCount + " values but got message " + otherSequence
+                + " of " + otherCount);
+        }
+
+        if (add)
+        {
+            for (int i = 0; i < receiveCount; i++) data[receiveStart + i] += receiveBuffer.getFloat();
+        }
+        else
+        {
+            for (int i = 0; i < receiveCount; i++) data[receiveStart + i] = receiveBuffer.getFloat();
+        }
+
+        try
+        {
+            send.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while sending");
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        catch (TimeoutException e)
+        {
+            // the next process stopped reading, close then unblocks the write left on the sender
+            throw new SocketTimeoutException("the next process took no message in " + timeoutMillis + " ms");
+        }
+
+        sequence++;
+        bytesSent += FRAME_HEADER_SIZE + (long) sendCount * Float.BYTES;
+        bytesReceived += FRAME_HEADER_SIZE + (long) receiveCount * Float.BYTES;
+    }
+
+    // chunks are chunkSize long except the last few, which can be short or empty when length does not split evenly
+    private static int chunkStart(int chunk, int chunkSize, int length)
+    {
+        return Math.min(chunk * chunkSize, length);
+    }
+
+    private void ensureCapacity(int chunkSize)
+    {
+        int capacity = FRAME_HEADER_SIZE + chunkSize * Float.BYTES;
+
+        if (sendBuffer.capacity() < capacity)
+        {
+            sendBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            receiveBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // reads from a non-blocking channel, waiting on its selector for at most timeoutMillis in all
+    private static void readFully(SocketChannel channel, Selector selector, ByteBuffer buffer, long timeoutMillis) throws IOException
+    {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000;
+
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer);
+
+            if (read < 0)
+            {
+                throw new EOFException("neighbour closed the connection");
+            }
+
+            if (read == 0)
+            {
+                long remaining = (deadline - System.nanoTime()) / 1000000;
+
+                if (remaining <= 0)
+                {
+                    throw new SocketTimeoutException("the previous process sent nothing in " + timeoutMillis + " ms");
+                }
+
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable == null)
+        {
+            return;
+        }
+
+        try
+        {
+            closeable.close();
+        }
+        catch (IOException e)
+        {
+            // already failing, the first error is the one reported
+        }
+    }
+
+    public int getRank()
+    {
+        return rank;
+    }
+
+    public int getNumProcesses()
+    {
+        return numProcesses;
+    }
+
+    public long getNumAllReduces()
+    {
+        return numAllReduces;
+    }
+
+    public long getBytesSent()
+    {
+        return bytesSent;
+    }
+
+    public long getTimeoutMillis()
+    {
+        return timeoutMillis;
+    }
+
+    public long getBytesReceived()
+    {
+        return bytesReceived;
+    }
+
+    /**
+     * @return the total time spent in allReduce, in nanoseconds
+     */
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    @Override
+    public void close()
+    {
+        if (numProcesses == 1)
+        {
+            return;
+        }
+
+        sender.shutdownNow();
+
+        closeQuietly(next);
+        closeQuietly(readable);
+        closeQuietly(previous);
+        closeQuietly(server);
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * plain stochastic gradient descent, every parameter moves against its mean gradient times the step size
+ * keeps no state, this is what a network uses until it is given another optimizer
+ */
+public class SGDOptimizer implements Optimizer {
+
+    @Override
+    public byte getId()
+    {
+        return SGD;
+    }
+
+    @Override
+    public int getStateSize()
+    {
+        return 0;
+    }
+
+    @Override
+    public double[] getHyperparameters()
+    {
+        return new double[0];
+    }
+
+    @Override
+    public void update(double[] params, double[] gradSums, int count, double[] state, double stepSize, long step, int start, int end)
+    {
+        for (int i = start; i < end; i ++)
+        {
+            params[i] += -gradSums[i] / count * stepSize;
+        }
+    }
+}
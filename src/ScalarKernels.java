@@ -0,0 +1,238 @@
+/**
+ * plain java loops, unrolled where C2 does not already do a good job
+ */
+public class ScalarKernels implements Kernels {
+
+    @Override
+    public double dot(double[] v1, int off1, double[] v2, int off2, int length)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+        int i = 0;
+        for (; i + 3 < length; i += 4)
+        {
+            s0 += v1[off1 + i] * v2[off2 + i];
+            s1 += v1[off1 + i + 1] * v2[off2 + i + 1];
+            s2 += v1[off1 + i + 2] * v2[off2 + i + 2];
+            s3 += v1[off1 + i + 3] * v2[off2 + i + 3];
+        }
+        for (; i < length; i++) s0 += v1[off1 + i] * v2[off2 + i];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public void dot4(double[] x, int x0, int stride, double[] v, int vOff, int length, double[] out, int outOff)
+    {
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int i = 0; i < length; i++)
+        {
+            double value = v[vOff + i];
+            s0 += x[x0 + i] * value;
+            s1 += x[x1 + i] * value;
+            s2 += x[x2 + i] * value;
+            s3 += x[x3 + i] * value;
+        }
+
+        out[outOff] += s0;
+        out[outOff + 1] += s1;
+        out[outOff + 2] += s2;
+        out[outOff + 3] += s3;
+    }
+
+    @Override
+    public double sparseDot(double[] values, int[] indices, int off, int length, double[] v)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+        int i = off;
+        int end = off + length;
+        for (; i + 3 < end; i += 4)
+        {
+            s0 += values[i] * v[indices[i]];
+            s1 += values[i + 1] * v[indices[i + 1]];
+            s2 += values[i + 2] * v[indices[i + 2]];
+            s3 += values[i + 3] * v[indices[i + 3]];
+        }
+        for (; i < end; i++) s0 += values[i] * v[indices[i]];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int length)
+    {
+        int i = 0;
+        for (; i + 3 < length; i += 4)
+        {
+            y[yOff + i] += alpha * x[xOff + i];
+            y[yOff + i + 1] += alpha * x[xOff + i + 1];
+            y[yOff + i + 2] += alpha * x[xOff + i + 2];
+            y[yOff + i + 3] += alpha * x[xOff + i + 3];
+        }
+        for (; i < length; i++) y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    @Override
+    public void axpy4(double a0, double a1, double a2, double a3, double[] x, int x0, int stride, double[] y, int yOff, int length)
+    {
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        for (int i = 0; i < length; i++)
+        {
+            y[yOff + i] += a0 * x[x0 + i] + a1 * x[x1 + i] + a2 * x[x2 + i] + a3 * x[x3 + i];
+        }
+    }
+
+    @Override
+    public void add(double[] v1, int off1, double[] v2, int off2, double[] out, int outOff, int length)
+    {
+        for (int i = 0; i < length; i++) out[outOff + i] = v1[off1 + i] + v2[off2 + i];
+    }
+
+    @Override
+    public void addBiasLeakyRelu(double[] values, int off, double[] biases, double[] out, int outOff, int length, double slope)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            double value = values[off + i] + biases[i];
+            values[off + i] = value;
+            out[outOff + i] = value < 0 ? slope * value : value;
+        }
+    }
+
+    @Override
+    public void multiplyLeakyReluDerivative(double[] values, int off, double[] delta, int deltaOff, int length, double slope)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            if (values[off + i] < 0) delta[deltaOff + i] *= slope;
+        }
+    }
+
+    @Override
+    public float dot(float[] v1, int off1, float[] v2, int off2, int length)
+    {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+        int i = 0;
+        for (; i + 3 < length; i += 4)
+        {
+            s0 += v1[off1 + i] * v2[off2 + i];
+            s1 += v1[off1 + i + 1] * v2[off2 + i + 1];
+            s2 += v1[off1 + i + 2] * v2[off2 + i + 2];
+            s3 += v1[off1 + i + 3] * v2[off2 + i + 3];
+        }
+        for (; i < length; i++) s0 += v1[off1 + i] * v2[off2 + i];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public void dot4(float[] x, int x0, int stride, float[] v, int vOff, int length, float[] out, int outOff)
+    {
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int i = 0; i < length; i++)
+        {
+            float value = v[vOff + i];
+            s0 += x[x0 + i] * value;
+            s1 += x[x1 + i] * value;
+            s2 += x[x2 + i] * value;
+            s3 += x[x3 + i] * value;
+        }
+
+        out[outOff] += s0;
+        out[outOff + 1] += s1;
+        out[outOff + 2] += s2;
+        out[outOff + 3] += s3;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int length)
+    {
+        int i = 0;
+        for (; i + 3 < length; i += 4)
+        {
+            y[yOff + i] += alpha * x[xOff + i];
+            y[yOff + i + 1] += alpha * x[xOff + i + 1];
+            y[yOff + i + 2] += alpha * x[xOff + i + 2];
+            y[yOff + i + 3] += alpha * x[xOff + i + 3];
+        }
+        for (; i < length; i++) y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    @Override
+    public void axpy4(float a0, float a1, float a2, float a3, float[] x, int x0, int stride, float[] y, int yOff, int length)
+    {
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        for (int i = 0; i < length; i++)
+        {
+            y[yOff + i] += a0 * x[x0 + i] + a1 * x[x1 + i] + a2 * x[x2 + i] + a3 * x[x3 + i];
+        }
+    }
+
+    @Override
+    public void addBiasLeakyRelu(float[] values, int off, float[] biases, float[] out, int outOff, int length, float slope)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            float value = values[off + i] + biases[i];
+            values[off + i] = value;
+            out[outOff + i] = value < 0 ? slope * value : value;
+        }
+    }
+
+    @Override
+    public void multiplyLeakyReluDerivative(float[] values, int off, float[] delta, int deltaOff, int length, float slope)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            if (values[off + i] < 0) delta[deltaOff + i] *= slope;
+        }
+    }
+
+    @Override
+    public int dot(byte[] v1, int off1, byte[] v2, int off2, int length)
+    {
+        int sum = 0;
+        for (int i = 0; i < length; i++) sum += v1[off1 + i] * v2[off2 + i];
+        return sum;
+    }
+
+    @Override
+    public void dot4(byte[] x, int x0, int stride, byte[] v, int vOff, int length, int[] out, int outOff)
+    {
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        int t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            int value = v[vOff + i];
+            t0 += x[x0 + i] * value;
+            t1 += x[x1 + i] * value;
+            t2 += x[x2 + i] * value;
+            t3 += x[x3 + i] * value;
+        }
+
+        out[outOff] += t0;
+        out[outOff + 1] += t1;
+        out[outOff + 2] += t2;
+        out[outOff + 3] += t3;
+    }
+}
@@ -0,0 +1,219 @@
+import java.util.Arrays;
+
+/**
+ * a row-major matrix that only stores its nonzero entries, in compressed sparse row form
+ * the nonzeros of row r are indices[p] and values[p] for p from rowStarts[r] up to rowStarts[r + 1], in column order
+ *
+ * built one row at a time with append and endRow, and cleared to be refilled, so a batch can be reused without allocating
+ * once its arrays have grown to fit
+ */
+public class SparseMatrix {
+
+    private final int cols;
+    private int rows;
+
+    // the number of entries stored, including those of a row that is not ended yet
+    private int size;
+
+    // rowStarts[r] is where row r starts in indices and values, rowStarts[rows] is the number of nonzeros
+    private int[] rowStarts;
+    private int[] indices;
+    private double[] values;
+
+    /**
+     * makes an empty matrix with no rows
+     * @param inCols is the number of columns of every row
+     * @param rowCapacity is the number of rows to make room for
+     * @param nonzeroCapacity is the number of nonzeros to make room for, more are made room for as needed
+     */
+    public SparseMatrix(int inCols, int rowCapacity, int nonzeroCapacity)
+    {
+        if (inCols < 0 || rowCapacity < 0 || nonzeroCapacity < 0)
+        {
+            throw new IllegalArgumentException("matrix dimentions must not be negative");
+        }
+
+        cols = inCols;
+        rows = 0;
+
+        rowStarts = new int[rowCapacity + 1];
+        indices = new int[nonzeroCapacity];
+        values = new double[nonzeroCapacity];
+    }
+
+    /**
+     * copies the nonzeros of a dense matrix
+     */
+    public static SparseMatrix fromDense(Matrix dense)
+    {
+        // counted first so the arrays are exactly the right size
+        int numNonzeros = 0;
+        for (double value : dense.getData()) if (value != 0) numNonzeros++;
+
+        SparseMatrix sparse = new SparseMatrix(dense.getCols(), dense.getRows(), numNonzeros);
+
+        for (int row = 0; row < dense.getRows(); row++)
+        {
+            sparse.appendRow(dense.getData(), row * dense.getCols());
+        }
+
+        return sparse;
+    }
+
+    /**
+     * removes every row, keeping the arrays for reuse
+     */
+    public void clear()
+    {
+        rows = 0;
+        size = 0;
+    }
+
+    /**
+     * adds an entry to the row being built, entries must be added in column order
+     * @param col is the column of the entry
+     * @param value is the entry, a 0 is stored like any other value
+     */
+    public void append(int col, double value)
+    {
+        if (size == indices.length)
+        {
+            int capacity = Math.max(16, size * 2);
+            indices = Arrays.copyOf(indices, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        indices[size] = col;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * finishes the row being built, the next append starts a new row
+     */
+    public void endRow()
+    {
+        if (rows + 2 > rowStarts.length)
+        {
+            rowStarts = Arrays.copyOf(rowStarts, Math.max(2, rowStarts.length * 2));
+        }
+
+        rowStarts[rows + 1] = size;
+        rows++;
+    }
+
+    /**
+     * adds a row from part of a dense array, skipping its zeros
+     * @param dense holds the row
+     * @param off is where the row starts in dense, it is cols long
+     */
+    public void appendRow(double[] dense, int off)
+    {
+        for (int col = 0; col < cols; col++)
+        {
+            if (dense[off + col] != 0)
+            {
+                append(col, dense[off + col]);
+            }
+        }
+
+        endRow();
+    }
+
+    /**
+     * replaces the contents with a range of the rows of another matrix
+     * @param from is the matrix to copy from, its cols must match
+     * @param start is the first row to copy
+     * @param end is one past the last row to copy
+     */
+    public void setRows(SparseMatrix from, int start, int end)
+    {
+        if (from.cols != cols || start < 0 || end > from.rows || start > end)
+        {
+            throw new IllegalArgumentException("matrix dimentions do not match");
+        }
+
+        int first = from.rowStarts[start];
+        int count = from.rowStarts[end] - first;
+
+        if (indices.length < count)
+        {
+            indices = new int[count];
+            values = new double[count];
+        }
+
+        if (rowStarts.length < end - start + 1)
+        {
+            rowStarts = new int[end - start + 1];
+        }
+
+        System.arraycopy(from.indices, first, indices, 0, count);
+        System.arraycopy(from.values, first, values, 0, count);
+
+        for (int row = start; row <= end; row++)
+        {
+            rowStarts[row - start] = from.rowStarts[row] - first;
+        }
+
+        rows = end - start;
+        size = count;
+    }
+
+    /**
+     * @return a dense copy
+     */
+    public Matrix toDense()
+    {
+        Matrix dense = new Matrix(rows, cols);
+        double[] data = dense.getData();
+
+        for (int row = 0; row < rows; row++)
+        {
+            for (int p = rowStarts[row]; p < rowStarts[row + 1]; p++)
+            {
+                data[row * cols + indices[p]] = values[p];
+            }
+        }
+
+        return dense;
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getCols()
+    {
+        return cols;
+    }
+
+    /**
+     * @return the number of entries stored
+     */
+    public int getNumNonzeros()
+    {
+        return rowStarts[rows];
+    }
+
+    /**
+     * the arrays are shared with the matrix, not copied, and only the first rows + 1 entries are used
+     */
+    public int[] getRowStarts()
+    {
+        return rowStarts;
+    }
+
+    /**
+     * the arrays are shared with the matrix, not copied, and only the first getNumNonzeros() entries are used
+     */
+    public int[] getIndices()
+    {
+        return indices;
+    }
+
+    public double[] getValues()
+    {
+        return values;
+    }
+}
@@ -0,0 +1,412 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * trains several networks side by side on one pass over the data, to compare step sizes, batch sizes and shapes
+ *
+ * every batch is taken from the DataLoader once and handed to all the models, which each train on it on their own thread,
+ * so reading, shuffling and converting the images is paid once for the whole sweep instead of once per model
+ * a model whose batch size is smaller than the loader's trains on the loader batch in pieces of its own batch size,
+ * so the loader batch size must be a multiple of every model's
+ * after each round every model is scored on the validation set and checkpointed whenever it beats its best so far
+ */
+public class SweepRunner implements AutoCloseable {
+
+    private final int numThreads;
+
+    private final ExecutorService pool;
+
+    private final List<Model> models = new ArrayList<>();
+
+    /**
+     * @param inNumThreads is the number of models trained at once
+     */
+    public SweepRunner(int inNumThreads)
+    {
+        if (inNumThreads < 1)
+        {
+            throw new IllegalArgumentException("number of threads must be positive");
+        }
+
+        numThreads = inNumThreads;
+
+        pool = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "sweep-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * adds a model to the sweep, its batch size, step size and optimizer are the ones set on it
+     * @param name is what the model is called in the results
+     * @param net is the network to train, nothing else may use it while run is running
+     * @param bestFile is where the best checkpoint of the model is kept
+     */
+    public void addModel(String name, NeuralNetwork net, File bestFile)
+    {
+        for (Model model : models)
+        {
+            if (model.net == net)
+            {
+                throw new IllegalArgumentException("network is already in the sweep as " + model.name);
+            }
+        }
+
+        models.add(new Model(name, net, bestFile));
+    }
+
+    /**
+     * trains every model for a number of rounds, scoring and checkpointing them after each
+     * @param loader is where the batches come from, with sparse inputs, its batch size must be a multiple of the batch size of every model
+     * @param validation is what the models are scored on
+     * @param examplesPerRound is the number of examples each model trains on per round, rounded up to whole batches
+     * @param numRounds is the number of rounds
+     * @return the result of every model, best accuracy first
+     */
+    public List<Result> run(DataLoader loader, ImageDataset validation, long examplesPerRound, int numRounds)
+    {
+        if (models.isEmpty())
+        {
+            throw new IllegalStateException("no models to train");
+        }
+
+        if (!loader.hasSparseInputs())
+        {
+            throw new IllegalArgumentException("loader must fill sparse inputs");
+        }
+
+        for (Model model : models)
+        {
+            if (loader.getBatchSize() % model.net.getBatchSize() != 0)
+            {
+                throw new IllegalArgumentException("loader batch size " + loader.getBatchSize() + " is not a multiple of the batch size of " + model.name);
+            }
+        }
+
+        List<Callable<Void>> trainTasks = new ArrayList<>(models.size());
+        List<Callable<Void>> scoreTasks = new ArrayList<>(models.size());
+
+        for (Model model : models)
+        {
+            trainTasks.add(model::train);
+            scoreTasks.add(() -> model.score(validation));
+        }
+
+        for (int round = 0; round < numRounds; round++)
+        {
+            long currentExample = 0;
+
+            while (currentExample < examplesPerRound)
+            {
+                DataBatch batch = loader.next();
+
+                for (Model model : models)
+                {
+                    model.batch = batch;
+                }
+
+                // the loader reuses a batch once the next is taken, so every model finishes with it first
+                invokeAll(trainTasks);
+
+                currentExample += batch.getSize();
+            }
+
+            for (Model model : models)
+            {
+                model.batch = null;
+                model.round = round + 1;
+            }
+
+            invokeAll(scoreTasks);
+        }
+
+        for (Model model : models)
+        {
+            model.checkpointer.flush();
+        }
+
+        return getResults();
+    }
+
+    /**
+     * @return the result of every model so far, best accuracy first
+     */
+    public List<Result> getResults()
+    {
+        List<Result> results = new ArrayList<>(models.size());
+
+        for (Model model : models)
+        {
+            results.add(new Result(model));
+        }
+
+        results.sort(Comparator.comparingDouble(Result::getBestAccuracy).reversed());
+
+        return results;
+    }
+
+    /**
+     * @return a table of the results, one row per model in the order given
+     */
+    public static String formatResults(List<Result> results)
+    {
+        StringBuilder table = new StringBuilder();
+
+        table.append(String.format("%-4s %-16s %-16s %6s %10s %-10s %8s %6s %8s %10s%n",
+            "rank", "model", "shape", "batch", "step", "optimizer", "best", "round", "last", "samples/s"));
+
+        int rank = 1;
+        for (Result result : results)
+        {
+            table.append(String.format("%-4d %-16s %-16s %6d %10.3g %-10s %7.2f%% %6d %7.2f%% %10.0f%n",
+                rank++, result.getName(), result.getShape(), result.getBatchSize(), result.getStepSize(), result.getOptimizer(),
+                result.getBestAccuracy() * 100, result.getBestRound(), result.getLastAccuracy() * 100, result.getSamplesPerSecond()));
+        }
+
+        return table.toString();
+    }
+
+    private void invokeAll(List<Callable<Void>> tasks)
+    {
+        try
+        {
+            for (Future<Void> result : pool.invokeAll(tasks))
+            {
+                result.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while training", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("model failed while training", e.getCause());
+        }
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    public int getNumModels()
+    {
+        return models.size();
+    }
+
+    /**
+     * writes the best checkpoints still being saved and stops the threads
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            for (Model model : models)
+            {
+                model.evaluator.close();
+                model.checkpointer.close();
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * how one model of a sweep did
+     */
+    public static class Result
+    {
+        private final String name;
+        private final String shape;
+        private final int batchSize;
+        private final double stepSize;
+        private final String optimizer;
+        private final double bestAccuracy;
+        private final int bestRound;
+        private final double lastAccuracy;
+        private final double samplesPerSecond;
+        private final File bestFile;
+
+        private Result(Model model)
+        {
+            StringBuilder sizes = new StringBuilder();
+            for (int size : model.net.getLayerSizes())
+            {
+                if (sizes.length() > 0) sizes.append('-');
+                sizes.append(size);
+            }
+
+            name = model.name;
+            shape = sizes.toString();
+            batchSize = model.net.getBatchSize();
+            stepSize = model.net.getStepSize();
+            optimizer = model.net.getOptimizer().getClass().getSimpleName().replace("Optimizer", "");
+            bestAccuracy = model.bestAccuracy;
+            bestRound = model.bestRound;
+            lastAccuracy = model.lastAccuracy;
+            samplesPerSecond = model.trainNanos == 0 ? 0 : model.numExamples * 1e9 / model.trainNanos;
+            bestFile = model.bestFile;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return the layer sizes, such as 784-50-40-10
+         */
+        public String getShape()
+        {
+            return shape;
+        }
+
+        public int getBatchSize()
+        {
+            return batchSize;
+        }
+
+        public double getStepSize()
+        {
+            return stepSize;
+        }
+
+        public String getOptimizer()
+        {
+            return optimizer;
+        }
+
+        /**
+         * @return the best validation accuracy from 0 to 1, the one saved in the best file
+         */
+        public double getBestAccuracy()
+        {
+            return bestAccuracy;
+        }
+
+        /**
+         * @return the round the best accuracy was reached in, from 1, or 0 if the model has not been scored
+         */
+        public int getBestRound()
+        {
+            return bestRound;
+        }
+
+        /**
+         * @return the validation accuracy after the last round, from 0 to 1
+         */
+        public double getLastAccuracy()
+        {
+            return lastAccuracy;
+        }
+
+        /**
+         * @return the examples the model trained on per second of its own training time
+         */
+        public double getSamplesPerSecond()
+        {
+            return samplesPerSecond;
+        }
+
+        public File getBestFile()
+        {
+            return bestFile;
+        }
+    }
+
+    // a network of the sweep with the buffers it trains from and how it has done
+    private static class Model
+    {
+        final String name;
+        final NeuralNetwork net;
+        final File bestFile;
+        final Checkpointer checkpointer;
+
+        // one thread each, the sweep already scores the models in parallel
+        final Evaluator evaluator;
+
+        // the loader batch being trained on, set by the sweep before each train
+        DataBatch batch;
+
+        // a piece of the loader batch the size of the model's own batches, made when first needed
+        SparseMatrix pieceInputs;
+        Matrix pieceTargets;
+
+        int round;
+        double bestAccuracy;
+        int bestRound;
+        double lastAccuracy;
+
+        long numExamples;
+        long trainNanos;
+
+        Model(String inName, NeuralNetwork inNet, File inBestFile)
+        {
+            name = inName;
+            net = inNet;
+            bestFile = inBestFile;
+            checkpointer = new Checkpointer(bestFile, 1);
+            evaluator = new Evaluator(net, 1, 100);
+        }
+
+        Void train()
+        {
+            long start = System.nanoTime();
+
+            int size = batch.getSize();
+            int pieceSize = net.getBatchSize();
+
+            if (pieceSize == size)
+            {
+                net.trainBatch(batch.getSparseInputs(), batch.getTargets());
+            }
+            else
+            {
+                if (pieceTargets == null)
+                {
+                    pieceInputs = new SparseMatrix(batch.getSparseInputs().getCols(), pieceSize, 0);
+                    pieceTargets = new Matrix(pieceSize, batch.getTargets().getCols());
+                }
+
+                int cols = pieceTargets.getCols();
+
+                for (int row = 0; row < size; row += pieceSize)
+                {
+                    pieceInputs.setRows(batch.getSparseInputs(), row, row + pieceSize);
+                    System.arraycopy(batch.getTargets().getData(), row * cols, pieceTargets.getData(), 0, pieceSize * cols);
+
+                    net.trainBatch(pieceInputs, pieceTargets);
+                }
+            }
+
+            numExamples += size;
+            trainNanos += System.nanoTime() - start;
+
+            return null;
+        }
+
+        Void score(ImageDataset validation)
+        {
+            lastAccuracy = evaluator.evaluate(validation, 0).getAccuracy();
+
+            if (bestRound == 0 || lastAccuracy > bestAccuracy)
+            {
+                bestAccuracy = lastAccuracy;
+                bestRound = round;
+
+                checkpointer.checkpoint(net);
+            }
+
+            return null;
+        }
+    }
+}
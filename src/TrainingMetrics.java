@@ -0,0 +1,278 @@
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the metrics of one network: samples trained, running loss and accuracy, per-layer latencies,
+ * time in applyGradient and time spent waiting on a DataLoader
+ *
+ * only made when metrics are enabled, see Metrics, and every recording method is safe from any thread
+ */
+public class TrainingMetrics implements TrainingMetricsMXBean {
+
+    private final String name;
+
+    private final LatencyHistogram[] forward;
+    private final LatencyHistogram[] backward;
+    private final LatencyHistogram applyGradient = new LatencyHistogram();
+    private final LatencyHistogram dataWait = new LatencyHistogram();
+
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder correct = new LongAdder();
+    private final DoubleAdder loss = new DoubleAdder();
+
+    // totals at the last tick and the rates over the period before it
+    private long lastTickNanos;
+    private long lastSamples;
+    private long lastCorrect;
+    private double lastLoss;
+
+    private volatile double samplesPerSecond;
+    private volatile double runningLoss;
+    private volatile double runningAccuracy;
+
+    public TrainingMetrics(String inName, int numLayers)
+    {
+        name = inName;
+
+        forward = new LatencyHistogram[numLayers];
+        backward = new LatencyHistogram[numLayers];
+
+        for (int layer = 0; layer < numLayers; layer ++)
+        {
+            forward[layer] = new LatencyHistogram();
+            backward[layer] = new LatencyHistogram();
+        }
+
+        lastTickNanos = System.nanoTime();
+    }
+
+    /**
+     * @param layer is the index of the layer in the network
+     * @param nanos is how long one evaluate or evaluateBatch of it took
+     */
+    public void recordForward(int layer, long nanos)
+    {
+        forward[layer].record(nanos);
+    }
+
+    /**
+     * @param layer is the index of the layer in the network
+     * @param nanos is how long one dTrain or dTrainBatch of it took
+     */
+    public void recordBackward(int layer, long nanos)
+    {
+        backward[layer].record(nanos);
+    }
+
+    public void recordApplyGradient(long nanos)
+    {
+        applyGradient.record(nanos);
+    }
+
+    public void recordDataWait(long nanos)
+    {
+        dataWait.record(nanos);
+    }
+
+    /**
+     * @param count is the number of samples trained on
+     * @param lossSum is their summed squared error
+     * @param numCorrect is how many of them had their largest output at their largest target
+     */
+    public void recordSamples(int count, double lossSum, int numCorrect)
+    {
+        samples.add(count);
+        loss.add(lossSum);
+        correct.add(numCorrect);
+    }
+
+    /**
+     * adds the loss and accuracy of a batch of outputs against their targets, one sample per row
+     */
+    public void recordSamples(double[] outputs, double[] targets, int rows, int cols)
+    {
+        double lossSum = 0;
+        int numCorrect = 0;
+
+        for (int row = 0; row < rows; row ++)
+        {
+            int offset = row * cols;
+
+            int guess = 0;
+            int answer = 0;
+
+            for (int i = 0; i < cols; i ++)
+            {
+                double error = outputs[offset + i] - targets[offset + i];
+                lossSum += error * error;
+
+                if (outputs[offset + i] > outputs[offset + guess]) guess = i;
+                if (targets[offset + i] > targets[offset + answer]) answer = i;
+            }
+
+            if (guess == answer)
+            {
+                numCorrect++;
+            }
+        }
+
+        recordSamples(rows, lossSum, numCorrect);
+    }
+
+    /**
+     * ends a reporting period, the rates, loss and accuracy are over the period since the last tick
+     * only called from the Metrics reporter thread
+     */
+    void tick()
+    {
+        long now = System.nanoTime();
+
+        long totalSamples = samples.sum();
+        long totalCorrect = correct.sum();
+        double totalLoss = loss.sum();
+
+        long periodSamples = totalSamples - lastSamples;
+
+        samplesPerSecond = periodSamples / ((now - lastTickNanos) / 1e9);
+
+        if (periodSamples > 0)
+        {
+            runningLoss = (totalLoss - lastLoss) / periodSamples;
+            runningAccuracy = (double) (totalCorrect - lastCorrect) / periodSamples;
+        }
+
+        lastTickNanos = now;
+        lastSamples = totalSamples;
+        lastCorrect = totalCorrect;
+        lastLoss = totalLoss;
+    }
+
+    /**
+     * @return one line of key=value pairs with everything tracked, for the periodic log
+     */
+    public String toLogLine()
+    {
+        StringBuilder line = new StringBuilder("metrics");
+
+        line.append(" network=").append(name);
+        line.append(" samples=").append(getSamples());
+        line.append(String.format(" samplesPerSec=%.1f", samplesPerSecond));
+        line.append(String.format(" loss=%.5f", runningLoss));
+        line.append(String.format(" accuracy=%.4f", runningAccuracy));
+        line.append(" forwardMeanUs=").append(format(getForwardMeanMicros()));
+        line.append(" forwardP99Us=").append(format(getForwardP99Micros()));
+        line.append(" backwardMeanUs=").append(format(getBackwardMeanMicros()));
+        line.append(" backwardP99Us=").append(format(getBackwardP99Micros()));
+        line.append(String.format(" applyGradientMeanUs=%.1f", getApplyGradientMeanMicros()));
+        line.append(String.format(" applyGradientTotalMs=%.1f", getApplyGradientTotalMillis()));
+        line.append(String.format(" dataWaitMeanUs=%.1f", getDataWaitMeanMicros()));
+        line.append(String.format(" dataWaitTotalMs=%.1f", getDataWaitTotalMillis()));
+
+        return line.toString();
+    }
+
+    // comma separated with no spaces so the line still splits on spaces
+    private static String format(double[] values)
+    {
+        StringBuilder out = new StringBuilder();
+
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i > 0) out.append(',');
+            out.append(String.format("%.1f", values[i]));
+        }
+
+        return out.toString();
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public long getSamples()
+    {
+        return samples.sum();
+    }
+
+    @Override
+    public double getSamplesPerSecond()
+    {
+        return samplesPerSecond;
+    }
+
+    @Override
+    public double getRunningLoss()
+    {
+        return runningLoss;
+    }
+
+    @Override
+    public double getRunningAccuracy()
+    {
+        return runningAccuracy;
+    }
+
+    @Override
+    public double[] getForwardMeanMicros()
+    {
+        double[] out = new double[forward.length];
+        for (int layer = 0; layer < forward.length; layer ++) out[layer] = forward[layer].getMeanMicros();
+        return out;
+    }
+
+    @Override
+    public double[] getForwardP99Micros()
+    {
+        double[] out = new double[forward.length];
+        for (int layer = 0; layer < forward.length; layer ++) out[layer] = forward[layer].getPercentileMicros(99);
+        return out;
+    }
+
+    @Override
+    public double[] getBackwardMeanMicros()
+    {
+        double[] out = new double[backward.length];
+        for (int layer = 0; layer < backward.length; layer ++) out[layer] = backward[layer].getMeanMicros();
+        return out;
+    }
+
+    @Override
+    public double[] getBackwardP99Micros()
+    {
+        double[] out = new double[backward.length];
+        for (int layer = 0; layer < backward.length; layer ++) out[layer] = backward[layer].getPercentileMicros(99);
+        return out;
+    }
+
+    @Override
+    public long getApplyGradientCount()
+    {
+        return applyGradient.getCount();
+    }
+
+    @Override
+    public double getApplyGradientMeanMicros()
+    {
+        return applyGradient.getMeanMicros();
+    }
+
+    @Override
+    public double getApplyGradientTotalMillis()
+    {
+        return applyGradient.getTotalNanos() / 1e6;
+    }
+
+    @Override
+    public double getDataWaitMeanMicros()
+    {
+        return dataWait.getMeanMicros();
+    }
+
+    @Override
+    public double getDataWaitTotalMillis()
+    {
+        return dataWait.getTotalNanos() / 1e6;
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * the JMX view of TrainingMetrics
+ * rates, loss and accuracy are over the last reporting period, latencies are since the network was made
+ */
+public interface TrainingMetricsMXBean {
+
+    long getSamples();
+
+    double getSamplesPerSecond();
+
+    /**
+     * @return the mean squared error per sample over the last period
+     */
+    double getRunningLoss();
+
+    /**
+     * @return the fraction of samples over the last period whose largest output matched the largest target
+     */
+    double getRunningAccuracy();
+
+    double[] getForwardMeanMicros();
+
+    double[] getForwardP99Micros();
+
+    double[] getBackwardMeanMicros();
+
+    double[] getBackwardP99Micros();
+
+    long getApplyGradientCount();
+
+    double getApplyGradientMeanMicros();
+
+    double getApplyGradientTotalMillis();
+
+    double getDataWaitMeanMicros();
+
+    double getDataWaitTotalMillis();
+}
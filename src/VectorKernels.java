@@ -0,0 +1,393 @@
+import jdk.incubator.vector.*;
+
+/**
+ * explicit SIMD kernels on the Vector API, needs --add-modules jdk.incubator.vector at compile and run time
+ * each loop works a full vector at a time and finishes the tail with scalar code
+ */
+public class VectorKernels implements Kernels {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    // the int8 kernels fall back to these when there is no byte shape to match the int vectors
+    private static final ScalarKernels SCALAR = new ScalarKernels();
+
+    /**
+     * int8 lanes are widened to int before multiplying, so bytes are loaded with as many lanes as an int vector has
+     * with 128 bit ints that is a 32 bit byte vector, which does not exist, so the species are kept here to load on
+     * first use and BYTES is null on those machines, leaving the double and float kernels working
+     */
+    private static final class Int8 {
+
+        static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+        static final VectorSpecies<Byte> BYTES = byteSpecies();
+
+        private static VectorSpecies<Byte> byteSpecies()
+        {
+            try
+            {
+                return VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * Byte.SIZE));
+            }
+            catch (IllegalArgumentException e)
+            {
+                return null;
+            }
+        }
+
+        static IntVector widen(byte[] values, int off)
+        {
+            return (IntVector) ByteVector.fromArray(BYTES, values, off).castShape(INTS, 0);
+        }
+    }
+
+    @Override
+    public double dot(double[] v1, int off1, double[] v2, int off2, int length)
+    {
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length())
+        {
+            sum = sum.add(DoubleVector.fromArray(DOUBLES, v1, off1 + i).mul(DoubleVector.fromArray(DOUBLES, v2, off2 + i)));
+        }
+
+        double out = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) out += v1[off1 + i] * v2[off2 + i];
+        return out;
+    }
+
+    @Override
+    public void dot4(double[] x, int x0, int stride, double[] v, int vOff, int length, double[] out, int outOff)
+    {
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        DoubleVector s0 = DoubleVector.zero(DOUBLES);
+        DoubleVector s1 = s0, s2 = s0, s3 = s0;
+
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length())
+        {
+            DoubleVector value = DoubleVector.fromArray(DOUBLES, v, vOff + i);
+            s0 = s0.add(DoubleVector.fromArray(DOUBLES, x, x0 + i).mul(value));
+            s1 = s1.add(DoubleVector.fromArray(DOUBLES, x, x1 + i).mul(value));
+            s2 = s2.add(DoubleVector.fromArray(DOUBLES, x, x2 + i).mul(value));
+            s3 = s3.add(DoubleVector.fromArray(DOUBLES, x, x3 + i).mul(value));
+        }
+
+        double t0 = s0.reduceLanes(VectorOperators.ADD);
+        double t1 = s1.reduceLanes(VectorOperators.ADD);
+        double t2 = s2.reduceLanes(VectorOperators.ADD);
+        double t3 = s3.reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++)
+        {
+            double value = v[vOff + i];
+            t0 += x[x0 + i] * value;
+            t1 += x[x1 + i] * value;
+            t2 += x[x2 + i] * value;
+            t3 += x[x3 + i] * value;
+        }
+
+        out[outOff] += t0;
+        out[outOff + 1] += t1;
+        out[outOff + 2] += t2;
+        out[outOff + 3] += t3;
+    }
+
+    // a DoubleVector gather with an index map was faster here, but C2 on JDK 17 miscompiles it into a crash,
+    // so this is the same unrolled loop as ScalarKernels
+    @Override
+    public double sparseDot(double[] values, int[] indices, int off, int length, double[] v)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+        int i = off;
+        int end = off + length;
+        for (; i + 3 < end; i += 4)
+        {
+            s0 += values[i] * v[indices[i]];
+            s1 += values[i + 1] * v[indices[i + 1]];
+            s2 += values[i + 2] * v[indices[i + 2]];
+            s3 += values[i + 3] * v[indices[i + 3]];
+        }
+        for (; i < end; i++) s0 += values[i] * v[indices[i]];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int length)
+    {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length())
+        {
+            DoubleVector.fromArray(DOUBLES, x, xOff + i).mul(alpha)
+                .add(DoubleVector.fromArray(DOUBLES, y, yOff + i))
+                .intoArray(y, yOff + i);
+        }
+        for (; i < length; i++) y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    @Override
+    public void axpy4(double a0, double a1, double a2, double a3, double[] x, int x0, int stride, double[] y, int yOff, int length)
+    {
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length())
+        {
+            DoubleVector.fromArray(DOUBLES, x, x0 + i).mul(a0)
+                .add(DoubleVector.fromArray(DOUBLES, x, x1 + i).mul(a1))
+                .add(DoubleVector.fromArray(DOUBLES, x, x2 + i).mul(a2))
+                .add(DoubleVector.fromArray(DOUBLES, x, x3 + i).mul(a3))
+                .add(DoubleVector.fromArray(DOUBLES, y, yOff + i))
+                .intoArray(y, yOff + i);
+        }
+        for (; i < length; i++)
+        {
+            y[yOff + i] += a0 * x[x0 + i] + a1 * x[x1 + i] + a2 * x[x2 + i] + a3 * x[x3 + i];
+        }
+    }
+
+    @Override
+    public void add(double[] v1, int off1, double[] v2, int off2, double[] out, int outOff, int length)
+    {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length())
+        {
+            DoubleVector.fromArray(DOUBLES, v1, off1 + i).add(DoubleVector.fromArray(DOUBLES, v2, off2 + i)).intoArray(out, outOff + i);
+        }
+        for (; i < length; i++) out[outOff + i] = v1[off1 + i] + v2[off2 + i];
+    }
+
+    @Override
+    public void addBiasLeakyRelu(double[] values, int off, double[] biases, double[] out, int outOff, int length, double slope)
+    {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length())
+        {
+            DoubleVector value = DoubleVector.fromArray(DOUBLES, values, off + i).add(DoubleVector.fromArray(DOUBLES, biases, i));
+            value.intoArray(values, off + i);
+            value.blend(value.mul(slope), value.compare(VectorOperators.LT, 0)).intoArray(out, outOff + i);
+        }
+        for (; i < length; i++)
+        {
+            double value = values[off + i] + biases[i];
+            values[off + i] = value;
+            out[outOff + i] = value < 0 ? slope * value : value;
+        }
+    }
+
+    @Override
+    public void multiplyLeakyReluDerivative(double[] values, int off, double[] delta, int deltaOff, int length, double slope)
+    {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length())
+        {
+            DoubleVector d = DoubleVector.fromArray(DOUBLES, delta, deltaOff + i);
+            VectorMask<Double> negative = DoubleVector.fromArray(DOUBLES, values, off + i).compare(VectorOperators.LT, 0);
+            d.blend(d.mul(slope), negative).intoArray(delta, deltaOff + i);
+        }
+        for (; i < length; i++)
+        {
+            if (values[off + i] < 0) delta[deltaOff + i] *= slope;
+        }
+    }
+
+    @Override
+    public float dot(float[] v1, int off1, float[] v2, int off2, int length)
+    {
+        FloatVector sum = FloatVector.zero(FLOATS);
+
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length())
+        {
+            sum = sum.add(FloatVector.fromArray(FLOATS, v1, off1 + i).mul(FloatVector.fromArray(FLOATS, v2, off2 + i)));
+        }
+
+        float out = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) out += v1[off1 + i] * v2[off2 + i];
+        return out;
+    }
+
+    @Override
+    public void dot4(float[] x, int x0, int stride, float[] v, int vOff, int length, float[] out, int outOff)
+    {
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        FloatVector s0 = FloatVector.zero(FLOATS);
+        FloatVector s1 = s0, s2 = s0, s3 = s0;
+
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length())
+        {
+            FloatVector value = FloatVector.fromArray(FLOATS, v, vOff + i);
+            s0 = s0.add(FloatVector.fromArray(FLOATS, x, x0 + i).mul(value));
+            s1 = s1.add(FloatVector.fromArray(FLOATS, x, x1 + i).mul(value));
+            s2 = s2.add(FloatVector.fromArray(FLOATS, x, x2 + i).mul(value));
+            s3 = s3.add(FloatVector.fromArray(FLOATS, x, x3 + i).mul(value));
+        }
+
+        float t0 = s0.reduceLanes(VectorOperators.ADD);
+        float t1 = s1.reduceLanes(VectorOperators.ADD);
+        float t2 = s2.reduceLanes(VectorOperators.ADD);
+        float t3 = s3.reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++)
+        {
+            float value = v[vOff + i];
+            t0 += x[x0 + i] * value;
+            t1 += x[x1 + i] * value;
+            t2 += x[x2 + i] * value;
+            t3 += x[x3 + i] * value;
+        }
+
+        out[outOff] += t0;
+        out[outOff + 1] += t1;
+        out[outOff + 2] += t2;
+        out[outOff + 3] += t3;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int length)
+    {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length())
+        {
+            FloatVector.fromArray(FLOATS, x, xOff + i).mul(alpha)
+                .add(FloatVector.fromArray(FLOATS, y, yOff + i))
+                .intoArray(y, yOff + i);
+        }
+        for (; i < length; i++) y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    @Override
+    public void axpy4(float a0, float a1, float a2, float a3, float[] x, int x0, int stride, float[] y, int yOff, int length)
+    {
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length())
+        {
+            FloatVector.fromArray(FLOATS, x, x0 + i).mul(a0)
+                .add(FloatVector.fromArray(FLOATS, x, x1 + i).mul(a1))
+                .add(FloatVector.fromArray(FLOATS, x, x2 + i).mul(a2))
+                .add(FloatVector.fromArray(FLOATS, x, x3 + i).mul(a3))
+                .add(FloatVector.fromArray(FLOATS, y, yOff + i))
+                .intoArray(y, yOff + i);
+        }
+        for (; i < length; i++)
+        {
+            y[yOff + i] += a0 * x[x0 + i] + a1 * x[x1 + i] + a2 * x[x2 + i] + a3 * x[x3 + i];
+        }
+    }
+
+    @Override
+    public void addBiasLeakyRelu(float[] values, int off, float[] biases, float[] out, int outOff, int length, float slope)
+    {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length())
+        {
+            FloatVector value = FloatVector.fromArray(FLOATS, values, off + i).add(FloatVector.fromArray(FLOATS, biases, i));
+            value.intoArray(values, off + i);
+            value.blend(value.mul(slope), value.compare(VectorOperators.LT, 0)).intoArray(out, outOff + i);
+        }
+        for (; i < length; i++)
+        {
+            float value = values[off + i] + biases[i];
+            values[off + i] = value;
+            out[outOff + i] = value < 0 ? slope * value : value;
+        }
+    }
+
+    @Override
+    public void multiplyLeakyReluDerivative(float[] values, int off, float[] delta, int deltaOff, int length, float slope)
+    {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length())
+        {
+            FloatVector d = FloatVector.fromArray(FLOATS, delta, deltaOff + i);
+            VectorMask<Float> negative = FloatVector.fromArray(FLOATS, values, off + i).compare(VectorOperators.LT, 0);
+            d.blend(d.mul(slope), negative).intoArray(delta, deltaOff + i);
+        }
+        for (; i < length; i++)
+        {
+            if (values[off + i] < 0) delta[deltaOff + i] *= slope;
+        }
+    }
+
+    @Override
+    public int dot(byte[] v1, int off1, byte[] v2, int off2, int length)
+    {
+        if (Int8.BYTES == null)
+        {
+            return SCALAR.dot(v1, off1, v2, off2, length);
+        }
+
+        IntVector sum = IntVector.zero(Int8.INTS);
+
+        int i = 0;
+        for (int bound = Int8.BYTES.loopBound(length); i < bound; i += Int8.BYTES.length())
+        {
+            sum = sum.add(Int8.widen(v1, off1 + i).mul(Int8.widen(v2, off2 + i)));
+        }
+
+        int out = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) out += v1[off1 + i] * v2[off2 + i];
+        return out;
+    }
+
+    @Override
+    public void dot4(byte[] x, int x0, int stride, byte[] v, int vOff, int length, int[] out, int outOff)
+    {
+        if (Int8.BYTES == null)
+        {
+            SCALAR.dot4(x, x0, stride, v, vOff, length, out, outOff);
+            return;
+        }
+
+        int x1 = x0 + stride;
+        int x2 = x1 + stride;
+        int x3 = x2 + stride;
+
+        IntVector s0 = IntVector.zero(Int8.INTS);
+        IntVector s1 = s0, s2 = s0, s3 = s0;
+
+        int i = 0;
+        for (int bound = Int8.BYTES.loopBound(length); i < bound; i += Int8.BYTES.length())
+        {
+            IntVector value = Int8.widen(v, vOff + i);
+            s0 = s0.add(Int8.widen(x, x0 + i).mul(value));
+            s1 = s1.add(Int8.widen(x, x1 + i).mul(value));
+            s2 = s2.add(Int8.widen(x, x2 + i).mul(value));
+            s3 = s3.add(Int8.widen(x, x3 + i).mul(value));
+        }
+
+        int t0 = s0.reduceLanes(VectorOperators.ADD);
+        int t1 = s1.reduceLanes(VectorOperators.ADD);
+        int t2 = s2.reduceLanes(VectorOperators.ADD);
+        int t3 = s3.reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++)
+        {
+            int value = v[vOff + i];
+            t0 += x[x0 + i] * value;
+            t1 += x[x1 + i] * value;
+            t2 += x[x2 + i] * value;
+            t3 += x[x3 + i] * value;
+        }
+
+        out[outOff] += t0;
+        out[outOff + 1] += t1;
+        out[outOff + 2] += t2;
+        out[outOff + 3] += t3;
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * a small lock-free pool of scratch workspaces, for the evaluate(in, out) of the networks that can be shared between threads
+ *
+ * a ThreadLocal workspace costs nothing on a pool of platform threads, but a thread-per-request executor of virtual threads
+ * runs every call on a new thread, so every call would make a whole workspace and throw it away
+ * here a call takes any free workspace and gives it back when done, so once there are as many workspaces as calls running
+ * at once nothing is allocated, whatever threads the calls are on
+ * at most capacity workspaces are kept, any given back past that are left to the garbage collector
+ */
+public class WorkspacePool<T> {
+
+    private final AtomicReferenceArray<T> free;
+    private final Supplier<T> factory;
+
+    /**
+     * keeps up to two workspaces per processor
+     * @param inFactory makes a new workspace when none is free
+     */
+    public WorkspacePool(Supplier<T> inFactory)
+    {
+        this(inFactory, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param inFactory makes a new workspace when none is free
+     * @param capacity is the most workspaces kept
+     */
+    public WorkspacePool(Supplier<T> inFactory, int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        free = new AtomicReferenceArray<>(capacity);
+        factory = inFactory;
+    }
+
+    // threads start looking at different slots so they do not all fight over the first one
+    private int firstSlot()
+    {
+        return (System.identityHashCode(Thread.currentThread()) & Integer.MAX_VALUE) % free.length();
+    }
+
+    /**
+     * @return a workspace no other caller has until it is given back, made new if none is free
+     */
+    public T take()
+    {
+        int first = firstSlot();
+
+        for (int i = 0; i < free.length(); i++)
+        {
+            int slot = (first + i) % free.length();
+
+            T workspace = free.get(slot);
+            if (workspace != null && free.compareAndSet(slot, workspace, null))
+            {
+                return workspace;
+            }
+        }
+
+        return factory.get();
+    }
+
+    /**
+     * @param workspace is one from take that the caller has finished with and must not use again
+     */
+    public void give(T workspace)
+    {
+        int first = firstSlot();
+
+        for (int i = 0; i < free.length(); i++)
+        {
+            int slot = (first + i) % free.length();
+
+            if (free.get(slot) == null && free.compareAndSet(slot, null, workspace))
+            {
+                return;
+            }
+        }
+    }
+}